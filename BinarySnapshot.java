@@ -0,0 +1,508 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link BinarySnapshot}<br />
+ * Reads and writes the versioned binary save files used by the {@link Server}: users.bin, conversation_list.bin and
+ * one &lt;id&gt;.bin per {@link Conversation}. Strings are length-prefixed UTF-8 and numbers are varints. Every file
+ * starts with a magic number and a version, followed by records which each carry their length and a CRC32C. Files are
+ * written to a temporary file which is then moved over the old one, so a crash never leaves a half-written file behind.
+ * Conversation files hold only their metadata; the {@link Message}s are kept in a {@link MessageSegment}.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class BinarySnapshot {
+    /**
+     * The current version of every binary save file
+     */
+    public static final byte VERSION = 3;
+    private static final int USERS_MAGIC = 0x434D5553; // "CMUS"
+    private static final int CONVERSATION_MAGIC = 0x434D4356; // "CMCV"
+    private static final int CONVERSATION_LIST_MAGIC = 0x434D434C; // "CMCL"
+    
+    private static final byte TYPE_SELLER = 1;
+    private static final byte TYPE_CUSTOMER = 2;
+    
+    /**
+     * Blank constructor
+     */
+    private BinarySnapshot() {
+    }
+    
+    /**
+     * Writes every given {@link User} to the given file, replacing it
+     *
+     * @param file     the file to write
+     * @param users    the {@link User}s to write
+     * @param comments the comment lines carried over from the text save format
+     * @return the number of bytes written
+     * @throws IOException if the file could not be written
+     */
+    public static long writeUsers(File file, Collection<User> users, List<String> comments) throws IOException {
+        Encoder out = new Encoder();
+        out.putInt(USERS_MAGIC);
+        out.putByte(VERSION);
+        
+        int record = out.beginRecord();
+        out.putVarLong(comments.size());
+        for (String comment : comments) {
+            out.putString(comment);
+        }
+        out.endRecord(record);
+        
+        for (User u : users) {
+            record = out.beginRecord();
+            out.putByte(u instanceof Seller ? TYPE_SELLER : TYPE_CUSTOMER);
+            out.putString(u.getEmail());
+            out.putString(u.getName());
+            out.putString(u.getPassword());
+            out.putStrings(u.getBlockedEmails());
+            out.putStrings(u.getInvisEmails());
+            out.putStrings(u instanceof Seller ? ((Seller) u).getStoreNames() : List.of());
+            
+            HashMap<String, String> blockedPhrases = u.getBlockedPhrases();
+            out.putVarLong(blockedPhrases == null ? 0 : blockedPhrases.size());
+            if (blockedPhrases != null) {
+                for (Map.Entry<String, String> phrase : blockedPhrases.entrySet()) {
+                    out.putString(phrase.getKey());
+                    out.putString(phrase.getValue());
+                }
+            }
+            out.endRecord(record);
+        }
+        
+        return out.writeTo(file);
+    }
+    
+    /**
+     * Reads every {@link User} from the given file. Each one is put into the {@link User} registry as it is rebuilt
+     *
+     * @param file the file to read
+     * @return the comment lines carried over from the text save format
+     * @throws IOException if the file could not be read or is not a users file
+     */
+    public static ArrayList<String> readUsers(File file) throws IOException {
+        Decoder in = Decoder.open(file, USERS_MAGIC);
+        
+        ArrayList<String> comments = new ArrayList<>();
+        Decoder record = in.nextRecord();
+        long commentCount = record.getVarLong();
+        for (long i = 0; i < commentCount; i++) {
+            comments.add(record.getString());
+        }
+        
+        while (in.hasRemaining()) {
+            try {
+                record = in.nextRecord();
+            } catch (IOException ioe) {
+                // Keep every User read so far rather than none of them
+                System.err.println("Stopped reading users: " + ioe.getMessage());
+                break;
+            }
+            byte type = record.getByte();
+            String email = record.getString();
+            String name = record.getString();
+            String passwordHash = record.getString();
+            ArrayList<String> blockedEmails = record.getStrings();
+            ArrayList<String> invisEmails = record.getStrings();
+            ArrayList<String> storeNames = record.getStrings();
+            HashMap<String, String> blockedPhrases = new HashMap<>();
+            long phraseCount = record.getVarLong();
+            for (long i = 0; i < phraseCount; i++) {
+                blockedPhrases.put(record.getString(), record.getString());
+            }
+            
+            if (User.userExists(email)) {
+                continue;
+            }
+            User u;
+            try {
+                if (type == TYPE_SELLER) {
+                    u = new Seller(name, email, "", blockedPhrases, storeNames);
+                } else if (type == TYPE_CUSTOMER) {
+                    u = new Customer(name, email, "", blockedPhrases);
+                } else {
+                    throw new IOException("Unrecognised user type " + type + " in " + file);
+                }
+            } catch (IllegalArgumentException iae) {
+                System.err.println("error rebuilding user \"" + email + "\"");
+                continue;
+            }
+            u.setPasswordHash(passwordHash);
+            for (String blocked : blockedEmails) {
+                u.blockUser(blocked);
+            }
+            for (String invis : invisEmails) {
+                u.becomeInvisibleToUser(invis);
+            }
+        }
+        
+        return comments;
+    }
+    
+    /**
+     * Writes a {@link Conversation}'s metadata to its file, replacing it. Its {@link Message}s are kept in a separate
+     * {@link MessageSegment}
+     *
+     * @param file the file to write
+     * @param c    the {@link Conversation}
+     * @return the number of bytes written
+     * @throws IOException if the file could not be written
+     */
+    public static long writeConversation(File file, Conversation c) throws IOException {
+        Encoder out = new Encoder();
+        out.putInt(CONVERSATION_MAGIC);
+        out.putByte(VERSION);
+        int record = out.beginRecord();
+        // seller, store, customer, disappearing
+        out.putString(c.getSeller().getEmail());
+        out.putByte((byte) (c.getStore() == null ? 0 : 1));
+        if (c.getStore() != null) {
+            out.putString(c.getStore());
+        }
+        out.putString(c.getCustomer().getEmail());
+        out.putByte((byte) (c.isDisappearing() ? 1 : 0));
+        out.endRecord(record);
+        return out.writeTo(file);
+    }
+    
+    /**
+     * Reads a {@link Conversation}'s metadata from the given file and opens its {@link MessageSegment}. Its
+     * {@link Message}s are only read the first time they are needed. The {@link Conversation} is not added to the
+     * {@link MainListOfConversations}, so this may be called from several threads at once as long as no
+     * {@link User}s are being added or removed
+     *
+     * @param file        the metadata file to read
+     * @param segmentFile the {@link Conversation}'s {@link MessageSegment} file
+     * @return the {@link Conversation}, or null if one of its participants no longer exists
+     * @throws IOException if a file could not be read or is not a conversation file
+     */
+    public static Conversation readConversation(File file, File segmentFile) throws IOException {
+        Decoder in = Decoder.open(file, CONVERSATION_MAGIC);
+        
+        Decoder record = in.nextRecord();
+        String sellerEmail = record.getString();
+        String store = (record.getByte() == 0 ? null : record.getString());
+        String customerEmail = record.getString();
+        boolean isDisappearing = record.getByte() != 0;
+        
+        User seller = User.getUser(sellerEmail);
+        User customer = User.getUser(customerEmail);
+        if (!(seller instanceof Seller) || !(customer instanceof Customer)) {
+            return null;
+        }
+        
+        MessageSegment segment = (segmentFile.exists() ? MessageSegment.open(segmentFile) : null);
+        return new Conversation((Seller) seller, store, (Customer) customer, isDisappearing, segment);
+    }
+    
+    /**
+     * Writes the ids of every saved {@link Conversation}, replacing the file
+     *
+     * @param file            the file to write
+     * @param conversationIds the ids to write
+     * @return the number of bytes written
+     * @throws IOException if the file could not be written
+     */
+    public static long writeConversationList(File file, Set<String> conversationIds) throws IOException {
+        Encoder out = new Encoder();
+        out.putInt(CONVERSATION_LIST_MAGIC);
+        out.putByte(VERSION);
+        int record = out.beginRecord();
+        out.putStrings(conversationIds);
+        out.endRecord(record);
+        return out.writeTo(file);
+    }
+    
+    /**
+     * Reads the ids of every saved {@link Conversation}
+     *
+     * @param file the file to read
+     * @return the ids
+     * @throws IOException if the file could not be read or is not a conversation list
+     */
+    public static HashSet<String> readConversationList(File file) throws IOException {
+        Decoder in = Decoder.open(file, CONVERSATION_LIST_MAGIC);
+        return new HashSet<>(in.nextRecord().getStrings());
+    }
+    
+    /**
+     * Moves a fully written temporary file over the given file in one step where the file system allows it
+     *
+     * @param temp   the temporary file
+     * @param target the file to replace
+     * @throws IOException if the file could not be moved
+     */
+    static void replaceAtomically(File temp, File target) throws IOException {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * A growable byte buffer with the encoding helpers used by the save files
+     */
+    private static final class Encoder {
+        private byte[] bytes;
+        private int size;
+        
+        /**
+         * Creates an empty {@link Encoder}
+         */
+        Encoder() {
+            this.bytes = new byte[256];
+            this.size = 0;
+        }
+        
+        /**
+         * Grows the buffer so that it can hold the given number of extra bytes
+         */
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + extra)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+        
+        /**
+         * Appends a single byte
+         */
+        void putByte(byte b) {
+            ensureCapacity(1);
+            bytes[size++] = b;
+        }
+        
+        /**
+         * Appends a big-endian int
+         */
+        void putInt(int i) {
+            ensureCapacity(4);
+            bytes[size++] = (byte) (i >>> 24);
+            bytes[size++] = (byte) (i >>> 16);
+            bytes[size++] = (byte) (i >>> 8);
+            bytes[size++] = (byte) i;
+        }
+        
+        /**
+         * Appends an unsigned varint (7 bits per byte, low bits first)
+         */
+        void putVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+        
+        /**
+         * Appends a varint length followed by the UTF-8 bytes of the given String
+         */
+        void putString(String s) {
+            byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+            putVarLong(encoded.length);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+        
+        /**
+         * Appends a varint count followed by each String
+         */
+        void putStrings(Collection<String> strings) {
+            putVarLong(strings.size());
+            for (String s : strings) {
+                putString(s);
+            }
+        }
+        
+        /**
+         * Starts a checksummed record, returning where it starts. Its length is filled in by endRecord(int start)
+         */
+        int beginRecord() {
+            int start = size;
+            putInt(0);
+            return start;
+        }
+        
+        /**
+         * Finishes the record started at the given position: fills in its length and appends its CRC32C
+         */
+        void endRecord(int start) {
+            int length = size - start - 4;
+            bytes[start] = (byte) (length >>> 24);
+            bytes[start + 1] = (byte) (length >>> 16);
+            bytes[start + 2] = (byte) (length >>> 8);
+            bytes[start + 3] = (byte) length;
+            CRC32C crc = new CRC32C();
+            crc.update(bytes, start + 4, length);
+            putInt((int) crc.getValue());
+        }
+        
+        /**
+         * Writes everything appended so far to a temporary file then moves it over the given file, so the file is
+         * never seen half-written. Returns the number of bytes written
+         */
+        long writeTo(File file) throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+            replaceAtomically(temp, file);
+            return size;
+        }
+        
+    }
+    
+    /**
+     * Reads the encodings written by {@link Encoder} from a memory-mapped save file
+     */
+    private static final class Decoder {
+        private final File file;
+        private final ByteBuffer buffer;
+        
+        /**
+         * A {@link Decoder} constructor
+         */
+        private Decoder(File file, ByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+        
+        /**
+         * Maps the given file and checks its magic number and version
+         */
+        static Decoder open(File file, int magic) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            MappedByteBuffer mapped;
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+            Decoder in = new Decoder(file, mapped);
+            if (in.buffer.remaining() < 5 || in.buffer.getInt() != magic) {
+                throw new IOException(file + " is not a recognised save file");
+            }
+            byte version = in.buffer.get();
+            if (version != VERSION) {
+                throw new IOException(file + " has an unsupported version (" + version + ")");
+            }
+            return in;
+        }
+        
+        /**
+         * Returns whether there is anything left to read
+         */
+        boolean hasRemaining() {
+            return buffer.hasRemaining();
+        }
+        
+        /**
+         * Returns a {@link Decoder} over the next checksummed record, checking its CRC32C
+         */
+        Decoder nextRecord() throws IOException {
+            if (buffer.remaining() < 8) {
+                throw new IOException(file + " ends unexpectedly");
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining() - 4) {
+                throw new IOException(file + " ends unexpectedly");
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            buffer.position(buffer.position() + length);
+            int expected = buffer.getInt();
+            
+            CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expected) {
+                throw new IOException(file + " has a damaged record (checksum mismatch)");
+            }
+            return new Decoder(file, payload);
+        }
+        
+        /**
+         * Reads a single byte
+         */
+        byte getByte() throws IOException {
+            try {
+                return buffer.get();
+            } catch (BufferUnderflowException bue) {
+                throw new IOException(file + " ends unexpectedly");
+            }
+        }
+        
+        /**
+         * Reads an unsigned varint
+         */
+        long getVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = getByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException(file + " has a malformed varint");
+        }
+        
+        /**
+         * Reads a length-prefixed UTF-8 String
+         */
+        String getString() throws IOException {
+            long length = getVarLong();
+            if (length > buffer.remaining()) {
+                throw new IOException(file + " ends unexpectedly");
+            }
+            byte[] encoded = new byte[(int) length];
+            buffer.get(encoded);
+            return new String(encoded, StandardCharsets.UTF_8);
+        }
+        
+        /**
+         * Reads a count-prefixed list of Strings
+         */
+        ArrayList<String> getStrings() throws IOException {
+            long count = getVarLong();
+            ArrayList<String> out = new ArrayList<>();
+            for (long i = 0; i < count; i++) {
+                out.add(getString());
+            }
+            return out;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,203 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link CheckpointScheduler}<br />
+ * Runs the {@link Server}'s checkpoints (snapshot saves) on a dedicated thread instead of on client handler threads.
+ * A checkpoint runs once the configured interval has passed since the last one or once enough bytes have been logged
+ * since the last one; any number of triggers while a checkpoint is pending or running are coalesced into a single
+ * checkpoint.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class CheckpointScheduler implements AutoCloseable {
+    private final LongSupplier checkpoint;
+    private final long intervalMillis;
+    private final long maxDirtyBytes;
+    private final boolean printDebug;
+    private final Object lock;
+    private final Thread thread;
+    private final AtomicLong dirtyBytes;
+    private boolean open;
+    
+    ///// METRICS /////
+    private volatile long checkpointCount;
+    private volatile long lastDurationMillis;
+    private volatile long totalDurationMillis;
+    private volatile long lastBytesWritten;
+    private volatile long totalBytesWritten;
+    
+    /**
+     * A {@link CheckpointScheduler} constructor. Starts the checkpoint thread
+     *
+     * @param checkpoint     the checkpoint to run; returns the number of bytes it wrote
+     * @param intervalMillis the longest time to go between checkpoints while there are unsaved changes
+     * @param maxDirtyBytes  the number of logged bytes after which a checkpoint is run early
+     * @param printDebug     whether to print each checkpoint's metrics
+     */
+    public CheckpointScheduler(LongSupplier checkpoint, long intervalMillis, long maxDirtyBytes, boolean printDebug) {
+        if (intervalMillis <= 0 || maxDirtyBytes <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval and dirty byte limit must be positive");
+        }
+        this.checkpoint = checkpoint;
+        this.intervalMillis = intervalMillis;
+        this.maxDirtyBytes = maxDirtyBytes;
+        this.printDebug = printDebug;
+        this.lock = new Object();
+        this.dirtyBytes = new AtomicLong();
+        this.open = true;
+        
+        this.thread = new Thread(this::run, "CheckpointScheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    /**
+     * Records that the given number of bytes were logged since the last checkpoint, waking the checkpoint thread if
+     * the limit has been reached
+     *
+     * @param bytes the number of bytes logged
+     */
+    public void addDirtyBytes(long bytes) {
+        if (dirtyBytes.addAndGet(bytes) >= maxDirtyBytes) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * The checkpoint thread's loop
+     */
+    private void run() {
+        long lastCheckpoint = System.currentTimeMillis();
+        while (true) {
+            synchronized (lock) {
+                while (open && dirtyBytes.get() < maxDirtyBytes) {
+                    long wait = lastCheckpoint + intervalMillis - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        if (dirtyBytes.get() > 0) {
+                            break;
+                        }
+                        // Nothing changed; don't bother
+                        lastCheckpoint = System.currentTimeMillis();
+                        wait = intervalMillis;
+                    }
+                    try {
+                        lock.wait(wait);
+                    } catch (InterruptedException ie) {
+                        // Checked by the loop condition
+                    }
+                }
+                if (!open) {
+                    return;
+                }
+            }
+            
+            try {
+                runCheckpoint();
+            } catch (RuntimeException re) {
+                // Left dirty, so the next one tries again; one failure mustn't stop every later checkpoint
+                System.err.println("Error running checkpoint! Details: ");
+                re.printStackTrace();
+            }
+            lastCheckpoint = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Runs a checkpoint on the current thread and records its metrics. If it fails, the bytes it was to cover are
+     * counted as dirty again
+     */
+    private void runCheckpoint() {
+        long dirty = dirtyBytes.getAndSet(0);
+        long start = System.nanoTime();
+        long written;
+        try {
+            written = checkpoint.getAsLong();
+        } catch (RuntimeException re) {
+            dirtyBytes.addAndGet(dirty);
+            throw re;
+        }
+        long duration = (System.nanoTime() - start) / 1_000_000;
+        
+        synchronized (lock) {
+            checkpointCount++;
+            lastDurationMillis = duration;
+            totalDurationMillis += duration;
+            lastBytesWritten = written;
+            totalBytesWritten += written;
+        }
+        
+        if (printDebug) {
+            System.out.printf("Checkpoint #%d took %d ms and wrote %d bytes%n", checkpointCount, duration, written);
+        }
+    }
+    
+    /**
+     * Returns the number of checkpoints run
+     *
+     * @return the number of checkpoints run
+     */
+    public long getCheckpointCount() {
+        return checkpointCount;
+    }
+    
+    /**
+     * Returns how long the last checkpoint took
+     *
+     * @return how long the last checkpoint took, in milliseconds
+     */
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+    
+    /**
+     * Returns how long every checkpoint so far took altogether
+     *
+     * @return the total checkpoint time, in milliseconds
+     */
+    public long getTotalDurationMillis() {
+        return totalDurationMillis;
+    }
+    
+    /**
+     * Returns the number of bytes the last checkpoint wrote
+     *
+     * @return the number of bytes the last checkpoint wrote
+     */
+    public long getLastBytesWritten() {
+        return lastBytesWritten;
+    }
+    
+    /**
+     * Returns the number of bytes every checkpoint so far wrote altogether
+     *
+     * @return the total number of bytes written by checkpoints
+     */
+    public long getTotalBytesWritten() {
+        return totalBytesWritten;
+    }
+    
+    /**
+     * Stops the checkpoint thread then runs one final checkpoint on the calling thread
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        runCheckpoint();
+    }
+    
+}
@@ -1,20 +1,97 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * {@link Client}<br />
  * This class extends and acts as a Socket with some helper methods to interact with the messaging system
+ * <p>
+ * Every request has a blocking method and an {@code Async} variant returning a {@link CompletableFuture}. Over the
+ * FRAMED and BINARY protocols each request carries an id, so any number of them can be in flight on the one
+ * connection: the server runs them side by side and answers each as it finishes, and a thread of this client's own
+ * matches the replies back up. Requests in flight together may run in any order; wait for one before sending another
+ * that depends on it. Over STREAM each request is sent and answered before the next, so its futures are already
+ * complete when returned. Callbacks added to a future without an executor run on the thread reading replies and must
+ * not wait on another reply. Over FRAMED and BINARY a client can also {@link #subscribe(User, Consumer)} to be sent
+ * new {@link Message}s as they arrive
  *
  * @author Javad Jafarov, Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin
  * @version 12/12/2022
  */
 public class Client extends Socket {
+    /**
+     * How requests and replies are sent
+     */
+    public enum Protocol {
+        /**
+         * On one serialization stream for the whole connection, to a {@link Server}'s own port
+         */
+        STREAM,
+        /**
+         * As length-prefixed frames each holding a serialization stream, to a {@link SelectorEngine}
+         */
+        FRAMED,
+        /**
+         * As length-prefixed frames in the {@link WireCodec} binary protocol, to a {@link SelectorEngine}
+         */
+        BINARY
+    }
+    
+    /**
+     * How long closing waits for the replies to requests still in flight
+     */
+    private static final long CLOSE_TIMEOUT_MILLIS;
+    
+    static {
+        CLOSE_TIMEOUT_MILLIS = 5000;
+    }
+    
+    private final Protocol protocol;
+    /**
+     * The connection's serialization streams; null unless the protocol is STREAM
+     */
     private final ObjectInputStream ois;
+    private final SessionObjectOutputStream oos;
     private final OutputStream os;
-    private final ObjectOutputStream oos;
+    /**
+     * Held while a STREAM request is sent and its reply read
+     */
+    private final Object streamLock;
+    /**
+     * The connection's raw streams for reading and writing frames; null if the protocol is STREAM. Frames are written
+     * holding frameOut and only read by the reply reader
+     */
+    private final DataInputStream frameIn;
+    private final DataOutputStream frameOut;
+    /**
+     * The requests waiting for a reply by request id, and the id of the last request sent; unused over STREAM
+     */
+    private final ConcurrentHashMap<Integer, CompletableFuture<Object>> pending;
+    private final AtomicInteger lastRequestId;
+    /**
+     * The subscriptions by the id of the request that made them; unused over STREAM
+     */
+    private final ConcurrentHashMap<Integer, Subscription> subscriptions;
+    /**
+     * Why the reply reader stopped, or null while it is running
+     */
+    private volatile IOException connectionLost;
+    /**
+     * Each {@link User}'s {@link Conversation}s as last synced, by email; guarded by itself
+     */
+    private final HashMap<String, SyncedConversations> synced;
     
     /**
      * A {@link Client} constructor
@@ -24,17 +101,63 @@ public class Client extends Socket {
      * @throws IOException if any I/O Exceptions occur
      */
     public Client(String host, int port) throws IOException {
+        this(host, port, Protocol.STREAM);
+    }
+    
+    /**
+     * A {@link Client} constructor
+     *
+     * @param host   the host to connect to
+     * @param port   the port to connect to
+     * @param framed whether to talk to a {@link SelectorEngine} (true) or to a {@link Server}'s own port (false)
+     * @throws IOException if any I/O Exceptions occur
+     */
+    public Client(String host, int port, boolean framed) throws IOException {
+        this(host, port, framed ? Protocol.FRAMED : Protocol.STREAM);
+    }
+    
+    /**
+     * A {@link Client} constructor
+     *
+     * @param host     the host to connect to
+     * @param port     the port to connect to
+     * @param protocol how to send requests; anything but STREAM needs the port of a {@link SelectorEngine}
+     * @throws IOException if any I/O Exceptions occur
+     */
+    public Client(String host, int port, Protocol protocol) throws IOException {
         super(host, port);
         
-        this.os = getOutputStream();
-        this.oos = new ObjectOutputStream(os);
+        this.protocol = protocol;
+        this.streamLock = new Object();
+        this.pending = new ConcurrentHashMap<>();
+        this.lastRequestId = new AtomicInteger();
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.synced = new HashMap<>();
+        // Each request is written in one go and then waits for its reply; Nagle's algorithm would only delay it
+        setTcpNoDelay(true);
+        this.os = new BufferedOutputStream(getOutputStream());
         InputStream is = getInputStream();
-        this.ois = new ObjectInputStream(is);
+        if (protocol != Protocol.STREAM) {
+            this.frameOut = new DataOutputStream(os);
+            this.frameIn = new DataInputStream(new BufferedInputStream(is));
+            this.oos = null;
+            this.ois = null;
+            Thread replyReader = new Thread(this::readReplies, "Client reply reader");
+            replyReader.setDaemon(true);
+            replyReader.start();
+        } else {
+            this.oos = new SessionObjectOutputStream(os, SessionObjectOutputStream.DEFAULT_RESET_THRESHOLD_BYTES);
+            // The server waits for the stream header before sending its own
+            oos.flush();
+            this.ois = new ObjectInputStream(is);
+            this.frameOut = null;
+            this.frameIn = null;
+        }
     }
     
     /**
      * Sends a set of {@link Object}s to the server that this {@link Client} is connected to with an {@link Operation}
-     * to guide the server how to use the data provided
+     * to guide the server how to use the data provided. Only used over STREAM, holding the stream lock
      *
      * @param operation the operation for the server to perform with this data
      * @param objects   the objects passed along with the Operation
@@ -44,19 +167,261 @@ public class Client extends Socket {
         os.write(operation.ordinal());
         os.write(objects.length);
         
+        if (objects.length > 0) {
+            // So objects changed since they were last sent aren't sent as references to the old copy. The server
+            // only reads the reset along with an object, so a message without any leaves it for the next one
+            oos.resetIfDue();
+        }
         for (Serializable object : objects) {
             oos.writeObject(object);
         }
         oos.flush();
     }
     
+    /**
+     * Encodes a request as the body of a frame in this client's protocol
+     *
+     * @param operation the operation for the server to perform
+     * @param objects   the objects passed along with the Operation
+     * @return the request frame, without its length or request id
+     * @throws IOException if an object could not be encoded
+     */
+    private byte[] encodeRequest(Operation operation, Serializable... objects) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        if (protocol == Protocol.BINARY) {
+            WireCodec.writeRequest(new DataOutputStream(request), operation, (Object[]) objects);
+        } else {
+            // The same bytes as STREAM, but with a fresh serialization stream in each frame
+            request.write(operation.ordinal());
+            request.write(objects.length);
+            ObjectOutputStream requestOos = new ObjectOutputStream(request);
+            for (Serializable object : objects) {
+                requestOos.writeObject(object);
+            }
+            requestOos.flush();
+        }
+        return request.toByteArray();
+    }
+    
+    /**
+     * Writes a tagged request frame
+     *
+     * @param requestId the request's id
+     * @param request   the request frame
+     * @throws IOException if an I/O Exception occurs while sending the frame
+     */
+    private void writeFrame(int requestId, byte[] request) throws IOException {
+        synchronized (frameOut) {
+            frameOut.writeInt(5 + request.length);
+            frameOut.writeByte(SelectorEngine.TAGGED_MARKER);
+            frameOut.writeInt(requestId);
+            frameOut.write(request);
+            frameOut.flush();
+        }
+    }
+    
+    /**
+     * Sends a request. The objects are encoded before this returns, so they may be changed straight away
+     *
+     * @param expectsReply whether the operation has a reply; only matters over STREAM, where the server sends nothing
+     *                     otherwise
+     * @param operation    the operation for the server to perform with this data
+     * @param objects      the objects passed along with the Operation
+     * @param <T>          the type of the reply
+     * @return the server's reply (null if there is none), or the error sending the request or reading its reply
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> request(boolean expectsReply, Operation operation, Serializable... objects) {
+        if (protocol == Protocol.STREAM) {
+            synchronized (streamLock) {
+                try {
+                    sendToServer(operation, objects);
+                    return CompletableFuture.completedFuture(expectsReply ? (T) ois.readObject() : null);
+                } catch (IOException | ClassNotFoundException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        }
+        
+        try {
+            return sendFrame(encodeRequest(operation, objects));
+        } catch (IOException ioe) {
+            return CompletableFuture.failedFuture(ioe);
+        }
+    }
+    
+    /**
+     * Sends a request frame under a new request id. Only used over FRAMED and BINARY
+     *
+     * @param request the request frame, without its length or request id
+     * @param <T>     the type of the reply
+     * @return the server's reply (null if there is none), or the error sending the request or reading its reply
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> sendFrame(byte[] request) {
+        return sendFrame(request, null);
+    }
+    
+    /**
+     * Sends a request frame under a new request id, registering a {@link Subscription} for the frames the server
+     * pushes under the same id. Only used over FRAMED and BINARY
+     *
+     * @param request      the request frame, without its length or request id
+     * @param subscription the {@link Subscription}, or null if the request makes none
+     * @param <T>          the type of the reply
+     * @return the server's reply (null if there is none), or the error sending the request or reading its reply
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> sendFrame(byte[] request, Subscription subscription) {
+        int requestId = lastRequestId.incrementAndGet();
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        pending.put(requestId, reply);
+        if (subscription != null) {
+            // Before sending, as pushed frames may overtake the reply
+            subscriptions.put(requestId, subscription);
+        }
+        try {
+            if (connectionLost != null) {
+                // The reply reader has already failed everything waiting and won't see this one
+                throw connectionLost;
+            }
+            writeFrame(requestId, request);
+        } catch (IOException ioe) {
+            pending.remove(requestId);
+            subscriptions.remove(requestId);
+            reply.completeExceptionally(ioe);
+        }
+        return (CompletableFuture<T>) reply;
+    }
+    
+    /**
+     * Waits for a reply
+     *
+     * @param reply the reply
+     * @param <T>   the type of the reply
+     * @return the reply
+     * @throws IOException            if an I/O Exception occurred sending the request or receiving the reply
+     * @throws ClassNotFoundException the class of the reply was not found
+     */
+    private static <T> T await(CompletableFuture<T> reply) throws IOException, ClassNotFoundException {
+        try {
+            return reply.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a reply");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+    
+    /**
+     * Reads reply frames until the connection closes, completing the request each one answers and handing pushed
+     * frames to their {@link Subscription}. Runs on its own thread over FRAMED and BINARY
+     */
+    @SuppressWarnings("unchecked")
+    private void readReplies() {
+        IOException failure;
+        try {
+            while (true) {
+                int length = frameIn.readInt();
+                if (length < 5 || length > SelectorEngine.MAX_FRAME_BYTES) {
+                    throw new StreamCorruptedException("Reply frame of " + length + " bytes");
+                }
+                byte[] frame = new byte[length];
+                frameIn.readFully(frame);
+                int requestId = ByteBuffer.wrap(frame, 1, 4).getInt();
+                if (frame[0] == SelectorEngine.PUSH_MARKER) {
+                    Subscription subscription = subscriptions.get(requestId);
+                    if (subscription == null) {
+                        continue;
+                    }
+                    try {
+                        subscription.listener.accept((List<MessageEvent>) decodeReply(
+                                Arrays.copyOfRange(frame, 5, length)));
+                    } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                        // Only these events are lost; the frame was read whole
+                        System.err.println("Error handling events pushed for " + subscription.email);
+                        e.printStackTrace();
+                    }
+                    continue;
+                }
+                if (frame[0] != SelectorEngine.TAGGED_MARKER) {
+                    throw new StreamCorruptedException("Reply frame without a request id");
+                }
+                CompletableFuture<Object> reply = pending.remove(requestId);
+                if (reply == null) {
+                    continue;
+                }
+                try {
+                    reply.complete(length == 5 ? null : decodeReply(Arrays.copyOfRange(frame, 5, length)));
+                } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                    // Only this reply is lost; the frame was read whole
+                    reply.completeExceptionally(e);
+                }
+            }
+        } catch (IOException ioe) {
+            failure = ioe;
+        }
+        
+        connectionLost = failure;
+        subscriptions.clear();
+        for (Integer requestId : pending.keySet()) {
+            CompletableFuture<Object> reply = pending.remove(requestId);
+            if (reply != null) {
+                reply.completeExceptionally(failure);
+            }
+        }
+    }
+    
+    /**
+     * Decodes the body of a reply frame
+     *
+     * @param reply the reply frame, without its length or request id
+     * @return the reply
+     * @throws IOException            if the reply could not be read
+     * @throws ClassNotFoundException the class of the reply was not found
+     */
+    private Object decodeReply(byte[] reply) throws IOException, ClassNotFoundException {
+        if (protocol == Protocol.BINARY) {
+            return WireCodec.readReply(reply);
+        }
+        try (ObjectInputStream replyOis = new ObjectInputStream(new ByteArrayInputStream(reply))) {
+            return replyOis.readObject();
+        }
+    }
+    
     /**
      * Writes a message to the ServerSocket
      *
      * @param message the message to send
      */
     public void messageServer(String message) throws IOException {
-        sendToServer(Operation.Message, message);
+        try {
+            await(messageServerAsync(message));
+        } catch (ClassNotFoundException cnfe) {
+            // There is no reply to read
+            throw new IOException(cnfe);
+        }
+    }
+    
+    /**
+     * Writes a message to the ServerSocket without waiting
+     *
+     * @param message the message to send
+     * @return completed once the server has taken the message
+     */
+    public CompletableFuture<Void> messageServerAsync(String message) {
+        return request(false, Operation.Message, message);
     }
     
     /**
@@ -68,9 +433,17 @@ public class Client extends Socket {
      * @throws ClassNotFoundException the class was not found or could not be cast
      */
     public User getUser(String userEmail) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.GetUser, userEmail);
-        Object o = ois.readObject();
-        return (User) o;
+        return await(getUserAsync(userEmail));
+    }
+    
+    /**
+     * Gets a user from the server without waiting
+     *
+     * @param userEmail the user's email
+     * @return the User from the server
+     */
+    public CompletableFuture<User> getUserAsync(String userEmail) {
+        return request(true, Operation.GetUser, userEmail);
     }
     
     /**
@@ -81,9 +454,16 @@ public class Client extends Socket {
      * @throws ClassNotFoundException the class was not found or could not be cast
      */
     public String listCustomers() throws IOException, ClassNotFoundException {
-        sendToServer(Operation.ListCustomers);
-        Object o = ois.readObject();
-        return (String) o;
+        return await(listCustomersAsync());
+    }
+    
+    /**
+     * Gets a String of the customer list without waiting
+     *
+     * @return the String of the Customer list
+     */
+    public CompletableFuture<String> listCustomersAsync() {
+        return request(true, Operation.ListCustomers);
     }
     
     /**
@@ -94,9 +474,16 @@ public class Client extends Socket {
      * @throws ClassNotFoundException the class was not found or could not be cast
      */
     public ArrayList<Customer> getAllCustomers() throws IOException, ClassNotFoundException {
-        sendToServer(Operation.GetAllCustomers);
-        Object o = ois.readObject();
-        return (ArrayList<Customer>) o;
+        return await(getAllCustomersAsync());
+    }
+    
+    /**
+     * Gets the ArrayList of all customers without waiting
+     *
+     * @return the ArrayList of all customers
+     */
+    public CompletableFuture<ArrayList<Customer>> getAllCustomersAsync() {
+        return request(true, Operation.GetAllCustomers);
     }
     
     /**
@@ -108,20 +495,332 @@ public class Client extends Socket {
      * @throws ClassNotFoundException the class was not found or could not be cast
      */
     public ArrayList<Conversation> getConversationsWithUser(User user) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.GetConversationsWithUser, user);
-        Object o = ois.readObject();
-        return (ArrayList<Conversation>) o;
+        return await(getConversationsWithUserAsync(user));
+    }
+    
+    /**
+     * Gets the {@link Conversation} with given {@link User} without waiting
+     *
+     * @param user the user's email
+     * @return the ArrayList of the conversation with given user
+     */
+    public CompletableFuture<ArrayList<Conversation>> getConversationsWithUserAsync(User user) {
+        return request(true, Operation.GetConversationsWithUser, user);
     }
     
     /**
-     * Closes this {@link Socket}. Informs the server.
+     * Gets what changed in the {@link Conversation}s of the given {@link User} since a cursor
+     *
+     * @param user   the user
+     * @param cursor the cursor from the last {@link ConversationDelta}, or null for every {@link Conversation} whole
+     * @return the changes
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public ConversationDelta getConversationDelta(User user, SyncCursor cursor)
+            throws IOException, ClassNotFoundException {
+        return await(getConversationDeltaAsync(user, cursor));
+    }
+    
+    /**
+     * Gets what changed in the {@link Conversation}s of the given {@link User} since a cursor without waiting
+     *
+     * @param user   the user
+     * @param cursor the cursor from the last {@link ConversationDelta}, or null for every {@link Conversation} whole
+     * @return the changes
+     */
+    public CompletableFuture<ConversationDelta> getConversationDeltaAsync(User user, SyncCursor cursor) {
+        return request(true, Operation.SyncConversationsWithUser, user, cursor);
+    }
+    
+    /**
+     * Gets the {@link Conversation}s of the given {@link User}, like {@link #getConversationsWithUser(User)}, but
+     * only fetches what changed since this was last called for them and merges it into the {@link Conversation}s
+     * returned then, which are updated in place
+     *
+     * @param user the user
+     * @return the user's {@link Conversation}s, up to date
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public ArrayList<Conversation> syncConversationsWithUser(User user) throws IOException, ClassNotFoundException {
+        synchronized (synced) {
+            SyncedConversations last = synced.get(user.getEmail());
+            ConversationDelta delta = getConversationDelta(user, (last == null ? null : last.cursor));
+            ArrayList<Conversation> conversations = delta.applyTo(last == null ? new ArrayList<>()
+                    : last.conversations);
+            synced.put(user.getEmail(), new SyncedConversations(delta.getCursor(), conversations));
+            return new ArrayList<>(conversations);
+        }
+    }
+    
+    /**
+     * Gets a {@link ConversationSummary} of each of the given {@link User}'s {@link Conversation}s, the one with the
+     * latest {@link Message} first, without any of their {@link Message}s
+     *
+     * @param user the user
+     * @return the summaries
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public ArrayList<ConversationSummary> getConversationSummaries(User user)
+            throws IOException, ClassNotFoundException {
+        return await(getConversationSummariesAsync(user));
+    }
+    
+    /**
+     * Gets a {@link ConversationSummary} of each of the given {@link User}'s {@link Conversation}s without waiting
+     *
+     * @param user the user
+     * @return the summaries
+     */
+    public CompletableFuture<ArrayList<ConversationSummary>> getConversationSummariesAsync(User user) {
+        return request(true, Operation.GetConversationSummaries, user);
+    }
+    
+    /**
+     * Gets a page of a {@link Conversation} as the given {@link User} sees it (see {@link ConversationView}), in the
+     * order the {@link Message}s were added: up to pageSize of the {@link Message}s they can see before (or after) the
+     * one with the given id, with their blocked phrases already replaced. Start from anchor 0 for the latest page (or,
+     * going forward, the earliest) and pass {@link MessagePage#getEarliestId()} (or {@link MessagePage#getLatestId()})
+     * for the next. The page may hold fewer {@link Message}s than it spans if some were hidden from them; its ids still
+     * work as the next anchor
+     *
+     * @param conversation the {@link Conversation}
+     * @param anchorId     the id of the {@link Message} the page is next to, or 0 to start from the end
+     * @param after        whether to get the {@link Message}s after the anchor rather than those before it
+     * @param pageSize     the most {@link Message}s to get; the server sends at most {@link MessagePage#MAX_PAGE_SIZE}
+     * @param viewer       the {@link User} viewing the {@link Conversation}
+     * @return the page, or null if there is no such {@link Conversation} or {@link Message}, or the {@link User} is
+     * not in it
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public MessagePage getMessagePage(Conversation conversation, long anchorId, boolean after, int pageSize,
+                                      User viewer) throws IOException, ClassNotFoundException {
+        return await(getMessagePageAsync(conversation, anchorId, after, pageSize, viewer));
+    }
+    
+    /**
+     * Gets a page of a {@link Conversation} as the given {@link User} sees it without waiting (see
+     * {@link #getMessagePage(Conversation, long, boolean, int, User)})
+     *
+     * @param conversation the {@link Conversation}
+     * @param anchorId     the id of the {@link Message} the page is next to, or 0 to start from the end
+     * @param after        whether to get the {@link Message}s after the anchor rather than those before it
+     * @param pageSize     the most {@link Message}s to get
+     * @param viewer       the {@link User} viewing the {@link Conversation}
+     * @return the page, or null if there is no such {@link Conversation} or {@link Message}, or the {@link User} is
+     * not in it
+     */
+    public CompletableFuture<MessagePage> getMessagePageAsync(Conversation conversation, long anchorId, boolean after,
+                                                              int pageSize, User viewer) {
+        return request(true, Operation.GetMessagePage, conversation, anchorId, after, pageSize, viewer);
+    }
+    
+    /**
+     * Gets a {@link Conversation} as CSV, as the given {@link User} sees it (see {@link Conversation#asCSV(User)})
+     *
+     * @param conversation the {@link Conversation}
+     * @param user         the {@link User} to get it for
+     * @return the CSV, or null if there is no such {@link Conversation} or the {@link User} is not in it
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public String getConversationCSV(Conversation conversation, User user) throws IOException, ClassNotFoundException {
+        return await(getConversationCSVAsync(conversation, user));
+    }
+    
+    /**
+     * Gets a {@link Conversation} as CSV, as the given {@link User} sees it, without waiting
+     *
+     * @param conversation the {@link Conversation}
+     * @param user         the {@link User} to get it for
+     * @return the CSV, or null if there is no such {@link Conversation} or the {@link User} is not in it
+     */
+    public CompletableFuture<String> getConversationCSVAsync(Conversation conversation, User user) {
+        return request(true, Operation.GetConversationCSV, conversation, user);
+    }
+    
+    /**
+     * Subscribes to new {@link Message}s in the given {@link User}'s {@link Conversation}s: whenever one they can see
+     * is added, the server pushes a {@link MessageEvent} for it, and the listener is given each frame's events in
+     * the order they were queued. A listener falling behind may be sent an event counting missed {@link Message}s
+     * instead, after which the {@link Conversation} should be synced again (see
+     * {@link #syncConversationsWithUser(User)}). Subscribing again for the same {@link User} replaces the listener.
+     * Needs the FRAMED or BINARY protocol
+     *
+     * @param user     the user
+     * @param listener given the events pushed; runs on the thread reading replies, so must not block
+     * @return whether the server subscribed this client
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public boolean subscribe(User user, Consumer<List<MessageEvent>> listener)
+            throws IOException, ClassNotFoundException {
+        return await(subscribeAsync(user, listener));
+    }
+    
+    /**
+     * Subscribes to new {@link Message}s in the given {@link User}'s {@link Conversation}s without waiting (see
+     * {@link #subscribe(User, Consumer)})
+     *
+     * @param user     the user
+     * @param listener given the events pushed; runs on the thread reading replies, so must not block
+     * @return whether the server subscribed this client
+     */
+    public CompletableFuture<Boolean> subscribeAsync(User user, Consumer<List<MessageEvent>> listener) {
+        if (protocol == Protocol.STREAM) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException(
+                    "Subscribing needs the FRAMED or BINARY protocol"));
+        }
+        Subscription subscription = new Subscription(user.getEmail(), listener);
+        CompletableFuture<Boolean> reply;
+        try {
+            reply = sendFrame(encodeRequest(Operation.Subscribe, user), subscription);
+        } catch (IOException ioe) {
+            return CompletableFuture.failedFuture(ioe);
+        }
+        return reply.thenApply(subscribed -> {
+            if (Boolean.TRUE.equals(subscribed)) {
+                // The server has replaced any earlier subscription for the same user
+                subscriptions.values().removeIf(other -> other != subscription && other.email.equals(user.getEmail()));
+                return true;
+            }
+            subscriptions.values().remove(subscription);
+            return false;
+        });
+    }
+    
+    /**
+     * Stops the new {@link Message}s in the given {@link User}'s {@link Conversation}s being pushed to this client
+     *
+     * @param user the user
+     * @return whether this client was subscribed
+     * @throws IOException            if an I/O Exception occurs when sending or receiving data
+     * @throws ClassNotFoundException the class was not found or could not be cast
+     */
+    public boolean unsubscribe(User user) throws IOException, ClassNotFoundException {
+        return await(unsubscribeAsync(user));
+    }
+    
+    /**
+     * Stops the new {@link Message}s in the given {@link User}'s {@link Conversation}s being pushed to this client
+     * without waiting
+     *
+     * @param user the user
+     * @return whether this client was subscribed
+     */
+    public CompletableFuture<Boolean> unsubscribeAsync(User user) {
+        if (protocol == Protocol.STREAM) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return this.<Boolean>request(true, Operation.Unsubscribe, user).thenApply(subscribed -> {
+            subscriptions.values().removeIf(subscription -> subscription.email.equals(user.getEmail()));
+            return subscribed;
+        });
+    }
+    
+    /**
+     * Starts a {@link Batch} of requests to send to the server together
+     *
+     * @return the empty {@link Batch}
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+    
+    /**
+     * Sends a {@link Batch}'s requests as one {@link Operation#Batch} request
+     *
+     * @param batch the {@link Batch}
+     * @return the replies to the batch's requests, in order
+     */
+    private CompletableFuture<ArrayList<Object>> requestBatch(Batch batch) {
+        int size = batch.operations.size();
+        try {
+            if (protocol == Protocol.STREAM) {
+                synchronized (streamLock) {
+                    os.write(Operation.Batch.ordinal());
+                    os.write(size);
+                    writeBatch(os, oos, batch);
+                    @SuppressWarnings("unchecked")
+                    ArrayList<Object> replies = (ArrayList<Object>) ois.readObject();
+                    return CompletableFuture.completedFuture(replies);
+                }
+            }
+            
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            if (protocol == Protocol.BINARY) {
+                request.write(WireCodec.FRAME_MARKER);
+            }
+            request.write(Operation.Batch.ordinal());
+            request.write(size);
+            // The stream header follows the count, as in any serialized frame
+            writeBatch(request, (protocol == Protocol.BINARY ? null : new ObjectOutputStream(request)), batch);
+            return sendFrame(request.toByteArray());
+        } catch (IOException | ClassNotFoundException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    /**
+     * Writes a {@link Batch}'s requests one after another, each as its {@link Operation}'s ordinal, the number of
+     * objects passed and the objects
+     *
+     * @param out       where to write the ordinals and counts
+     * @param objectOut where to write the objects, or null to write them in the {@link WireCodec} binary protocol
+     * @param batch     the {@link Batch}
+     * @throws IOException if an I/O Exception occurs while writing the requests
+     */
+    private void writeBatch(OutputStream out, ObjectOutputStream objectOut, Batch batch) throws IOException {
+        for (int i = 0; i < batch.operations.size(); i++) {
+            Operation operation = batch.operations.get(i);
+            Serializable[] objects = batch.arguments.get(i);
+            if (objectOut == null) {
+                WireCodec.writeRequestBody(new DataOutputStream(out), operation, (Object[]) objects);
+                continue;
+            }
+            
+            // The ordinal and count are raw bytes, so nothing may be held back in the object stream ahead of them
+            objectOut.flush();
+            out.write(operation.ordinal());
+            out.write(objects.length);
+            if (objects.length > 0 && objectOut instanceof SessionObjectOutputStream) {
+                ((SessionObjectOutputStream) objectOut).resetIfDue();
+            }
+            for (Serializable object : objects) {
+                objectOut.writeObject(object);
+            }
+        }
+        if (objectOut != null) {
+            objectOut.flush();
+        }
+    }
+    
+    /**
+     * Closes this {@link Socket}. Informs the server, first letting the replies to requests in flight arrive
      *
      * @throws IOException if an I/O error occurs when closing this socket.
      */
     @Override
     public void close() throws IOException {
-        if (isConnected() && os != null) {
-            sendToServer(Operation.Disconnect);
+        if (isConnected() && !isClosed() && os != null) {
+            if (protocol == Protocol.STREAM) {
+                synchronized (streamLock) {
+                    sendToServer(Operation.Disconnect);
+                }
+            } else if (connectionLost == null) {
+                try {
+                    CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0]))
+                            .get(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | TimeoutException e) {
+                    // Whatever is still waiting fails as the connection closes
+                }
+                writeFrame(lastRequestId.incrementAndGet(), encodeRequest(Operation.Disconnect));
+            }
         }
         super.close();
     }
@@ -133,9 +832,12 @@ public class Client extends Socket {
     
     public Customer createCustomer(String name, String email, String password, HashMap<String, String> blockedPhrases)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.CreateCustomer, name, email, password, blockedPhrases);
-        
-        return (Customer) ois.readObject();
+        return await(createCustomerAsync(name, email, password, blockedPhrases));
+    }
+    
+    public CompletableFuture<Customer> createCustomerAsync(String name, String email, String password,
+                                                           HashMap<String, String> blockedPhrases) {
+        return request(true, Operation.CreateCustomer, name, email, password, blockedPhrases);
     }
     
     public Seller createSeller(String name, String email, String password, String... storeNames)
@@ -145,59 +847,73 @@ public class Client extends Socket {
         return createSeller(name, email, password, null, storeNamesArrList);
     }
     
-
+    
     public Seller createSeller(String name, String email, String password, HashMap<String, String> blockedPhrases,
                                ArrayList<String> storeNames) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.CreateSeller, name, email, password, blockedPhrases, storeNames);
-        
-        return (Seller) ois.readObject();
+        return await(createSellerAsync(name, email, password, blockedPhrases, storeNames));
     }
-
+    
+    public CompletableFuture<Seller> createSellerAsync(String name, String email, String password,
+                                                       HashMap<String, String> blockedPhrases,
+                                                       ArrayList<String> storeNames) {
+        return request(true, Operation.CreateSeller, name, email, password, blockedPhrases, storeNames);
+    }
+    
     public Message createMessage(String senderEmail, String receiverEmail, boolean canSenderView,
                                  boolean canReceiverView, String messageContent, long timeSent, Conversation parent)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.CreateMessage, senderEmail, receiverEmail, canSenderView, canReceiverView,
+        return await(createMessageAsync(senderEmail, receiverEmail, canSenderView, canReceiverView, messageContent,
+                timeSent, parent));
+    }
+    
+    public CompletableFuture<Message> createMessageAsync(String senderEmail, String receiverEmail,
+                                                         boolean canSenderView, boolean canReceiverView,
+                                                         String messageContent, long timeSent, Conversation parent) {
+        return request(true, Operation.CreateMessage, senderEmail, receiverEmail, canSenderView, canReceiverView,
                 messageContent, timeSent, parent);
-        
-        return (Message) ois.readObject();
     }
     
     public Conversation createConversation(Seller seller, String store, Customer customer, boolean isDisappearing)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.CreateConversation, seller, store, customer, isDisappearing);
-        
-        return (Conversation) ois.readObject();
+        return await(createConversationAsync(seller, store, customer, isDisappearing));
+    }
+    
+    public CompletableFuture<Conversation> createConversationAsync(Seller seller, String store, Customer customer,
+                                                                   boolean isDisappearing) {
+        return request(true, Operation.CreateConversation, seller, store, customer, isDisappearing);
     }
     
     public boolean userExists(String email) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.UserExists, email);
-        
-        return (Boolean) ois.readObject();
+        return await(userExistsAsync(email));
+    }
+    
+    public CompletableFuture<Boolean> userExistsAsync(String email) {
+        return request(true, Operation.UserExists, email);
     }
     
     String getAllStoresAsString() throws IOException, ClassNotFoundException {
-        sendToServer(Operation.AllStoresAsString);
-        
-        return (String) ois.readObject();
+        return await(request(true, Operation.AllStoresAsString));
     }
     
     public ArrayList<Seller> getAllSellers() throws IOException, ClassNotFoundException {
-        sendToServer(Operation.GetAllSellers);
-        
-        return (ArrayList<Seller>) ois.readObject();
+        return await(getAllSellersAsync());
+    }
+    
+    public CompletableFuture<ArrayList<Seller>> getAllSellersAsync() {
+        return request(true, Operation.GetAllSellers);
     }
     
     public Seller getSellerFromStoreName(String storeName) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.GetSellerFromStore, storeName);
-        
-        return (Seller) ois.readObject();
+        return await(getSellerFromStoreNameAsync(storeName));
+    }
+    
+    public CompletableFuture<Seller> getSellerFromStoreNameAsync(String storeName) {
+        return request(true, Operation.GetSellerFromStore, storeName);
     }
     
     public Message setMessageContent(Message messageToEdit, String contentToSet)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.SetMessageContent, messageToEdit, contentToSet);
-        
-        return (Message) ois.readObject();
+        return await(setMessageContentAsync(messageToEdit, contentToSet));
     }
     
     public Message setMessageContent(Conversation conversationWithMessage, long timestamp, String contentToSet)
@@ -205,75 +921,378 @@ public class Client extends Socket {
         return setMessageContent(conversationWithMessage.getMessageByTimestamp(timestamp), contentToSet);
     }
     
+    public CompletableFuture<Message> setMessageContentAsync(Message messageToEdit, String contentToSet) {
+        return request(true, Operation.SetMessageContent, messageToEdit, contentToSet);
+    }
+    
     public Conversation addMessageToConversation(Conversation conversationToModify, Message messageToAdd)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.AddMessageToConversation, conversationToModify, messageToAdd);
+        return await(addMessageToConversationAsync(conversationToModify, messageToAdd));
+    }
+    
+    public CompletableFuture<Conversation> addMessageToConversationAsync(Conversation conversationToModify,
+                                                                         Message messageToAdd) {
+        CompletableFuture<Conversation> reply = request(true, Operation.AddMessageToConversation,
+                conversationToModify, messageToAdd);
         
         conversationToModify.addMessage(messageToAdd);
         
-        return (Conversation) ois.readObject();
+        return reply;
     }
     
     public User userBlocksUser(User toModify, User toBlock) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.UserBlocksUser, toModify, toBlock);
+        return await(userBlocksUserAsync(toModify, toBlock));
+    }
+    
+    public CompletableFuture<User> userBlocksUserAsync(User toModify, User toBlock) {
+        CompletableFuture<User> reply = request(true, Operation.UserBlocksUser, toModify, toBlock);
         
         if (!toModify.getBlockedEmails().contains(toBlock.getEmail())) {
             toModify.blockUser(toBlock.getEmail());
         }
         
-        return (User) ois.readObject();
+        return reply;
     }
     
     public User userInvisibleToUser(User userToModify, User userToBecomeInvisible)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.UserInvisibleToUser, userToModify, userToBecomeInvisible);
+        return await(userInvisibleToUserAsync(userToModify, userToBecomeInvisible));
+    }
+    
+    public CompletableFuture<User> userInvisibleToUserAsync(User userToModify, User userToBecomeInvisible) {
+        CompletableFuture<User> reply = request(true, Operation.UserInvisibleToUser, userToModify,
+                userToBecomeInvisible);
         
         if (!userToModify.getInvisEmails().contains(userToBecomeInvisible.getEmail())) {
             userToModify.blockUser(userToBecomeInvisible.getEmail());
         }
         
-        return (User) ois.readObject();
+        return reply;
     }
    
     public Seller addStoreToSeller(Seller sellerToModify, String storeName)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.SellerAddStore, sellerToModify, storeName);
+        return await(addStoreToSellerAsync(sellerToModify, storeName));
+    }
+    
+    public CompletableFuture<Seller> addStoreToSellerAsync(Seller sellerToModify, String storeName) {
+        CompletableFuture<Seller> reply = request(true, Operation.SellerAddStore, sellerToModify, storeName);
         
         sellerToModify.addStoreName(storeName);
         
-        return (Seller) ois.readObject();
+        return reply;
     }
     
     public Conversation getConversationBetweenUsersWithStore(User user1, User user2, String store)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.GetConversationWithUsersWithStore, user1, user2, store);
-        
-        return (Conversation) ois.readObject();
+        return await(getConversationBetweenUsersWithStoreAsync(user1, user2, store));
+    }
+    
+    public CompletableFuture<Conversation> getConversationBetweenUsersWithStoreAsync(User user1, User user2,
+                                                                                     String store) {
+        return request(true, Operation.GetConversationWithUsersWithStore, user1, user2, store);
     }
     
     public Conversation sendMessageFromFile(Conversation conversationToSendIn, User sender, File messageContent)
             throws IOException, ClassNotFoundException {
-        sendToServer(Operation.SendMessageFromFile, conversationToSendIn, sender, messageContent);
-        
-        return (Conversation) ois.readObject();
+        return await(sendMessageFromFileAsync(conversationToSendIn, sender, messageContent));
+    }
+    
+    public CompletableFuture<Conversation> sendMessageFromFileAsync(Conversation conversationToSendIn, User sender,
+                                                                    File messageContent) {
+        return request(true, Operation.SendMessageFromFile, conversationToSendIn, sender, messageContent);
     }
     
     public User setUserName(User userToEdit, String nameToSet) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.SetUserName, userToEdit, nameToSet);
-        
-        return (User) ois.readObject();
+        return await(setUserNameAsync(userToEdit, nameToSet));
+    }
+    
+    public CompletableFuture<User> setUserNameAsync(User userToEdit, String nameToSet) {
+        return request(true, Operation.SetUserName, userToEdit, nameToSet);
     }
     
     public User setUserPass(User userToEdit, String passToSet) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.SetUserPass, userToEdit, passToSet);
-        
-        return (User) ois.readObject();
+        return await(setUserPassAsync(userToEdit, passToSet));
+    }
+    
+    public CompletableFuture<User> setUserPassAsync(User userToEdit, String passToSet) {
+        return request(true, Operation.SetUserPass, userToEdit, passToSet);
     }
     
     public User deleteUser(User userToDelete) throws IOException, ClassNotFoundException {
-        sendToServer(Operation.DeleteUserAccount, userToDelete);
+        return await(deleteUserAsync(userToDelete));
+    }
+    
+    public CompletableFuture<User> deleteUserAsync(User userToDelete) {
+        return request(true, Operation.DeleteUserAccount, userToDelete); // will always complete with null
+    }
+    
+    /**
+     * {@link Batch}<br />
+     * Requests sent to the server together and answered together, one round trip in all. Each request added returns
+     * a future for its own reply, completed once the batch's reply arrives. The server runs the requests one after
+     * another in the order they were added, so a later one sees what an earlier one changed, but a request can't use
+     * an earlier one's reply as an argument
+     */
+    public final class Batch {
+        /**
+         * The most requests a batch can hold; the count is sent as one byte
+         */
+        public static final int MAX_REQUESTS = 255;
+        
+        private final ArrayList<Operation> operations;
+        private final ArrayList<Serializable[]> arguments;
+        private final ArrayList<CompletableFuture<Object>> replies;
+        private boolean sent;
+        
+        /**
+         * A {@link Batch} constructor
+         */
+        private Batch() {
+            this.operations = new ArrayList<>();
+            this.arguments = new ArrayList<>();
+            this.replies = new ArrayList<>();
+        }
+        
+        /**
+         * Adds a request
+         *
+         * @param operation the operation for the server to perform
+         * @param objects   the objects passed along with the Operation
+         * @param <T>       the type of the reply
+         * @return the reply, once the batch has been answered
+         */
+        @SuppressWarnings("unchecked")
+        private <T> CompletableFuture<T> add(Operation operation, Serializable... objects) {
+            if (sent) {
+                throw new IllegalStateException("The batch has already been sent");
+            }
+            if (operations.size() == MAX_REQUESTS) {
+                throw new IllegalStateException("A batch holds at most " + MAX_REQUESTS + " requests");
+            }
+            CompletableFuture<Object> reply = new CompletableFuture<>();
+            operations.add(operation);
+            arguments.add(objects);
+            replies.add(reply);
+            return (CompletableFuture<T>) reply;
+        }
+        
+        /**
+         * Adds a request for a user from the server (see {@link Client#getUser(String)})
+         *
+         * @param userEmail the user's email
+         * @return the User from the server, once the batch has been answered
+         */
+        public CompletableFuture<User> getUser(String userEmail) {
+            return add(Operation.GetUser, userEmail);
+        }
+        
+        /**
+         * Adds a request for whether a user with the given email exists (see {@link Client#userExists(String)})
+         *
+         * @param email the email
+         * @return whether the user exists, once the batch has been answered
+         */
+        public CompletableFuture<Boolean> userExists(String email) {
+            return add(Operation.UserExists, email);
+        }
+        
+        /**
+         * Adds a request for a String of the customer list (see {@link Client#listCustomers()})
+         *
+         * @return the String of the Customer list, once the batch has been answered
+         */
+        public CompletableFuture<String> listCustomers() {
+            return add(Operation.ListCustomers);
+        }
+        
+        /**
+         * Adds a request for the ArrayList of all customers (see {@link Client#getAllCustomers()})
+         *
+         * @return the ArrayList of all customers, once the batch has been answered
+         */
+        public CompletableFuture<ArrayList<Customer>> getAllCustomers() {
+            return add(Operation.GetAllCustomers);
+        }
+        
+        /**
+         * Adds a request for a String of every store
+         *
+         * @return the String of every store, once the batch has been answered
+         */
+        public CompletableFuture<String> getAllStoresAsString() {
+            return add(Operation.AllStoresAsString);
+        }
+        
+        /**
+         * Adds a request for the ArrayList of all sellers (see {@link Client#getAllSellers()})
+         *
+         * @return the ArrayList of all sellers, once the batch has been answered
+         */
+        public CompletableFuture<ArrayList<Seller>> getAllSellers() {
+            return add(Operation.GetAllSellers);
+        }
+        
+        /**
+         * Adds a request for the {@link Seller} who owns the given store (see
+         * {@link Client#getSellerFromStoreName(String)})
+         *
+         * @param storeName the store's name
+         * @return the {@link Seller}, once the batch has been answered
+         */
+        public CompletableFuture<Seller> getSellerFromStoreName(String storeName) {
+            return add(Operation.GetSellerFromStore, storeName);
+        }
+        
+        /**
+         * Adds a request for the {@link Conversation}s with the given {@link User} (see
+         * {@link Client#getConversationsWithUser(User)})
+         *
+         * @param user the user
+         * @return the ArrayList of the conversations with given user, once the batch has been answered
+         */
+        public CompletableFuture<ArrayList<Conversation>> getConversationsWithUser(User user) {
+            return add(Operation.GetConversationsWithUser, user);
+        }
+        
+        /**
+         * Adds a request for the {@link Conversation} between the given {@link User}s about the given store (see
+         * {@link Client#getConversationBetweenUsersWithStore(User, User, String)})
+         *
+         * @param user1 one of the users
+         * @param user2 the other user
+         * @param store the store
+         * @return the {@link Conversation}, once the batch has been answered
+         */
+        public CompletableFuture<Conversation> getConversationBetweenUsersWithStore(User user1, User user2,
+                                                                                    String store) {
+            return add(Operation.GetConversationWithUsersWithStore, user1, user2, store);
+        }
+        
+        /**
+         * Adds a request for a {@link ConversationSummary} of each of the given {@link User}'s {@link Conversation}s
+         * (see {@link Client#getConversationSummaries(User)})
+         *
+         * @param user the user
+         * @return the summaries, once the batch has been answered
+         */
+        public CompletableFuture<ArrayList<ConversationSummary>> getConversationSummaries(User user) {
+            return add(Operation.GetConversationSummaries, user);
+        }
+        
+        /**
+         * Adds a request for a page of a {@link Conversation} as the given {@link User} sees it (see
+         * {@link Client#getMessagePage(Conversation, long, boolean, int, User)})
+         *
+         * @param conversation the {@link Conversation}
+         * @param anchorId     the id of the {@link Message} the page is next to, or 0 to start from the end
+         * @param after        whether to get the {@link Message}s after the anchor rather than those before it
+         * @param pageSize     the most {@link Message}s to get
+         * @param viewer       the {@link User} viewing the {@link Conversation}
+         * @return the page, or null if there is no such {@link Conversation} or {@link Message}, or the {@link User} is
+         * not in it; once the batch has been answered
+         */
+        public CompletableFuture<MessagePage> getMessagePage(Conversation conversation, long anchorId, boolean after,
+                                                             int pageSize, User viewer) {
+            return add(Operation.GetMessagePage, conversation, anchorId, after, pageSize, viewer);
+        }
+        
+        /**
+         * Adds a request for a {@link Conversation} as CSV, as the given {@link User} sees it (see
+         * {@link Client#getConversationCSV(Conversation, User)})
+         *
+         * @param conversation the {@link Conversation}
+         * @param user         the {@link User} to get it for
+         * @return the CSV, or null if there is no such {@link Conversation} or the {@link User} is not in it; once the
+         * batch has been answered
+         */
+        public CompletableFuture<String> getConversationCSV(Conversation conversation, User user) {
+            return add(Operation.GetConversationCSV, conversation, user);
+        }
+        
+        /**
+         * Returns the number of requests added
+         *
+         * @return the number of requests
+         */
+        public int size() {
+            return operations.size();
+        }
+        
+        /**
+         * Sends the batch without waiting. Nothing more can be added afterwards
+         *
+         * @return the replies to the requests, in the order they were added
+         */
+        public CompletableFuture<List<Object>> sendAsync() {
+            if (sent) {
+                throw new IllegalStateException("The batch has already been sent");
+            }
+            sent = true;
+            if (operations.isEmpty()) {
+                return CompletableFuture.completedFuture(new ArrayList<>());
+            }
+            
+            return requestBatch(this).handle((answered, failure) -> {
+                if (failure == null && (answered == null || answered.size() != replies.size())) {
+                    failure = new StreamCorruptedException("Batch of " + replies.size() + " requests answered with "
+                            + (answered == null ? "nothing" : answered.size() + " replies"));
+                }
+                if (failure instanceof CompletionException && failure.getCause() != null) {
+                    failure = failure.getCause();
+                }
+                if (failure != null) {
+                    for (CompletableFuture<Object> reply : replies) {
+                        reply.completeExceptionally(failure);
+                    }
+                    throw new CompletionException(failure);
+                }
+                for (int i = 0; i < replies.size(); i++) {
+                    replies.get(i).complete(answered.get(i));
+                }
+                return answered;
+            });
+        }
+        
+        /**
+         * Sends the batch and waits for its reply. Nothing more can be added afterwards
+         *
+         * @return the replies to the requests, in the order they were added
+         * @throws IOException            if an I/O Exception occurs when sending or receiving data
+         * @throws ClassNotFoundException the class of a reply was not found
+         */
+        public List<Object> send() throws IOException, ClassNotFoundException {
+            return await(sendAsync());
+        }
+        
+    }
+    
+    /**
+     * A subscription to a {@link User}'s new {@link Message}s and the listener given the events pushed for it
+     */
+    private static final class Subscription {
+        final String email;
+        final Consumer<List<MessageEvent>> listener;
+        
+        Subscription(String email, Consumer<List<MessageEvent>> listener) {
+            this.email = email;
+            this.listener = listener;
+        }
+        
+    }
+    
+    /**
+     * A {@link User}'s {@link Conversation}s as last synced, and the cursor they were synced to
+     */
+    private static final class SyncedConversations {
+        final SyncCursor cursor;
+        final ArrayList<Conversation> conversations;
+        
+        SyncedConversations(SyncCursor cursor, ArrayList<Conversation> conversations) {
+            this.cursor = cursor;
+            this.conversations = conversations;
+        }
         
-        return (User) ois.readObject(); // will always be null
     }
     
 }
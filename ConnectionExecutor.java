@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ConnectionExecutor}<br />
+ * Runs the {@link Server}'s client sessions and keeps track of the ones still connected. Each session is served on a
+ * virtual thread or on a thread of a fixed-size pool (see {@link Mode}); either way no more than the configured number
+ * of sessions are served at once, and further connections are turned away rather than left waiting. A session is
+ * forgotten (and its socket closed) as soon as it ends.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class ConnectionExecutor implements AutoCloseable {
+    /**
+     * How sessions are run
+     */
+    public enum Mode {
+        /**
+         * One virtual thread per session (Java 21+; falls back to POOL on older runtimes)
+         */
+        VIRTUAL_THREADS,
+        /**
+         * A fixed pool of platform threads; at most one session per thread
+         */
+        POOL
+    }
+    
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final int maxSessions;
+    /**
+     * The sockets of the sessions still running, by session number
+     */
+    private final ConcurrentHashMap<Integer, Socket> sessions;
+    private final AtomicInteger activeSessions;
+    
+    ///// METRICS /////
+    private final AtomicInteger peakSessions;
+    private final AtomicLong acceptedSessions;
+    private final AtomicLong rejectedSessions;
+    private final AtomicLong completedSessions;
+    
+    /**
+     * A {@link ConnectionExecutor} constructor
+     *
+     * @param mode        how to run sessions
+     * @param poolThreads the number of threads in POOL mode
+     * @param maxSessions the most sessions to serve at once (in POOL mode, also limited to poolThreads)
+     */
+    public ConnectionExecutor(Mode mode, int poolThreads, int maxSessions) {
+        if (poolThreads < 1 || maxSessions < 1) {
+            throw new IllegalArgumentException("Thread and session limits must be positive");
+        }
+        ExecutorService virtual = (mode == Mode.VIRTUAL_THREADS ? newVirtualThreadExecutor() : null);
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL_THREADS;
+            this.executor = virtual;
+            this.maxSessions = maxSessions;
+        } else {
+            if (mode == Mode.VIRTUAL_THREADS) {
+                System.err.println("Virtual threads are not available on this runtime; using a pool of "
+                        + poolThreads + " threads");
+            }
+            this.mode = Mode.POOL;
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(poolThreads, runnable -> {
+                Thread t = new Thread(runnable, "Session worker " + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            // A session keeps its thread until it disconnects, so any more would only wait in the queue
+            this.maxSessions = Math.min(maxSessions, poolThreads);
+        }
+        this.sessions = new ConcurrentHashMap<>();
+        this.activeSessions = new AtomicInteger();
+        this.peakSessions = new AtomicInteger();
+        this.acceptedSessions = new AtomicLong();
+        this.rejectedSessions = new AtomicLong();
+        this.completedSessions = new AtomicLong();
+    }
+    
+    /**
+     * Creates an executor running each task on a new virtual thread, if this runtime has them
+     *
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // NoSuchMethodException before Java 21 (or an UnsupportedOperationException with preview features off)
+            return null;
+        }
+    }
+    
+    /**
+     * Starts serving a session, unless the session limit has been reached
+     *
+     * @param sessionNumber the number identifying the session
+     * @param socket        the session's socket; closed when the session ends
+     * @param session       serves the session, returning when the client disconnects
+     * @return whether the session was started; if not, the caller should close the socket
+     */
+    public boolean submit(int sessionNumber, Socket socket, Runnable session) {
+        int active = activeSessions.incrementAndGet();
+        if (active > maxSessions) {
+            activeSessions.decrementAndGet();
+            rejectedSessions.incrementAndGet();
+            return false;
+        }
+        peakSessions.accumulateAndGet(active, Math::max);
+        sessions.put(sessionNumber, socket);
+        try {
+            executor.execute(() -> {
+                try {
+                    session.run();
+                } finally {
+                    end(sessionNumber, socket);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // Closed in the meantime
+            sessions.remove(sessionNumber, socket);
+            activeSessions.decrementAndGet();
+            rejectedSessions.incrementAndGet();
+            return false;
+        }
+        acceptedSessions.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Forgets a finished session and closes its socket
+     *
+     * @param sessionNumber the number identifying the session
+     * @param socket        the session's socket
+     */
+    private void end(int sessionNumber, Socket socket) {
+        sessions.remove(sessionNumber, socket);
+        activeSessions.decrementAndGet();
+        completedSessions.incrementAndGet();
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // Already gone
+        }
+    }
+    
+    /**
+     * Returns how sessions are actually being run (POOL if virtual threads were asked for but are unavailable)
+     *
+     * @return how sessions are run
+     */
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Returns the most sessions served at once
+     *
+     * @return the session limit
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+    
+    /**
+     * Returns the number of sessions currently being served
+     *
+     * @return the number of active sessions
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+    
+    /**
+     * Returns the most sessions that have been served at once
+     *
+     * @return the peak number of active sessions
+     */
+    public int getPeakSessions() {
+        return peakSessions.get();
+    }
+    
+    /**
+     * Returns the number of sessions started
+     *
+     * @return the number of sessions started
+     */
+    public long getAcceptedSessions() {
+        return acceptedSessions.get();
+    }
+    
+    /**
+     * Returns the number of connections turned away because the session limit had been reached
+     *
+     * @return the number of rejected connections
+     */
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+    
+    /**
+     * Returns the number of sessions which have ended
+     *
+     * @return the number of finished sessions
+     */
+    public long getCompletedSessions() {
+        return completedSessions.get();
+    }
+    
+    /**
+     * Stops serving: closes every session's socket (ending its session) and stops the threads
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        for (Socket socket : sessions.values()) {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // Already gone
+            }
+        }
+        executor.shutdownNow();
+    }
+    
+}
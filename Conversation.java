@@ -1,6 +1,15 @@
 import java.io.*;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * {@link Conversation}<br />
@@ -10,11 +19,71 @@ import java.util.Objects;
  * @version 12/12/2022
  */
 public class Conversation implements Serializable {
+    /**
+     * The next key handed out by getBodyKey()
+     */
+    private static final AtomicLong NEXT_BODY_KEY = new AtomicLong();
+    /**
+     * The locks guarding every Conversation's {@link Message}s. Each Conversation uses the stripe chosen by its
+     * {@link Seller} and {@link Customer}, which never change, so its stripe is fixed for its whole life. Only
+     * Conversations with the same store as well share {@link Message}s; those always share a stripe, and the pair's
+     * other stores sharing it too is merely coarser than necessary. Unrelated Conversations (almost always) proceed in
+     * parallel
+     */
+    private static final ReentrantReadWriteLock[] BODY_LOCKS;
     private final Seller seller;
     private final Customer customer;
-    private ArrayList<Message> messages;
+    /**
+     * Null while this Conversation's {@link Message}s are only on disk (see segment)
+     */
+    private volatile ArrayList<Message> messages;
+    /**
+     * The in-memory {@link Message}s keyed by id; null exactly when messages is
+     */
+    private transient volatile ConcurrentSkipListMap<Long, Message> messagesById;
+    /**
+     * The in-memory {@link Message}s keyed by timestamp (the latest for a shared timestamp); null exactly when
+     * messages is
+     */
+    private transient volatile ConcurrentSkipListMap<Long, Message> messagesByTimestamp;
     private String store;
     private boolean isDisappearing;
+    /**
+     * Whether this Conversation's save file must be rewritten (rather than appended to) when next saved
+     */
+    private transient boolean dirty;
+    /**
+     * The number of {@link Message}s already in this Conversation's save file
+     */
+    private transient int persistedMessageCount;
+    /**
+     * The save file this Conversation's {@link Message}s can be (re)loaded from; null if never saved
+     */
+    private transient volatile MessageSegment segment;
+    /**
+     * Saved {@link Message}s changed since the last save; guarded by bodyLock
+     */
+    private transient Set<Message> changedMessages;
+    /**
+     * The {@link Message}s last evicted from memory, reused if anything still holds them when next needed
+     */
+    private transient WeakReference<ArrayList<Message>> evictedMessages;
+    /**
+     * Guards loading, evicting and changing the {@link Message}s (write lock) and copying them (read lock); one of
+     * BODY_LOCKS
+     */
+    private transient ReentrantReadWriteLock bodyLock;
+    /**
+     * Identifies this Conversation in the {@link MainListOfConversations}' resident body cache
+     */
+    private transient long bodyKey;
+    
+    static {
+        BODY_LOCKS = new ReentrantReadWriteLock[256];
+        for (int i = 0; i < BODY_LOCKS.length; i++) {
+            BODY_LOCKS[i] = new ReentrantReadWriteLock();
+        }
+    }
     
     /**
      * Constructor for Conversation
@@ -57,27 +126,45 @@ public class Conversation implements Serializable {
      * @param isDisappearing is disappearing
      */
     public Conversation(Seller seller, String store, Customer customer, boolean isDisappearing) {
+        this(seller, store, customer, isDisappearing, null);
+        
+        Conversation existing = MainListOfConversations.register(this);
+        if (existing != null) {
+            // Another Conversation between the same users about the same store already exists; share its Messages
+            existing.bodyLock.writeLock().lock();
+            try {
+                this.messages = existing.getMessages();
+                this.messagesById = existing.messagesById;
+                this.messagesByTimestamp = existing.messagesByTimestamp;
+            } finally {
+                existing.bodyLock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Constructor for a Conversation whose {@link Message}s are still in its save file. They are only read the first
+     * time they are needed. The Conversation is not added to the {@link MainListOfConversations}; the loader adds
+     * every loaded Conversation at once with {@link MainListOfConversations#addLoadedConversations(Collection)}
+     *
+     * @param seller         the Seller
+     * @param store          the Store
+     * @param customer       the Customer
+     * @param isDisappearing is disappearing
+     * @param segment        the save file to read the {@link Message}s from, or null for a new (empty) Conversation
+     */
+    Conversation(Seller seller, String store, Customer customer, boolean isDisappearing, MessageSegment segment) {
         this.seller = seller;
         this.store = store;
         this.customer = customer;
         this.isDisappearing = isDisappearing;
-        
-        boolean conversationExists = false;
-        ArrayList<Conversation> mainListOfConversations = MainListOfConversations.getMainListOfConversations();
-        for (Conversation mainListConversation : mainListOfConversations) {
-            if (mainListConversation.getCustomer().equals(customer) &&
-                    mainListConversation.getSeller().equals(seller) &&
-                    Objects.equals(mainListConversation.getStore(), store)) {
-                this.messages = mainListConversation.getMessages();
-                conversationExists = true;
-            }
-        }
-        
-        if (!conversationExists) {
-            this.messages = new ArrayList<>();
-        }
-        
-        MainListOfConversations.getMainListOfConversations().add(this);
+        this.dirty = (segment == null);
+        this.persistedMessageCount = 0;
+        this.segment = segment;
+        this.changedMessages = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.bodyLock = lockFor(this);
+        this.bodyKey = NEXT_BODY_KEY.incrementAndGet();
+        setBody(segment == null ? new ArrayList<>() : null);
     }
     
     /**
@@ -113,7 +200,10 @@ public class Conversation implements Serializable {
      * @param store the store to set
      */
     private void setStore(String store) {
+        String oldStore = this.store;
         this.store = store;
+        MainListOfConversations.reindex(this, oldStore);
+        markDirty();
     }
     
     /**
@@ -122,14 +212,224 @@ public class Conversation implements Serializable {
      * @return this Conversation's list of Messages
      */
     public ArrayList<Message> getMessages() {
-        return messages;
+        ArrayList<Message> out = ensureLoaded();
+        if (segment != null) {
+            MainListOfConversations.touchBody(this);
+        }
+        return out;
+    }
+    
+    /**
+     * Returns a copy of this Conversation's {@link Message}s, safe to iterate while other threads add to them
+     *
+     * @return a copy of this Conversation's list of Messages
+     */
+    ArrayList<Message> snapshotMessages() {
+        while (true) {
+            getMessages();
+            bodyLock.readLock().lock();
+            try {
+                ArrayList<Message> current = messages;
+                if (current != null) {
+                    return new ArrayList<>(current);
+                }
+                // Evicted again before the read lock was taken; the write lock can't be taken while holding it
+            } finally {
+                bodyLock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Sets the content of one of this Conversation's {@link Message}s while holding its lock
+     *
+     * @param id       the id of the {@link Message}, or 0 to find it by timeSent instead
+     * @param timeSent the timestamp of the {@link Message}
+     * @param content  the content to set
+     * @return the edited {@link Message}, or null if there is no such {@link Message}
+     */
+    Message editMessage(long id, long timeSent, String content) {
+        bodyLock.writeLock().lock();
+        try {
+            Message m = (id != 0 ? getMessageById(id) : getMessageByTimestamp(timeSent));
+            if (m != null) {
+                m.setMessageContent(content);
+            }
+            return m;
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns this Conversation's {@link Message}s, reading them from its save file if they are not in memory
+     *
+     * @return this Conversation's list of Messages
+     */
+    private ArrayList<Message> ensureLoaded() {
+        ArrayList<Message> out = messages;
+        if (out != null) {
+            return out;
+        }
+        bodyLock.writeLock().lock();
+        try {
+            if (messages == null) {
+                ArrayList<Message> kept = (evictedMessages == null ? null : evictedMessages.get());
+                if (kept == null) {
+                    try {
+                        kept = segment.readAll(this);
+                    } catch (IOException ioe) {
+                        System.err.println("Error reading messages from " + segment.getFile());
+                        ioe.printStackTrace();
+                        throw new UncheckedIOException(ioe);
+                    }
+                    persistedMessageCount = kept.size();
+                }
+                evictedMessages = null;
+                setBody(kept);
+            }
+            return messages;
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Replaces the in-memory {@link Message}s and rebuilds their indexes. Must hold bodyLock (or be constructing)
+     *
+     * @param body the {@link Message}s, or null if they are no longer in memory
+     */
+    private void setBody(ArrayList<Message> body) {
+        ConcurrentSkipListMap<Long, Message> byId = null;
+        ConcurrentSkipListMap<Long, Message> byTimestamp = null;
+        if (body != null) {
+            byId = new ConcurrentSkipListMap<>();
+            byTimestamp = new ConcurrentSkipListMap<>();
+            for (Message m : body) {
+                if (m.getId() == 0) {
+                    m.setId(MessageIdGenerator.nextId());
+                }
+                byId.put(m.getId(), m);
+                byTimestamp.put(m.getTimeSent(), m);
+            }
+        }
+        this.messagesById = byId;
+        this.messagesByTimestamp = byTimestamp;
+        this.messages = body;
+    }
+    
+    /**
+     * Adds a {@link Message} already added to messages to the indexes. Must hold bodyLock
+     *
+     * @param m the {@link Message}
+     */
+    private void indexMessage(Message m) {
+        messagesById.put(m.getId(), m);
+        messagesByTimestamp.put(m.getTimeSent(), m);
+    }
+    
+    /**
+     * Drops this Conversation's {@link Message}s from memory if they are all saved. Never waits for the lock
+     *
+     * @return whether the {@link Message}s are no longer in memory
+     */
+    boolean evictBody() {
+        if (segment == null || !bodyLock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            ArrayList<Message> current = messages;
+            if (current == null) {
+                return true;
+            }
+            if (dirty || !changedMessages.isEmpty() || persistedMessageCount != current.size()) {
+                return false;
+            }
+            evictedMessages = new WeakReference<>(current);
+            setBody(null);
+            return true;
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns whether this Conversation's {@link Message}s are in memory
+     *
+     * @return whether this Conversation's {@link Message}s are in memory
+     */
+    boolean isBodyResident() {
+        return messages != null;
+    }
+    
+    /**
+     * Returns the stripe of BODY_LOCKS for the given Conversation
+     *
+     * @param c the Conversation, whose {@link Seller} and {@link Customer} must be set
+     * @return the lock
+     */
+    private static ReentrantReadWriteLock lockFor(Conversation c) {
+        int hash = ConversationKey.pairOf(c).hashCode();
+        return BODY_LOCKS[(hash ^ (hash >>> 16)) & (BODY_LOCKS.length - 1)];
+    }
+    
+    /**
+     * Returns a copy of this Conversation's {@link Message}s for reading only. If they are not in memory they are read
+     * straight from the save file and not kept
+     *
+     * @return this Conversation's {@link Message}s
+     */
+    private ArrayList<Message> messagesForReading() {
+        bodyLock.readLock().lock();
+        try {
+            ArrayList<Message> current = messages;
+            if (current != null) {
+                return new ArrayList<>(current);
+            }
+        } finally {
+            bodyLock.readLock().unlock();
+        }
+        try {
+            return segment.readAll(this);
+        } catch (IOException ioe) {
+            System.err.println("Error reading messages from " + segment.getFile());
+            ioe.printStackTrace();
+            throw new UncheckedIOException(ioe);
+        }
+    }
+    
+    /**
+     * Returns the save file this Conversation's {@link Message}s were last written to
+     *
+     * @return the save file, or null if never saved
+     */
+    MessageSegment getSegment() {
+        return segment;
+    }
+    
+    /**
+     * Records the save file this Conversation's {@link Message}s were last written to
+     *
+     * @param segment the save file
+     */
+    void setSegment(MessageSegment segment) {
+        this.segment = segment;
+    }
+    
+    /**
+     * Returns the key identifying this Conversation in the resident body cache
+     *
+     * @return the key
+     */
+    long getBodyKey() {
+        return bodyKey;
     }
     
     /**
      * Prints this conversation to the console
      */
     public void printConversation() {
-        for (Message message : messages) {
+        for (Message message : messagesForReading()) {
             System.out.println("[" + message.getTimeSent() + "] " + message.getSender().getName()
                     + " : " + message.getMessageContent());
         }
@@ -143,7 +443,7 @@ public class Conversation implements Serializable {
      */
     public int getNumberOfMessagesSentBy(User sender) {
         int counter = 0;
-        for (Message m : messages) {
+        for (Message m : messagesForReading()) {
             if (m.getSender().equals(sender)) {
                 counter++;
             }
@@ -151,6 +451,139 @@ public class Conversation implements Serializable {
         return counter;
     }
     
+    /**
+     * Returns the number of {@link Message}s in this Conversation, without reading them from its save file
+     *
+     * @return the number of {@link Message}s
+     */
+    public int getMessageCount() {
+        bodyLock.readLock().lock();
+        try {
+            ArrayList<Message> current = messages;
+            if (current != null) {
+                return current.size();
+            }
+        } finally {
+            bodyLock.readLock().unlock();
+        }
+        try {
+            return segment.size();
+        } catch (IOException ioe) {
+            System.err.println("Error reading messages from " + segment.getFile());
+            ioe.printStackTrace();
+            throw new UncheckedIOException(ioe);
+        }
+    }
+    
+    /**
+     * Returns when the last {@link Message} added to this Conversation was sent, reading only that {@link Message}
+     * from its save file
+     *
+     * @return the time the last {@link Message} was sent, or 0 if there are none
+     */
+    public long getLastMessageTime() {
+        bodyLock.readLock().lock();
+        try {
+            ArrayList<Message> current = messages;
+            if (current != null) {
+                return (current.isEmpty() ? 0 : current.get(current.size() - 1).getTimeSent());
+            }
+        } finally {
+            bodyLock.readLock().unlock();
+        }
+        try {
+            int count = segment.size();
+            return (count == 0 ? 0 : segment.read(count - 1, this).getTimeSent());
+        } catch (IOException ioe) {
+            System.err.println("Error reading messages from " + segment.getFile());
+            ioe.printStackTrace();
+            throw new UncheckedIOException(ioe);
+        }
+    }
+    
+    /**
+     * Returns a page of this Conversation's {@link Message}s, in the order they were added, next to the one with the
+     * given id. If they are not in memory only the page is read from the save file
+     *
+     * @param anchorId the id of the {@link Message} the page is next to, or 0 for the latest page (or, if after is
+     *                 set, the earliest)
+     * @param after    whether the page holds the {@link Message}s after the anchor rather than those before it
+     * @param size     the most {@link Message}s on the page
+     * @return the page, its {@link Message}s without their parent, or null if there is no {@link Message} with the id
+     */
+    MessagePage page(long anchorId, boolean after, int size) {
+        bodyLock.readLock().lock();
+        try {
+            ArrayList<Message> current = messages;
+            if (current != null) {
+                int total = current.size();
+                int anchor = (anchorId == 0 ? (after ? -1 : total) : indexOfId(current, anchorId));
+                if (anchor == -1 && anchorId != 0) {
+                    return null;
+                }
+                int from = (after ? anchor + 1 : Math.max(0, anchor - size));
+                int to = (after ? Math.min(total, anchor + 1 + size) : anchor);
+                ArrayList<Message> page = new ArrayList<>(to - from);
+                for (Message m : current.subList(from, to)) {
+                    page.add(ConversationDelta.detach(m));
+                }
+                return new MessagePage(ConversationKey.of(this), page, from, total);
+            }
+        } finally {
+            bodyLock.readLock().unlock();
+        }
+        
+        MessageSegment current = segment;
+        try {
+            int total = current.size();
+            int anchor = (anchorId == 0 ? (after ? -1 : total) : current.indexOfId(anchorId));
+            if (anchor == -1 && anchorId != 0) {
+                return null;
+            }
+            int from = (after ? anchor + 1 : Math.max(0, anchor - size));
+            int to = (after ? Math.min(total, anchor + 1 + size) : anchor);
+            ArrayList<Message> page = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                page.add(ConversationDelta.detach(current.read(i, this)));
+            }
+            return new MessagePage(ConversationKey.of(this), page, from, total);
+        } catch (IOException ioe) {
+            System.err.println("Error reading messages from " + current.getFile());
+            ioe.printStackTrace();
+            throw new UncheckedIOException(ioe);
+        }
+    }
+    
+    /**
+     * Returns the index of the {@link Message} with the given id. Ids almost always increase in the order
+     * {@link Message}s are added, so they are binary searched first
+     *
+     * @param messages the {@link Message}s
+     * @param id       the id
+     * @return the index, or -1 if there is no such {@link Message}
+     */
+    private static int indexOfId(List<Message> messages, long id) {
+        int low = 0;
+        int high = messages.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = messages.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     /**
      * Returns whether this conversation is disappearing
      *
@@ -167,6 +600,88 @@ public class Conversation implements Serializable {
      */
     protected void setIsDissapearing(boolean isDisappearing) {
         this.isDisappearing = isDisappearing;
+        markDirty();
+    }
+    
+    /**
+     * Marks this Conversation's save file as needing a full rewrite (the metadata changed)
+     */
+    void markDirty() {
+        this.dirty = true;
+    }
+    
+    /**
+     * Records that the given {@link Message} changed so that its entry in the save file is updated when next saved.
+     * If the {@link Message}s were evicted and re-read in the meantime, the changed {@link Message} replaces its
+     * re-read copy
+     *
+     * @param changed the changed {@link Message}
+     */
+    void markDirty(Message changed) {
+        bodyLock.writeLock().lock();
+        try {
+            if (messages == null) {
+                ArrayList<Message> current = ensureLoaded();
+                Message reread = messagesById.get(changed.getId());
+                if (reread != null && reread != changed) {
+                    for (int i = 0; i < current.size(); i++) {
+                        if (current.get(i) == reread) {
+                            current.set(i, changed);
+                            indexMessage(changed);
+                            break;
+                        }
+                    }
+                }
+            }
+            changedMessages.add(changed);
+            MessageChangeLog.record(this, changed.getId());
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns and forgets the saved {@link Message}s changed since this was last called
+     *
+     * @return the changed {@link Message}s
+     */
+    Set<Message> takeChangedMessages() {
+        bodyLock.writeLock().lock();
+        try {
+            Set<Message> out = changedMessages;
+            changedMessages = Collections.newSetFromMap(new IdentityHashMap<>());
+            return out;
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns whether this Conversation's save file must be rewritten rather than appended to
+     *
+     * @return whether this Conversation's save file must be rewritten
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Returns the number of {@link Message}s already in this Conversation's save file
+     *
+     * @return the number of {@link Message}s already saved
+     */
+    int getPersistedMessageCount() {
+        return persistedMessageCount;
+    }
+    
+    /**
+     * Records that the first persistedMessageCount {@link Message}s are saved and the save file is up-to-date
+     *
+     * @param persistedMessageCount the number of {@link Message}s now in the save file
+     */
+    void markPersisted(int persistedMessageCount) {
+        this.dirty = false;
+        this.persistedMessageCount = persistedMessageCount;
     }
     
     /**
@@ -211,8 +726,9 @@ public class Conversation implements Serializable {
      *
      * @param fromUser the User to send a message from
      * @param fromFile the (.txt) file with the desired message content
+     * @return the {@link Message} sent
      */
-    public void sendMessageFromFile(User fromUser, File fromFile) {
+    public Message sendMessageFromFile(User fromUser, File fromFile) {
         StringBuilder messageContent = new StringBuilder();
         
         try {
@@ -233,7 +749,17 @@ public class Conversation implements Serializable {
             throw new RuntimeException(e);
         }
         
-        messages.add(new Message(fromUser, otherUser(fromUser), messageContent.toString()));
+        Message message = new Message(fromUser, otherUser(fromUser), messageContent.toString());
+        bodyLock.writeLock().lock();
+        try {
+            message.setId(MessageIdGenerator.nextId());
+            getMessages().add(message);
+            indexMessage(message);
+            MessageChangeLog.record(this, message.getId());
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+        return message;
     }
     
     /**
@@ -241,54 +767,168 @@ public class Conversation implements Serializable {
      * <br /><em>Functionally indifferent from sendMessage(Message message)</em>
      *
      * @param message the {@link Message} to add
+     * @return whether the {@link Message} was added
      */
-    public void addMessage(Message message) {
+    public boolean addMessage(Message message) {
         if (message.getParent() != null && (!message.getParent().equals(this) ||
                 !message.getParent().getStore().equals(store))) {
-            return;
+            return false;
         }
         User receiver = (message.getReceiverEmail().equals(customer.getEmail()) ? customer : seller);
         User sender = otherUser(receiver);
-        if (receiver.getBlockedEmails().contains(sender.getEmail()) ||
-                (getMessageByTimestamp(message.getTimeSent()) != null &&
-                        getMessageByTimestamp(message.getTimeSent()).equals(message))) {
-            return;
-        }
-        // Ensures concurrency safety by disallowing messages from sharing a timestamp (effectively an id)
-        while (getMessageByTimestamp(message.getTimeSent()) != null) {
-            message.setTimeSent(message.getTimeSent() + 1);
+        bodyLock.writeLock().lock();
+        try {
+            ArrayList<Message> current = getMessages();
+            if (receiver.getBlockedEmails().contains(sender.getEmail()) || isDuplicate(message)) {
+                return false;
+            }
+            if (message.getId() == 0) {
+                message.setId(MessageIdGenerator.nextId());
+            }
+            current.add(message);
+            indexMessage(message);
+            if (message.getParent() == null) {
+                message.setParent(this);
+            }
+            MessageChangeLog.record(this, message.getId());
+            return true;
+        } finally {
+            bodyLock.writeLock().unlock();
         }
-        this.messages.add(message);
-        if (message.getParent() == null) {
+    }
+    
+    /**
+     * Puts a previously accepted {@link Message} back into this {@link Conversation} when loading saved data. Skips the
+     * blocking checks of addMessage (the message was allowed when it was sent) and ignores ids (or, for records saved
+     * before messages had ids, timestamps) already present
+     *
+     * @param message the {@link Message} to restore
+     * @return whether the {@link Message} was restored
+     */
+    boolean restoreMessage(Message message) {
+        bodyLock.writeLock().lock();
+        try {
+            ArrayList<Message> current = getMessages();
+            if (message.getId() == 0 ? messagesByTimestamp.containsKey(message.getTimeSent())
+                    : messagesById.containsKey(message.getId())) {
+                return false;
+            }
+            if (message.getId() == 0) {
+                message.setId(MessageIdGenerator.nextId());
+            } else {
+                MessageIdGenerator.observe(message.getId());
+            }
+            current.add(message);
+            indexMessage(message);
             message.setParent(this);
+            return true;
+        } finally {
+            bodyLock.writeLock().unlock();
         }
     }
     
+    /**
+     * Returns whether the given {@link Message} was already added. Must hold bodyLock with the {@link Message}s loaded
+     *
+     * @param message the {@link Message} being added
+     * @return whether it is already in this {@link Conversation}
+     */
+    private boolean isDuplicate(Message message) {
+        if (message.getId() != 0) {
+            return messagesById.containsKey(message.getId());
+        }
+        // Not yet given an id by the server; only an identical Message sent at the same time counts
+        Message sameTime = messagesByTimestamp.get(message.getTimeSent());
+        return sameTime != null && sameTime.equals(message);
+    }
+    
     /**
      * Removes the given {@link Message} from this {@link Conversation}'s history
      *
      * @param message the message to remove
      */
     private void removeMessage(Message message) {
-        getMessages().remove(message);
+        bodyLock.writeLock().lock();
+        try {
+            if (getMessages().remove(message)) {
+                messagesById.remove(message.getId(), message);
+                messagesByTimestamp.remove(message.getTimeSent(), message);
+            }
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
     }
     
     /**
      * Gets the {@link Message} with the given timestamp
      *
      * @param timestamp the timestamp to check for
-     * @return the {@link Message} with the given timestamp
+     * @return the {@link Message} with the given timestamp (the latest, if several share it)
      */
     public Message getMessageByTimestamp(long timestamp) {
-        Message out = null;
+        ConcurrentSkipListMap<Long, Message> byTimestamp = messagesByTimestamp;
+        if (byTimestamp != null) {
+            if (segment != null) {
+                MainListOfConversations.touchBody(this);
+            }
+            return byTimestamp.get(timestamp);
+        }
         
-        for (Message m : messages) {
-            if (m.getTimeSent() == timestamp) {
-                out = m;
+        MessageSegment current = segment;
+        if (current != null) {
+            // Search the save file's entries rather than reading every Message
+            try {
+                int index = current.indexOf(timestamp);
+                return (index == -1 ? null : current.read(index, this));
+            } catch (IOException ioe) {
+                System.err.println("Error reading messages from " + current.getFile());
+                ioe.printStackTrace();
+                throw new UncheckedIOException(ioe);
             }
         }
+        bodyLock.writeLock().lock();
+        try {
+            getMessages();
+            return messagesByTimestamp.get(timestamp);
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the {@link Message} with the given id
+     *
+     * @param id the id to check for
+     * @return the {@link Message} with the given id, or null if there is none
+     */
+    public Message getMessageById(long id) {
+        ConcurrentSkipListMap<Long, Message> byId = messagesById;
+        if (byId != null) {
+            if (segment != null) {
+                MainListOfConversations.touchBody(this);
+            }
+            return byId.get(id);
+        }
         
-        return out;
+        MessageSegment current = segment;
+        if (current != null) {
+            // Search the save file's entries rather than reading every Message
+            try {
+                int index = current.indexOfId(id);
+                return (index == -1 ? null : current.read(index, this));
+            } catch (IOException ioe) {
+                System.err.println("Error reading messages from " + current.getFile());
+                ioe.printStackTrace();
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        bodyLock.writeLock().lock();
+        try {
+            getMessages();
+            return messagesById.get(id);
+        } finally {
+            bodyLock.writeLock().unlock();
+        }
     }
     
     /**
@@ -315,6 +955,17 @@ public class Conversation implements Serializable {
      * @return the File object
      */
     public File saveToCSVFile(String filename, User user) {
+        return writeCSVFile(filename, asCSV(user));
+    }
+    
+    /**
+     * Saves CSV data, such as from {@link #asCSV(User)}, to a file
+     *
+     * @param filename the filename to save to
+     * @param csv      the CSV data
+     * @return the File saved to
+     */
+    static File writeCSVFile(String filename, String csv) {
         if (!filename.endsWith(".csv")) {
             System.out.println("Saving csv data to non-csv file (\"" + filename + "\")");
         }
@@ -324,7 +975,7 @@ public class Conversation implements Serializable {
         try {
             BufferedWriter bw = new BufferedWriter(new FileWriter(f, false));
             
-            bw.write(asCSV(user));
+            bw.write(csv);
             
             bw.flush();
             bw.close();
@@ -352,16 +1003,13 @@ public class Conversation implements Serializable {
         sb.append("userEmail,otherUserEmail,senderName,timestamp,messageContents").append(System.lineSeparator());
         
         // Participants, Message sender, timestamp, and contents
-        for (Message m : messages) {
-            if ((m.getReceiverEmail().equals(user.getEmail()) && m.canReceiverView())
-                    || (m.getSenderEmail().equals(user.getEmail()) && m.canSenderView())) {
-                String senderName = (m.getSenderEmail().equals(user.getEmail()) ? user.getName() : other.getName());
-                sb.append(user.getEmail().replace(",", "\\,")).append(',').
-                        append(other.getEmail().replace(",", "\\,")).append(',')
-                        .append(senderName.replace(",", "\\,")).append(',')
-                        .append(m.getTimeSent()).append(',')
-                        .append(m.getMessageContentFiltered(user).replace(",", "\\,")).append(System.lineSeparator());
-            }
+        for (Message m : ConversationView.project(messagesForReading(), user)) {
+            String senderName = (m.getSenderEmail().equals(user.getEmail()) ? user.getName() : other.getName());
+            sb.append(user.getEmail().replace(",", "\\,")).append(',').
+                    append(other.getEmail().replace(",", "\\,")).append(',')
+                    .append(senderName.replace(",", "\\,")).append(',')
+                    .append(m.getTimeSent()).append(',')
+                    .append(m.getMessageContent().replace(",", "\\,")).append(System.lineSeparator());
         }
         
         return sb.toString();
@@ -375,7 +1023,7 @@ public class Conversation implements Serializable {
     @Override
     public String toString() {
         StringBuilder messageString = new StringBuilder();
-        for (Message m : messages) {
+        for (Message m : messagesForReading()) {
             messageString.append(m.toString()).append(",");
         }
         return String.format(
@@ -392,7 +1040,7 @@ public class Conversation implements Serializable {
      */
     public String toString(boolean light) {
         StringBuilder messageString = new StringBuilder();
-        for (Message m : messages) {
+        for (Message m : messagesForReading()) {
             messageString.append(m.toString()).append(",");
         }
         return String.format(
@@ -402,6 +1050,37 @@ public class Conversation implements Serializable {
                 (messageString.length() > 0 ? messageString.substring(0, messageString.length() - 1) : ""));
     }
     
+    /**
+     * Writes this Conversation with its {@link Message}s, reading them from disk first if necessary
+     *
+     * @param out the stream to write to
+     * @throws IOException from ObjectOutputStream
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("seller", seller);
+        fields.put("customer", customer);
+        fields.put("messages", messagesForReading());
+        fields.put("store", store);
+        fields.put("isDisappearing", isDisappearing);
+        out.writeFields();
+    }
+    
+    /**
+     * Reads this Conversation and sets up its (transient) lock
+     *
+     * @param in the stream to read from
+     * @throws IOException            from ObjectInputStream
+     * @throws ClassNotFoundException from ObjectInputStream
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.bodyLock = lockFor(this);
+        this.bodyKey = NEXT_BODY_KEY.incrementAndGet();
+        this.changedMessages = Collections.newSetFromMap(new IdentityHashMap<>());
+        setBody(messages);
+    }
+    
     /**
      * Returns whether this equals o
      *
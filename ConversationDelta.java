@@ -0,0 +1,218 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ConversationDelta}<br />
+ * What changed in a {@link User}'s {@link Conversation}s since a {@link SyncCursor}: the {@link Conversation}s the
+ * client doesn't have (or has fallen too far behind on) whole, the {@link Message}s added or edited in the others,
+ * and the {@link Conversation}s it has that are gone. Without a cursor from this run of the server every
+ * {@link Conversation} is sent whole and replaces what the client had. The {@link Message}s are sent without their
+ * parent {@link Conversation}, so a delta costs about as much as what changed
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class ConversationDelta implements Serializable {
+    private final SyncCursor cursor;
+    private final boolean full;
+    private final ArrayList<Conversation> conversations;
+    private final HashMap<ConversationKey, ArrayList<Message>> changedMessages;
+    private final ArrayList<ConversationKey> removed;
+    
+    /**
+     * A {@link ConversationDelta} constructor; also used by {@link WireCodec} to read one
+     *
+     * @param cursor          the cursor to sync from next time
+     * @param full            whether conversations are all of the {@link User}'s {@link Conversation}s
+     * @param conversations   the {@link Conversation}s sent whole
+     * @param changedMessages the {@link Message}s added or edited, by {@link Conversation}
+     * @param removed         the {@link Conversation}s the client had that are gone
+     */
+    ConversationDelta(SyncCursor cursor, boolean full, ArrayList<Conversation> conversations,
+                      HashMap<ConversationKey, ArrayList<Message>> changedMessages,
+                      ArrayList<ConversationKey> removed) {
+        this.cursor = cursor;
+        this.full = full;
+        this.conversations = conversations;
+        this.changedMessages = changedMessages;
+        this.removed = removed;
+    }
+    
+    /**
+     * Works out what changed in the given {@link Conversation}s since a cursor. Runs on the server
+     *
+     * @param user   the {@link User} whose {@link Conversation}s to sync
+     * @param cursor the cursor the client last synced to, or null if it has nothing yet
+     * @return the changes
+     */
+    static ConversationDelta since(User user, SyncCursor cursor) {
+        // Taken first, so anything changed while reading is sent again next time rather than missed
+        long stamp = MessageChangeLog.stamp();
+        Map<ConversationKey, Long> previous = null;
+        if (cursor != null && cursor.getRunId() == MessageChangeLog.RUN_ID) {
+            previous = cursor.getMarks();
+        }
+        
+        HashMap<ConversationKey, Long> marks = new HashMap<>();
+        ArrayList<Conversation> whole = new ArrayList<>();
+        HashMap<ConversationKey, ArrayList<Message>> changed = new HashMap<>();
+        for (Conversation c : MainListOfConversations.getConversationsWithUser(user)) {
+            ConversationKey key = ConversationKey.of(c);
+            marks.put(key, stamp);
+            Long mark = (previous == null ? null : previous.get(key));
+            Set<Long> changedIds = (mark == null ? null : MessageChangeLog.changedSince(c, mark));
+            if (changedIds == null) {
+                whole.add(c);
+                continue;
+            }
+            ArrayList<Message> messages = new ArrayList<>(changedIds.size());
+            for (long id : changedIds) {
+                Message m = c.getMessageById(id);
+                if (m != null) {
+                    messages.add(detach(m));
+                }
+            }
+            if (!messages.isEmpty()) {
+                changed.put(key, messages);
+            }
+        }
+        
+        ArrayList<ConversationKey> removed = new ArrayList<>();
+        if (previous != null) {
+            for (ConversationKey key : previous.keySet()) {
+                if (!marks.containsKey(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+        return new ConversationDelta(new SyncCursor(MessageChangeLog.RUN_ID, marks), previous == null, whole,
+                changed, removed);
+    }
+    
+    /**
+     * Returns a copy of a {@link Message} without its parent, which would otherwise be sent along with it
+     *
+     * @param m the {@link Message}
+     * @return the copy
+     */
+    static Message detach(Message m) {
+        Message copy = new Message(m.getSenderEmail(), m.getReceiverEmail(), m.canSenderView(), m.canReceiverView(),
+                m.getMessageContent(), m.getTimeSent());
+        copy.setId(m.getId());
+        return copy;
+    }
+    
+    /**
+     * Applies these changes to the {@link Conversation}s they were worked out against, updating those
+     * {@link Conversation}s in place. Runs on the client
+     *
+     * @param known the {@link Conversation}s as of the cursor these changes are since (ignored if this is full)
+     * @return the {@link User}'s {@link Conversation}s, up to date
+     */
+    public ArrayList<Conversation> applyTo(Collection<Conversation> known) {
+        if (full) {
+            return new ArrayList<>(conversations);
+        }
+        LinkedHashMap<ConversationKey, Conversation> merged = new LinkedHashMap<>();
+        for (Conversation c : known) {
+            merged.put(ConversationKey.of(c), c);
+        }
+        for (ConversationKey key : removed) {
+            merged.remove(key);
+        }
+        for (Conversation c : conversations) {
+            merged.put(ConversationKey.of(c), c);
+        }
+        
+        for (Map.Entry<ConversationKey, ArrayList<Message>> entry : changedMessages.entrySet()) {
+            Conversation c = merged.get(entry.getKey());
+            if (c == null) {
+                // Not one the cursor was for; it will come whole once synced from a cursor that has it
+                continue;
+            }
+            for (Message m : entry.getValue()) {
+                Message existing = c.getMessageById(m.getId());
+                if (existing == null) {
+                    c.restoreMessage(m);
+                    continue;
+                }
+                if (!existing.getMessageContent().equals(m.getMessageContent())) {
+                    existing.setMessageContent(m.getMessageContent());
+                }
+                if (existing.canSenderView() != m.canSenderView()) {
+                    existing.setCanSenderView(m.canSenderView());
+                }
+                if (existing.canReceiverView() != m.canReceiverView()) {
+                    existing.setCanReceiverView(m.canReceiverView());
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+    
+    /**
+     * Returns the cursor to sync from next time
+     *
+     * @return the cursor
+     */
+    public SyncCursor getCursor() {
+        return cursor;
+    }
+    
+    /**
+     * Returns whether this holds all of the {@link User}'s {@link Conversation}s, replacing what the client had
+     *
+     * @return whether this is a full sync
+     */
+    public boolean isFull() {
+        return full;
+    }
+    
+    /**
+     * Returns the {@link Conversation}s sent whole
+     *
+     * @return the {@link Conversation}s sent whole
+     */
+    public List<Conversation> getConversations() {
+        return conversations;
+    }
+    
+    /**
+     * Returns the number of {@link Message}s added or edited in {@link Conversation}s the client already had
+     *
+     * @return the number of changed {@link Message}s
+     */
+    public int getChangedMessageCount() {
+        int count = 0;
+        for (ArrayList<Message> messages : changedMessages.values()) {
+            count += messages.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the {@link Message}s added or edited in {@link Conversation}s the client already had, by
+     * {@link Conversation}
+     *
+     * @return the changed {@link Message}s
+     */
+    Map<ConversationKey, ArrayList<Message>> getChangedMessages() {
+        return changedMessages;
+    }
+    
+    /**
+     * Returns the {@link Conversation}s the client had that are gone
+     *
+     * @return the removed {@link Conversation}s
+     */
+    public List<ConversationKey> getRemoved() {
+        return removed;
+    }
+    
+}
@@ -0,0 +1,114 @@
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * {@link ConversationKey}<br />
+ * Identifies a {@link Conversation} by its {@link Seller}, {@link Customer} and store, for looking it up in the
+ * {@link MainListOfConversations} index
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class ConversationKey implements Serializable {
+    private final String sellerEmail;
+    private final String customerEmail;
+    private final String store;
+    private final int hash;
+    
+    /**
+     * A {@link ConversationKey} constructor
+     *
+     * @param sellerEmail   the {@link Seller}'s email
+     * @param customerEmail the {@link Customer}'s email
+     * @param store         the store (may be null)
+     */
+    public ConversationKey(String sellerEmail, String customerEmail, String store) {
+        this.sellerEmail = sellerEmail;
+        this.customerEmail = customerEmail;
+        this.store = store;
+        this.hash = Objects.hash(sellerEmail, customerEmail, store);
+    }
+    
+    /**
+     * Returns the key of the given {@link Conversation}
+     *
+     * @param c the {@link Conversation}
+     * @return the key
+     */
+    public static ConversationKey of(Conversation c) {
+        return new ConversationKey(c.getSeller().getEmail(), c.getCustomer().getEmail(), c.getStore());
+    }
+    
+    /**
+     * Returns the key of the given {@link Conversation}'s {@link Seller} and {@link Customer}, ignoring its store
+     *
+     * @param c the {@link Conversation}
+     * @return the key
+     */
+    public static ConversationKey pairOf(Conversation c) {
+        return new ConversationKey(c.getSeller().getEmail(), c.getCustomer().getEmail(), null);
+    }
+    
+    /**
+     * Returns the {@link Seller}'s email
+     *
+     * @return the {@link Seller}'s email
+     */
+    public String getSellerEmail() {
+        return sellerEmail;
+    }
+    
+    /**
+     * Returns the {@link Customer}'s email
+     *
+     * @return the {@link Customer}'s email
+     */
+    public String getCustomerEmail() {
+        return customerEmail;
+    }
+    
+    /**
+     * Returns the store
+     *
+     * @return the store (may be null)
+     */
+    public String getStore() {
+        return store;
+    }
+    
+    /**
+     * Returns whether this equals o
+     *
+     * @param o the {@link Object} to compare
+     * @return whether this equals o
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConversationKey that = (ConversationKey) o;
+        return hash == that.hash && sellerEmail.equals(that.sellerEmail) && customerEmail.equals(that.customerEmail)
+                && Objects.equals(store, that.store);
+    }
+    
+    /**
+     * Returns the hash code of this key
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    /**
+     * Returns a {@link String} representation of this key
+     *
+     * @return a {@link String} representation of this key
+     */
+    @Override
+    public String toString() {
+        return sellerEmail + Server.DELIMITER + store + Server.DELIMITER + customerEmail;
+    }
+    
+}
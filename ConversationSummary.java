@@ -0,0 +1,165 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * {@link ConversationSummary}<br />
+ * What an inbox shows of one of a {@link User}'s {@link Conversation}s: who it is with, its store, how many
+ * {@link Message}s it holds and when the last was sent. Holds only the {@link Conversation}'s key and the names of
+ * its two {@link User}s, never the {@link User}s themselves, so nothing private to the other {@link User} is sent
+ * with it; that is still enough to send a {@link Message} to the {@link Conversation} or ask for a
+ * {@link MessagePage} of it
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class ConversationSummary implements Serializable {
+    private final ConversationKey key;
+    private final String sellerName;
+    private final String customerName;
+    private final boolean disappearing;
+    private final boolean withSeller;
+    private final int messageCount;
+    private final long lastMessageTime;
+    
+    /**
+     * A {@link ConversationSummary} constructor
+     *
+     * @param key             the key of the {@link Conversation}
+     * @param sellerName      the name of the {@link Seller}
+     * @param customerName    the name of the {@link Customer}
+     * @param disappearing    whether the {@link Conversation} is disappearing
+     * @param withSeller      whether the other {@link User} is the {@link Seller}
+     * @param messageCount    the number of {@link Message}s
+     * @param lastMessageTime when the last {@link Message} was sent, or 0 if there are none
+     */
+    ConversationSummary(ConversationKey key, String sellerName, String customerName, boolean disappearing,
+                        boolean withSeller, int messageCount, long lastMessageTime) {
+        this.key = key;
+        this.sellerName = sellerName;
+        this.customerName = customerName;
+        this.disappearing = disappearing;
+        this.withSeller = withSeller;
+        this.messageCount = messageCount;
+        this.lastMessageTime = lastMessageTime;
+    }
+    
+    /**
+     * Summarizes a {@link Conversation} as seen by one of its {@link User}s, without reading its {@link Message}s from
+     * its save file
+     *
+     * @param c      the {@link Conversation}
+     * @param viewer the {@link User} whose inbox it is in
+     * @return the summary
+     */
+    static ConversationSummary of(Conversation c, User viewer) {
+        return new ConversationSummary(ConversationKey.of(c), c.getSeller().getName(), c.getCustomer().getName(),
+                c.isDisappearing(), !c.getSeller().getEmail().equals(viewer.getEmail()), c.getMessageCount(),
+                c.getLastMessageTime());
+    }
+    
+    /**
+     * Returns the key of the {@link Conversation}
+     *
+     * @return the key
+     */
+    public ConversationKey getKey() {
+        return key;
+    }
+    
+    /**
+     * Returns the {@link Conversation} to pass back to the server, without its {@link Message}s. Its {@link User}s
+     * are placeholders holding only their names and emails, not added to the {@link User}s known
+     *
+     * @return the {@link Conversation}
+     */
+    public Conversation getConversation() {
+        Seller seller = new Seller(sellerName, key.getSellerEmail(), null, new HashMap<>(), new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>());
+        Customer customer = new Customer(customerName, key.getCustomerEmail(), null, new HashMap<>(),
+                new ArrayList<>(), new ArrayList<>());
+        return new Conversation(seller, key.getStore(), customer, disappearing, null);
+    }
+    
+    /**
+     * Returns the email of the other {@link User} in the {@link Conversation}
+     *
+     * @return the email
+     */
+    public String getCounterpartyEmail() {
+        return (withSeller ? key.getSellerEmail() : key.getCustomerEmail());
+    }
+    
+    /**
+     * Returns the name of the other {@link User} in the {@link Conversation}
+     *
+     * @return the name
+     */
+    public String getCounterpartyName() {
+        return (withSeller ? sellerName : customerName);
+    }
+    
+    /**
+     * Returns the store the {@link Conversation} is through
+     *
+     * @return the store (may be null)
+     */
+    public String getStore() {
+        return key.getStore();
+    }
+    
+    /**
+     * Returns the number of {@link Message}s in the {@link Conversation}
+     *
+     * @return the number of {@link Message}s
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+    
+    /**
+     * Returns when the last {@link Message} in the {@link Conversation} was sent
+     *
+     * @return the time sent, or 0 if there are no {@link Message}s
+     */
+    public long getLastMessageTime() {
+        return lastMessageTime;
+    }
+    
+    /**
+     * Returns whether the {@link Conversation} is disappearing
+     *
+     * @return whether the {@link Conversation} is disappearing
+     */
+    boolean isDisappearing() {
+        return disappearing;
+    }
+    
+    /**
+     * Returns the name of the {@link Seller}
+     *
+     * @return the name
+     */
+    String getSellerName() {
+        return sellerName;
+    }
+    
+    /**
+     * Returns the name of the {@link Customer}
+     *
+     * @return the name
+     */
+    String getCustomerName() {
+        return customerName;
+    }
+    
+    /**
+     * Returns whether the other {@link User} is the {@link Seller}
+     *
+     * @return whether the {@link Conversation} is with a {@link Seller}
+     */
+    boolean isWithSeller() {
+        return withSeller;
+    }
+    
+}
@@ -0,0 +1,358 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ConversationView}<br />
+ * A {@link Conversation} as one of its {@link User}s sees it: without the {@link Message}s hidden from them, and with
+ * the phrases they blocked replaced as {@link Message#getMessageContentFiltered(User)} would. Worked out on the
+ * server before anything is sent, so hidden {@link Message}s never leave it and clients show what they are given.
+ * Each {@link User}'s blocked phrases are compiled once and reused until they change, rather than on every
+ * {@link Message}, and the pages most recently viewed are kept until their {@link Conversation} next changes (as told
+ * by its {@link MessageChangeLog} stamp) or their viewer's blocked phrases do
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class ConversationView {
+    /**
+     * The most {@link Message}s looked at for one page; a page of a {@link Conversation} hiding most of its
+     * {@link Message}s from the viewer may come back short, and the next page carries on where it stopped
+     */
+    public static final int MAX_SCANNED_PER_PAGE;
+    /**
+     * The most pages kept
+     */
+    private static final int MAX_CACHED_PAGES;
+    /**
+     * Each {@link User}'s compiled blocked phrases, by email
+     */
+    private static final ConcurrentHashMap<String, PhraseFilter> FILTERS;
+    /**
+     * The pages most recently viewed, least recently used first; guarded by itself
+     */
+    private static final LinkedHashMap<PageKey, CachedPage> PAGES;
+    
+    ///// METRICS /////
+    private static final AtomicLong pageHits;
+    private static final AtomicLong pageMisses;
+    
+    static {
+        MAX_SCANNED_PER_PAGE = 10 * MessagePage.MAX_PAGE_SIZE;
+        MAX_CACHED_PAGES = 1024;
+        FILTERS = new ConcurrentHashMap<>();
+        PAGES = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageKey, CachedPage> eldest) {
+                return size() > MAX_CACHED_PAGES;
+            }
+        };
+        pageHits = new AtomicLong();
+        pageMisses = new AtomicLong();
+    }
+    
+    /**
+     * Blank constructor
+     */
+    private ConversationView() {
+    }
+    
+    /**
+     * Returns whether a {@link User} can see a {@link Message}: they must have sent it or been sent it, and not have
+     * had it hidden from them
+     *
+     * @param m      the {@link Message}
+     * @param viewer the {@link User}
+     * @return whether the {@link User} can see the {@link Message}
+     */
+    public static boolean canView(Message m, User viewer) {
+        return (m.getReceiverEmail().equals(viewer.getEmail()) && m.canReceiverView())
+                || (m.getSenderEmail().equals(viewer.getEmail()) && m.canSenderView());
+    }
+    
+    /**
+     * Returns a {@link Message} as a {@link User} sees it
+     *
+     * @param m      the {@link Message}
+     * @param viewer the {@link User}
+     * @return a copy of the {@link Message}, without its parent and with the {@link User}'s blocked phrases replaced,
+     * or null if they can't see it
+     */
+    public static Message project(Message m, User viewer) {
+        return (canView(m, viewer) ? project(m, filterFor(viewer)) : null);
+    }
+    
+    /**
+     * Returns the {@link Message}s a {@link User} sees of those given
+     *
+     * @param messages the {@link Message}s
+     * @param viewer   the {@link User}
+     * @return copies of the {@link Message}s the {@link User} can see, in the same order, without their parent and
+     * with the {@link User}'s blocked phrases replaced
+     */
+    public static ArrayList<Message> project(List<Message> messages, User viewer) {
+        PhraseFilter filter = filterFor(viewer);
+        ArrayList<Message> visible = new ArrayList<>();
+        for (Message m : messages) {
+            if (canView(m, viewer)) {
+                visible.add(project(m, filter));
+            }
+        }
+        return visible;
+    }
+    
+    /**
+     * Returns a {@link Message} with the given phrases replaced
+     *
+     * @param m      the {@link Message}
+     * @param filter the compiled phrases
+     * @return a copy of the {@link Message}, without its parent
+     */
+    private static Message project(Message m, PhraseFilter filter) {
+        Message copy = new Message(m.getSenderEmail(), m.getReceiverEmail(), m.canSenderView(), m.canReceiverView(),
+                filter.apply(m.getMessageContent()), m.getTimeSent());
+        copy.setId(m.getId());
+        return copy;
+    }
+    
+    /**
+     * Returns a page of a {@link Conversation} as a {@link User} sees it (see
+     * {@link Conversation#page(long, boolean, int)}): up to size of the {@link Message}s they can see before (or
+     * after) the anchor. The page spans the {@link Message}s looked at, hidden ones included, so its cursors carry on
+     * from where it stopped
+     *
+     * @param c        the {@link Conversation}
+     * @param viewer   the {@link User}, as the server knows them
+     * @param anchorId the id of the {@link Message} the page is next to, or 0 to start from the end
+     * @param after    whether the page holds the {@link Message}s after the anchor rather than those before it
+     * @param size     the most {@link Message}s on the page
+     * @return the page, or null if there is no {@link Message} with the id
+     */
+    public static MessagePage page(Conversation c, User viewer, long anchorId, boolean after, int size) {
+        PhraseFilter filter = filterFor(viewer);
+        // Taken first, so a change made while the page is worked out leaves it already out of date
+        long stamp = MessageChangeLog.latestStamp(c);
+        PageKey key = new PageKey(ConversationKey.of(c), viewer.getEmail(), anchorId, after, size);
+        synchronized (PAGES) {
+            CachedPage cached = PAGES.get(key);
+            if (cached != null && cached.stamp == stamp && cached.filter == filter) {
+                pageHits.incrementAndGet();
+                return cached.page;
+            }
+        }
+        pageMisses.incrementAndGet();
+        
+        ArrayDeque<Message> visible = new ArrayDeque<>();
+        int total = 0;
+        int nearIndex = -1;
+        int farIndex = -1;
+        long nearId = 0;
+        long farId = 0;
+        int scanned = 0;
+        long anchor = anchorId;
+        boolean exhausted = false;
+        while (!exhausted && visible.size() < size && scanned < MAX_SCANNED_PER_PAGE) {
+            MessagePage chunk = c.page(anchor, after, size);
+            if (chunk == null) {
+                if (nearIndex == -1) {
+                    return null;
+                }
+                // The Message reached was removed in the meantime
+                break;
+            }
+            total = chunk.getTotal();
+            ArrayList<Message> messages = chunk.getMessages();
+            exhausted = (after ? !chunk.hasLater() : !chunk.hasEarlier());
+            for (int i = 0; i < messages.size() && visible.size() < size; i++) {
+                // Away from the anchor: forwards after it, backwards before it
+                int position = (after ? i : messages.size() - 1 - i);
+                Message m = messages.get(position);
+                if (nearIndex == -1) {
+                    nearIndex = chunk.getOffset() + position;
+                    nearId = m.getId();
+                }
+                farIndex = chunk.getOffset() + position;
+                farId = m.getId();
+                scanned++;
+                if (canView(m, viewer)) {
+                    Message projected = project(m, filter);
+                    if (after) {
+                        visible.addLast(projected);
+                    } else {
+                        visible.addFirst(projected);
+                    }
+                }
+            }
+            if (messages.isEmpty()) {
+                break;
+            }
+            anchor = farId;
+        }
+        
+        MessagePage page;
+        if (nearIndex == -1) {
+            // Nothing that side of the anchor
+            page = new MessagePage(ConversationKey.of(c), new ArrayList<>(), (after ? total : 0), 0, total, 0, 0);
+        } else if (after) {
+            page = new MessagePage(ConversationKey.of(c), new ArrayList<>(visible), nearIndex,
+                    farIndex - nearIndex + 1, total, nearId, farId);
+        } else {
+            page = new MessagePage(ConversationKey.of(c), new ArrayList<>(visible), farIndex,
+                    nearIndex - farIndex + 1, total, farId, nearId);
+        }
+        synchronized (PAGES) {
+            PAGES.put(key, new CachedPage(stamp, filter, page));
+        }
+        return page;
+    }
+    
+    /**
+     * Returns a {@link User}'s compiled blocked phrases, compiling them again if they changed
+     *
+     * @param viewer the {@link User}
+     * @return the compiled phrases
+     */
+    private static PhraseFilter filterFor(User viewer) {
+        HashMap<String, String> phrases = viewer.getBlockedPhrases();
+        PhraseFilter filter = FILTERS.get(viewer.getEmail());
+        if (phrases == null) {
+            if (filter != null && filter.phrases.isEmpty()) {
+                return filter;
+            }
+            filter = new PhraseFilter(new HashMap<>());
+        } else {
+            // Handlers change the User's phrases while synchronized on them
+            synchronized (phrases) {
+                if (filter != null && filter.phrases.equals(phrases)) {
+                    return filter;
+                }
+                filter = new PhraseFilter(phrases);
+            }
+        }
+        FILTERS.put(viewer.getEmail(), filter);
+        return filter;
+    }
+    
+    /**
+     * Returns the number of pages served from the cache
+     *
+     * @return the number of cache hits
+     */
+    public static long getPageHits() {
+        return pageHits.get();
+    }
+    
+    /**
+     * Returns the number of pages worked out afresh
+     *
+     * @return the number of cache misses
+     */
+    public static long getPageMisses() {
+        return pageMisses.get();
+    }
+    
+    /**
+     * A {@link User}'s blocked phrases, compiled
+     */
+    private static final class PhraseFilter {
+        /**
+         * A copy of the phrases compiled, to tell when they change
+         */
+        final HashMap<String, String> phrases;
+        private final Pattern[] patterns;
+        private final String[] replacements;
+        
+        /**
+         * Compiles some phrases; the caller must hold their lock
+         *
+         * @param phrases the phrases and their replacements
+         */
+        PhraseFilter(HashMap<String, String> phrases) {
+            this.phrases = new HashMap<>(phrases);
+            this.patterns = new Pattern[phrases.size()];
+            this.replacements = new String[phrases.size()];
+            int i = 0;
+            // In the order the User's own map gives them, as getMessageContentFiltered applies them
+            for (Map.Entry<String, String> entry : phrases.entrySet()) {
+                patterns[i] = Pattern.compile(entry.getKey());
+                replacements[i] = entry.getValue();
+                i++;
+            }
+        }
+        
+        /**
+         * Replaces the phrases in some content
+         *
+         * @param content the content
+         * @return the content with the phrases replaced
+         */
+        String apply(String content) {
+            String out = content;
+            for (int i = 0; i < patterns.length; i++) {
+                out = patterns[i].matcher(out).replaceAll(replacements[i]);
+            }
+            return out;
+        }
+        
+    }
+    
+    /**
+     * What a page was asked for with
+     */
+    private static final class PageKey {
+        private final ConversationKey conversation;
+        private final String viewerEmail;
+        private final long anchorId;
+        private final boolean after;
+        private final int size;
+        private final int hash;
+        
+        PageKey(ConversationKey conversation, String viewerEmail, long anchorId, boolean after, int size) {
+            this.conversation = conversation;
+            this.viewerEmail = viewerEmail;
+            this.anchorId = anchorId;
+            this.after = after;
+            this.size = size;
+            this.hash = Objects.hash(conversation, viewerEmail, anchorId, after, size);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PageKey that = (PageKey) o;
+            return anchorId == that.anchorId && after == that.after && size == that.size
+                    && conversation.equals(that.conversation) && viewerEmail.equals(that.viewerEmail);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+    }
+    
+    /**
+     * A page kept, with what it was worked out from
+     */
+    private static final class CachedPage {
+        final long stamp;
+        final PhraseFilter filter;
+        final MessagePage page;
+        
+        CachedPage(long stamp, PhraseFilter filter, MessagePage page) {
+            this.stamp = stamp;
+            this.filter = filter;
+            this.page = page;
+        }
+        
+    }
+    
+}
@@ -11,10 +11,27 @@ public final class Customer extends User {
     
     public Customer(String name, String email, String password) throws IllegalArgumentException {
         super(name, email, password);
+        reserve();
     }
     
     public Customer(String name, String email, String password, HashMap<String, String> blockedPhrases) {
         super(name, email, password, blockedPhrases);
+        reserve();
+    }
+    
+    /**
+     * Constructor for a copy of a Customer received from the server; not added to the registry of users
+     *
+     * @param name           name
+     * @param email          email
+     * @param passwordHash   the hashed password, or null if it was not sent
+     * @param blockedPhrases blockedPhrases
+     * @param blockedEmails  the emails of the blocked users
+     * @param invisToEmails  the emails of the users this customer is invisible to
+     */
+    Customer(String name, String email, String passwordHash, HashMap<String, String> blockedPhrases,
+             ArrayList<String> blockedEmails, ArrayList<String> invisToEmails) {
+        super(name, email, passwordHash, blockedPhrases, blockedEmails, invisToEmails);
     }
     
     /**
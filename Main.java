@@ -7,6 +7,7 @@ import java.net.ConnectException;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * {@link Main}<br />
@@ -16,6 +17,15 @@ import java.util.Arrays;
  * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
  */
 public class Main {
+    /**
+     * The number of {@link Message}s fetched at a time when viewing a {@link Conversation}
+     */
+    private static final int HISTORY_PAGE_SIZE;
+    
+    static {
+        HISTORY_PAGE_SIZE = 50;
+    }
+    
     /**
      * Main method. Hosts a message client through a GUI.
      *
@@ -107,9 +117,13 @@ public class Main {
                     JOptionPane.showMessageDialog(null, "Incorrect password!");
                     continue;
                 }
-                // check if user exists
-                if (client.userExists(email)) {
-                    user = client.getUser(email);
+                // check if user exists, fetching the user in the same round trip
+                Client.Batch signIn = client.batch();
+                CompletableFuture<Boolean> exists = signIn.userExists(email);
+                CompletableFuture<User> found = signIn.getUser(email);
+                signIn.send();
+                if (exists.join()) {
+                    user = found.join();
                     if (user.signIn(password)) {
                         // Check if the user is Customer or Seller
                         if (user instanceof Customer) {
@@ -305,7 +319,7 @@ public class Main {
                 } else if (storeString.contains(store)) {
                     try {
                         Conversation conversation = client.getConversationBetweenUsersWithStore(customer, seller, store);
-                        if (client.getSellerFromStoreName(store).getBlockedEmails().contains(customer.getEmail())) {
+                        if (seller.getBlockedEmails().contains(customer.getEmail())) {
                             JOptionPane.showMessageDialog(null,
                                     "Cannot send message," + seller.getEmail() + " has blocked you.",
                                     "Error Sending Message", JOptionPane.ERROR_MESSAGE);
@@ -351,10 +365,11 @@ public class Main {
                 String emailToBlock = JOptionPane.showInputDialog(null,
                         "Please enter the email of the user you would like to block: ", "Email Prompt",
                         JOptionPane.QUESTION_MESSAGE);
+                User toBlock = (emailToBlock == null ? null : client.getUser(emailToBlock));
                 if (emailToBlock == null) {
                     JOptionPane.showMessageDialog(null, "No email selected.");
-                } else if (client.getUser(emailToBlock) != null) {
-                    client.userBlocksUser(user, client.getUser(emailToBlock));
+                } else if (toBlock != null) {
+                    client.userBlocksUser(user, toBlock);
                     JOptionPane.showMessageDialog(null, "Operation Complete", "Operation Status",
                             JOptionPane.PLAIN_MESSAGE);
                 } else {
@@ -365,10 +380,11 @@ public class Main {
                 String emailToVanishFrom = JOptionPane.showInputDialog(null,
                         "Please enter the email of the user you would like to become invisible to:", "Email Prompt",
                         JOptionPane.QUESTION_MESSAGE);
+                User toVanishFrom = (emailToVanishFrom == null ? null : client.getUser(emailToVanishFrom));
                 if (emailToVanishFrom == null) {
                     JOptionPane.showMessageDialog(null, "No email selected.");
-                } else if (client.getUser(emailToVanishFrom) != null) {
-                    client.userInvisibleToUser(user, client.getUser(emailToVanishFrom));
+                } else if (toVanishFrom != null) {
+                    client.userInvisibleToUser(user, toVanishFrom);
                     JOptionPane.showMessageDialog(null, "Operation complete");
                 } else {
                     JOptionPane.showMessageDialog(null, "Not a valid user!");
@@ -494,9 +510,13 @@ public class Main {
                         "Please select a customer to message (enter their email):" +
                                 System.lineSeparator() + customerList);
                 if (customerEmail != null && customerList.contains(customerEmail) && !customerEmail.equals("")) {
-                    Customer customer = (Customer) client.getUser(customerEmail);
+                    Client.Batch users = client.batch();
+                    CompletableFuture<User> customerReply = users.getUser(customerEmail);
+                    CompletableFuture<User> sellerReply = users.getUser(seller.getEmail());
+                    users.send();
+                    Customer customer = (Customer) customerReply.join();
                     
-                    seller = (Seller) client.getUser(seller.getEmail());
+                    seller = (Seller) sellerReply.join();
                     
                     String[] stores = seller.getStoreNames().toArray(new String[0]);
                     int storeChoice = JOptionPane.showOptionDialog(null,
@@ -548,10 +568,11 @@ public class Main {
                 String emailToBlock = JOptionPane.showInputDialog(null,
                         "Please enter the email of the user you would like to block:" +
                                 System.lineSeparator() + customerList);
+                User toBlock = (emailToBlock == null ? null : client.getUser(emailToBlock));
                 if (emailToBlock == null) {
                     JOptionPane.showMessageDialog(null, "No email selected.");
-                } else if (client.getUser(emailToBlock) != null) {
-                    client.userBlocksUser(user, client.getUser(emailToBlock));
+                } else if (toBlock != null) {
+                    client.userBlocksUser(user, toBlock);
                     JOptionPane.showMessageDialog(null, "Operation complete.");
                 } else {
                     JOptionPane.showMessageDialog(null, "Not a valid user.");
@@ -560,10 +581,11 @@ public class Main {
                 String emailToVanishFrom = JOptionPane.showInputDialog(null,
                         "Please enter the email of the user you would like to become invisible to:" +
                                 System.lineSeparator() + customerList);
+                User toVanishFrom = (emailToVanishFrom == null ? null : client.getUser(emailToVanishFrom));
                 if (emailToVanishFrom == null) {
                     JOptionPane.showMessageDialog(null, "No email selected.");
-                } else if (client.getUser(emailToVanishFrom) != null) {
-                    client.userInvisibleToUser(user, client.getUser(emailToVanishFrom));
+                } else if (toVanishFrom != null) {
+                    client.userInvisibleToUser(user, toVanishFrom);
                     JOptionPane.showMessageDialog(null, "Operation complete.");
                 } else {
                     JOptionPane.showMessageDialog(null, "Not a valid user.");
@@ -620,30 +642,33 @@ public class Main {
      * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
      */
     private static void viewConversations(Client client, User user) throws ClassNotFoundException, IOException {
-        ArrayList<Conversation> conversations = client.getConversationsWithUser(user);
+        // Only the inbox; the chosen Conversation's Messages are fetched a page at a time
+        ArrayList<ConversationSummary> summaries = client.getConversationSummaries(user);
         ArrayList<String> customerConversations = new ArrayList<>();
         ArrayList<String> sellerConversations = new ArrayList<>();
-        if (conversations.size() > 0) {
-            for (Conversation c : conversations) {
-                String store = c.getStore();
+        if (summaries.size() > 0) {
+            for (ConversationSummary summary : summaries) {
+                String store = summary.getStore();
+                String otherName = summary.getCounterpartyName();
+                String otherEmail = summary.getCounterpartyEmail();
+                String count = " - " + summary.getMessageCount() + " messages";
                 if (store != null && !store.equals("unknown store")) {
                     // Through a storefront
                     if (user instanceof Customer) {
                         customerConversations.add("Conversation with store \"" + store
-                                + "\" owned by seller " + c.getSeller().getName() +
-                                " (" + c.getSeller().getEmail() + ")");
+                                + "\" owned by seller " + otherName + " (" + otherEmail + ")" + count);
                     } else if (user instanceof Seller) {
                         sellerConversations.add("Conversation through storefront \"" + store + "\" with customer "
-                                + c.getCustomer().getName() + " (" + c.getCustomer().getEmail() + ")");
+                                + otherName + " (" + otherEmail + ")" + count);
                     }
                 } else {
                     // No store associated; direct message
                     if (user instanceof Customer) {
                         customerConversations.add("Conversation with seller "
-                                + c.getSeller().getName() + " (" + c.getSeller().getEmail() + ")");
+                                + otherName + " (" + otherEmail + ")" + count);
                     } else if (user instanceof Seller) {
                         sellerConversations.add("Conversation with customer "
-                                + c.getCustomer().getName() + " (" + c.getCustomer().getEmail() + ")");
+                                + otherName + " (" + otherEmail + ")" + count);
                     }
                 }
             }
@@ -662,23 +687,36 @@ public class Main {
                 return;
             }
             
-            Conversation c = conversations.get(c_num);
+            ConversationSummary summary = summaries.get(c_num);
+            Conversation c = summary.getConversation();
             
-            ArrayList<Message> messages = c.getMessages();
+            // The Messages shown so far, earliest first; starts with the latest page and grows back on request
+            ArrayList<Message> messages = new ArrayList<>();
             StringBuilder sb = new StringBuilder();
-            for (Message m : messages) {
-                if ((m.getReceiverEmail().equals(user.getEmail()) && m.canReceiverView())
-                        || (m.getSenderEmail().equals(user.getEmail()) && m.canSenderView())) {
-                    User sender = (user.getEmail().equals(m.getSenderEmail()) ? user : c.otherUser(user));
-                    sb.append("[").append(m.getTimeSent()).append("] ").append(sender.getName()).append(" : ").
-                            append(m.getMessageContentFiltered(user)).append(System.lineSeparator());
+            MessagePage page = client.getMessagePage(c, 0, false, HISTORY_PAGE_SIZE, user);
+            while (page != null) {
+                messages.addAll(0, page.getMessages());
+                sb = new StringBuilder();
+                // Already only those the user can see, filtered for them by the server
+                for (Message m : messages) {
+                    String senderName = (user.getEmail().equals(m.getSenderEmail()) ? user.getName()
+                            : summary.getCounterpartyName());
+                    sb.append("[").append(m.getTimeSent()).append("] ").append(senderName).append(" : ").
+                            append(m.getMessageContent()).append(System.lineSeparator());
                 }
-            }
-            
-            if (sb.length() == 0) {
-                JOptionPane.showMessageDialog(null, "No messages to show.");
-            } else {
-                JOptionPane.showMessageDialog(null, sb.toString());
+                
+                if (!page.hasEarlier()) {
+                    JOptionPane.showMessageDialog(null, (sb.length() == 0 ? "No messages to show." : sb.toString()));
+                    break;
+                }
+                String[] pageOptions = {"Earlier messages", "OK"};
+                int pageChoice = JOptionPane.showOptionDialog(null, (sb.length() == 0 ? "No recent messages to show."
+                                : sb.toString()), "Conversation", JOptionPane.DEFAULT_OPTION,
+                        JOptionPane.PLAIN_MESSAGE, null, pageOptions, pageOptions[1]);
+                if (pageChoice != 0) {
+                    break;
+                }
+                page = client.getMessagePage(c, page.getEarliestId(), false, HISTORY_PAGE_SIZE, user);
             }
             
             String[] yesNo = {"Yes", "No"};
@@ -697,11 +735,13 @@ public class Main {
                     actionOptions, actionOptions[0]);
             if (messageAction.equalsIgnoreCase("reply")) {
                 String message = JOptionPane.showInputDialog(null, "Please type your message below:");
-                if (c.otherUser(user).getBlockedEmails().contains(user.getEmail())) {
+                // The summary only names the other user, so ask whether they blocked this one
+                User other = client.getUser(summary.getCounterpartyEmail());
+                if (other != null && other.getBlockedEmails().contains(user.getEmail())) {
                     JOptionPane.showMessageDialog(null, "Cannot reply, user has blocked you!");
                 } else {
                     client.addMessageToConversation(c, client.createMessage(
-                            user.getEmail(), c.otherUser(user).getEmail(), true, true, message,
+                            user.getEmail(), summary.getCounterpartyEmail(), true, true, message,
                             System.currentTimeMillis(), c));
                     JOptionPane.showMessageDialog(null, "Reply sent!");
                 }
@@ -774,34 +814,37 @@ public class Main {
      * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
      */
     private static void doSaveConversation(Client client, User user) throws IOException, ClassNotFoundException {
-        ArrayList<Conversation> conversations = client.getConversationsWithUser(user);
+        // Only the inbox; the chosen Conversation is put together as CSV by the server
+        ArrayList<ConversationSummary> summaries = client.getConversationSummaries(user);
         ArrayList<String> customerConversations = new ArrayList<>();
         ArrayList<String> sellerConversations = new ArrayList<>();
         
-        if (conversations.size() == 0) {
+        if (summaries.size() == 0) {
             JOptionPane.showMessageDialog(null, "No conversations to save!");
             return;
         }
         
-        for (Conversation c : conversations) {
-            String store = c.getStore();
+        for (ConversationSummary summary : summaries) {
+            String store = summary.getStore();
+            String otherName = summary.getCounterpartyName();
+            String otherEmail = summary.getCounterpartyEmail();
             if (store != null && !store.equals("unknown store")) {
                 // Through a storefront
                 if (user instanceof Customer) {
                     customerConversations.add("Conversation with store \"" + store
-                            + "\" owned by seller " + c.getSeller().getName() + " (" + c.getSeller().getEmail() + ")");
+                            + "\" owned by seller " + otherName + " (" + otherEmail + ")");
                 } else if (user instanceof Seller) {
                     sellerConversations.add("Conversation through storefront \"" + store + "\" with customer "
-                            + c.getCustomer().getName() + " (" + c.getCustomer().getEmail() + ")");
+                            + otherName + " (" + otherEmail + ")");
                 }
             } else {
                 // No store associated; direct message
                 if (user instanceof Customer) {
                     customerConversations.add("Conversation with seller "
-                            + c.getSeller().getName() + " (" + c.getSeller().getEmail() + ")");
+                            + otherName + " (" + otherEmail + ")");
                 } else if (user instanceof Seller) {
                     sellerConversations.add("Conversation with customer "
-                            + c.getCustomer().getName() + " (" + c.getCustomer().getEmail() + ")");
+                            + otherName + " (" + otherEmail + ")");
                 }
             }
         }
@@ -826,7 +869,12 @@ public class Main {
             JOptionPane.showMessageDialog(null, "No file selected");
             return;
         }
-        conversations.get(c_num).saveToCSVFile(filename, user);
+        String csv = client.getConversationCSV(summaries.get(c_num).getConversation(), user);
+        if (csv == null) {
+            JOptionPane.showMessageDialog(null, "Conversation no longer exists.");
+            return;
+        }
+        Conversation.writeCSVFile(filename, csv);
         
         JOptionPane.showMessageDialog(null, "Success!");
     }
@@ -1,5 +1,9 @@
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * {@link MainListOfConversations}<br />
@@ -9,10 +13,37 @@ import java.util.Objects;
  * @version 12/12/2022
  */
 public final class MainListOfConversations {
+    /**
+     * The default number of {@link Conversation}s whose {@link Message}s are kept in memory
+     */
+    public static final int DEFAULT_MAX_RESIDENT_BODIES;
     private static final ArrayList<Conversation> mainListOfConversations;
+    /**
+     * The first registered {@link Conversation} for each seller, customer and store
+     */
+    private static final ConcurrentHashMap<ConversationKey, Conversation> index;
+    /**
+     * The first registered {@link Conversation} for each seller and customer, whatever its store
+     */
+    private static final ConcurrentHashMap<ConversationKey, Conversation> pairIndex;
+    /**
+     * Each user's {@link Conversation}s (keyed by email), in the order they were registered
+     */
+    private static final ConcurrentHashMap<String, CopyOnWriteArrayList<Conversation>> conversationsByUser;
+    /**
+     * The {@link Conversation}s whose {@link Message}s are in memory, least recently used first
+     */
+    private static final LinkedHashMap<Long, Conversation> residentBodies;
+    private static volatile int maxResidentBodies;
     
     static {
+        DEFAULT_MAX_RESIDENT_BODIES = 1024;
         mainListOfConversations = new ArrayList<>();
+        index = new ConcurrentHashMap<>();
+        pairIndex = new ConcurrentHashMap<>();
+        conversationsByUser = new ConcurrentHashMap<>();
+        residentBodies = new LinkedHashMap<>(16, 0.75f, true);
+        maxResidentBodies = DEFAULT_MAX_RESIDENT_BODIES;
     }
     
     /**
@@ -28,6 +59,18 @@ public final class MainListOfConversations {
         return mainListOfConversations;
     }
     
+    /**
+     * Returns a copy of the list of all conversations, taken under its lock so it can be walked while others are
+     * added
+     *
+     * @return the copy
+     */
+    public static ArrayList<Conversation> snapshotMainListOfConversations() {
+        synchronized (mainListOfConversations) {
+            return new ArrayList<>(mainListOfConversations);
+        }
+    }
+    
     /**
      * Returns a list of Conversations associated with the given User
      *
@@ -35,28 +78,150 @@ public final class MainListOfConversations {
      * @return a list of Conversations associated with the given User
      */
     public static ArrayList<Conversation> getConversationsWithUser(User user) {
+        if (!(user instanceof Customer) && !(user instanceof Seller)) {
+            return new ArrayList<>();
+        }
         ArrayList<Conversation> arrayListToReturn = new ArrayList<>();
-        for (int i = 0; i < getMainListOfConversations().size(); i++) {
-            if (user instanceof Customer) {
-                if (getMainListOfConversations().get(i).getCustomer().equals(user)) {
-                    arrayListToReturn.add(mainListOfConversations.get(i));
-                }
-            } else if (user instanceof Seller) {
-                if (getMainListOfConversations().get(i).getSeller().equals(user)) {
-                    arrayListToReturn.add(mainListOfConversations.get(i));
-                }
+        CopyOnWriteArrayList<Conversation> conversations = conversationsByUser.get(user.getEmail());
+        if (conversations == null) {
+            return arrayListToReturn;
+        }
+        for (Conversation c : conversations) {
+            if ((user instanceof Customer ? c.getCustomer() : c.getSeller()).equals(user)) {
+                arrayListToReturn.add(c);
             }
         }
         return arrayListToReturn;
     }
     
+    /**
+     * Adds a {@link Conversation} to both of its participants' lists. Must hold the mainListOfConversations lock
+     *
+     * @param c the {@link Conversation}
+     */
+    private static void addToUsers(Conversation c) {
+        conversationsByUser.computeIfAbsent(c.getSeller().getEmail(), email -> new CopyOnWriteArrayList<>()).add(c);
+        conversationsByUser.computeIfAbsent(c.getCustomer().getEmail(), email -> new CopyOnWriteArrayList<>()).add(c);
+    }
+    
+    /**
+     * Removes a {@link Conversation} from both of its participants' lists. Must hold the mainListOfConversations lock
+     *
+     * @param c the {@link Conversation}
+     */
+    private static void removeFromUsers(Conversation c) {
+        for (String email : new String[]{c.getSeller().getEmail(), c.getCustomer().getEmail()}) {
+            CopyOnWriteArrayList<Conversation> conversations = conversationsByUser.get(email);
+            if (conversations != null) {
+                conversations.removeIf(other -> other == c);
+                if (conversations.isEmpty()) {
+                    conversationsByUser.remove(email, conversations);
+                }
+            }
+        }
+    }
+    
     /**
      * Adds a new conversation to the list of all conversations
      */
     @Deprecated
     public static void addConversation(Conversation c) {
-        if (!mainListOfConversations.contains(c)) {
+        synchronized (mainListOfConversations) {
+            if (getConversation(c) == null) {
+                register(c);
+            }
+        }
+    }
+    
+    /**
+     * Adds a newly constructed {@link Conversation} to the list of all conversations and the lookup indexes
+     *
+     * @param c the {@link Conversation} to add
+     * @return the {@link Conversation} already registered with the same seller, customer and store, or null if there
+     * was none
+     */
+    static Conversation register(Conversation c) {
+        synchronized (mainListOfConversations) {
             mainListOfConversations.add(c);
+            addToUsers(c);
+            pairIndex.putIfAbsent(ConversationKey.pairOf(c), c);
+            return index.putIfAbsent(ConversationKey.of(c), c);
+        }
+    }
+    
+    /**
+     * Returns the {@link Conversation} registered with the given seller, customer and store
+     *
+     * @param key the seller, customer and store
+     * @return the {@link Conversation}, or null if there is none
+     */
+    public static Conversation getConversation(ConversationKey key) {
+        return index.get(key);
+    }
+    
+    /**
+     * Moves a {@link Conversation} whose store changed to its new key
+     *
+     * @param c        the {@link Conversation}
+     * @param oldStore its previous store
+     */
+    static void reindex(Conversation c, String oldStore) {
+        synchronized (mainListOfConversations) {
+            index.remove(new ConversationKey(c.getSeller().getEmail(), c.getCustomer().getEmail(), oldStore), c);
+            index.putIfAbsent(ConversationKey.of(c), c);
+        }
+    }
+    
+    /**
+     * Adds every given {@link Conversation} to the list of all conversations at once. Used by the loader, which
+     * builds its {@link Conversation}s on several threads without registering them
+     *
+     * @param loaded the loaded {@link Conversation}s
+     */
+    static void addLoadedConversations(Collection<Conversation> loaded) {
+        synchronized (mainListOfConversations) {
+            mainListOfConversations.ensureCapacity(mainListOfConversations.size() + loaded.size());
+            mainListOfConversations.addAll(loaded);
+            for (Conversation c : loaded) {
+                addToUsers(c);
+                pairIndex.putIfAbsent(ConversationKey.pairOf(c), c);
+                index.putIfAbsent(ConversationKey.of(c), c);
+            }
+        }
+    }
+    
+    /**
+     * Sets how many {@link Conversation}s may keep their {@link Message}s in memory at once. {@link Conversation}s
+     * with unsaved changes are never evicted, so this is a target rather than a hard limit
+     *
+     * @param max the number of {@link Conversation} bodies to keep in memory
+     */
+    public static void setMaxResidentBodies(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("At least one conversation must be kept in memory");
+        }
+        maxResidentBodies = max;
+    }
+    
+    /**
+     * Records that the given {@link Conversation}'s {@link Message}s were just used, evicting the least recently used
+     * saved {@link Conversation} bodies if there are too many in memory
+     *
+     * @param c the {@link Conversation} used
+     */
+    static void touchBody(Conversation c) {
+        synchronized (residentBodies) {
+            residentBodies.put(c.getBodyKey(), c);
+            if (residentBodies.size() <= maxResidentBodies) {
+                return;
+            }
+            Iterator<Conversation> eldest = residentBodies.values().iterator();
+            while (residentBodies.size() > maxResidentBodies && eldest.hasNext()) {
+                Conversation candidate = eldest.next();
+                if (candidate != c && candidate.evictBody()) {
+                    eldest.remove();
+                }
+            }
         }
     }
     
@@ -65,7 +230,20 @@ public final class MainListOfConversations {
      */
     @Deprecated
     private static void removeConversation(Conversation c) {
-        mainListOfConversations.remove(c);
+        synchronized (mainListOfConversations) {
+            mainListOfConversations.remove(c);
+            removeFromUsers(c);
+            index.remove(ConversationKey.of(c), c);
+            if (pairIndex.remove(ConversationKey.pairOf(c), c)) {
+                // Another store's conversation between the same pair takes its place
+                for (Conversation other : getConversationsWithUser(c.getCustomer())) {
+                    if (other.getSeller().equals(c.getSeller()) && other.getCustomer().equals(c.getCustomer())) {
+                        pairIndex.putIfAbsent(ConversationKey.pairOf(other), other);
+                        break;
+                    }
+                }
+            }
+        }
     }
     
     /**
@@ -88,13 +266,7 @@ public final class MainListOfConversations {
             throw new IllegalArgumentException("Conversations can only be between a Seller and a Customer");
         }
         
-        ArrayList<Conversation> conversationsToCheck = getConversationsWithUser(c);
-        for (Conversation convo : conversationsToCheck) {
-            if (convo.getSeller().equals(s)) {
-                return convo;
-            }
-        }
-        return null;
+        return pairIndex.get(new ConversationKey(s.getEmail(), c.getEmail(), null));
     }
     
     /**
@@ -119,15 +291,7 @@ public final class MainListOfConversations {
                     "(passed " + user1.getEmail() + ", " + user2.getEmail() + ")");
         }
         
-        ArrayList<Conversation> conversationsToCheck = getConversationsWithUser(c);
-        for (Conversation convo : conversationsToCheck) {
-            if (convo.getSeller().equals(s)) {
-                if (Objects.equals(store, convo.getStore())) {
-                    return convo;
-                }
-            }
-        }
-        return null;
+        return index.get(new ConversationKey(s.getEmail(), c.getEmail(), store));
     }
     
     /**
@@ -137,12 +301,11 @@ public final class MainListOfConversations {
      * @return the stored "official" {@link Conversation}
      */
     static Conversation getConversation(Conversation toFind) {
-        for (Conversation c : mainListOfConversations) {
-            if (c.equals(toFind)) {
-                return c;
-            }
+        if (toFind == null) {
+            return null;
         }
-        return null;
+        Conversation c = index.get(ConversationKey.of(toFind));
+        return (c != null && c.equals(toFind) ? c : null);
     }
     
 }
@@ -16,6 +16,10 @@ public class Message implements Serializable {
     private boolean canReceiverView;
     private String messageContent;
     private long timeSent;
+    /**
+     * Assigned by the server (see {@link MessageIdGenerator}); 0 until then
+     */
+    private long id;
     private Conversation parent;
     
     /**
@@ -145,6 +149,7 @@ public class Message implements Serializable {
      */
     public void setCanSenderView(boolean canSenderView) {
         this.canSenderView = canSenderView;
+        markParentDirty();
     }
     
     /**
@@ -163,6 +168,7 @@ public class Message implements Serializable {
      */
     public void setCanReceiverView(boolean canReceiverView) {
         this.canReceiverView = canReceiverView;
+        markParentDirty();
     }
     
     /**
@@ -182,6 +188,16 @@ public class Message implements Serializable {
      */
     protected void setMessageContent(String messageContent) {
         this.messageContent = messageContent;
+        markParentDirty();
+    }
+    
+    /**
+     * Marks the parent {@link Conversation} (if any) as needing to be rewritten when next saved
+     */
+    private void markParentDirty() {
+        if (parent != null) {
+            parent.markDirty(this);
+        }
     }
     
     /**
@@ -203,6 +219,24 @@ public class Message implements Serializable {
         this.timeSent = timeSent;
     }
     
+    /**
+     * Returns this message's id, which identifies it within its {@link Conversation}
+     *
+     * @return this message's id, or 0 if it has not been assigned one yet
+     */
+    public long getId() {
+        return id;
+    }
+    
+    /**
+     * Sets this message's id
+     *
+     * @param id the id to set
+     */
+    protected void setId(long id) {
+        this.id = id;
+    }
+    
     /**
      * Returns the message content replacing words blocked by the given User with their replacements
      *
@@ -0,0 +1,149 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link MessageChangeLog}<br />
+ * Remembers which {@link Message}s were added or edited during this run of the server, so a client can be sent only
+ * what changed since it last synced (see {@link ConversationDelta}). Every change is stamped with a fresh
+ * {@link MessageIdGenerator} id, so stamps only ever increase and a client's cursor is simply the stamp taken just
+ * before it last read. Changes are kept per {@link Conversation} (its seller, customer and store, as cursors are), so
+ * a busy {@link Conversation} never pushes out another's, and only the latest few hundred of each are kept; a client
+ * further behind than that gets the {@link Conversation} whole. Nothing is saved: a cursor from an earlier run is
+ * recognised by its run id and answered in full
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class MessageChangeLog {
+    /**
+     * Identifies this run; cursors carrying another run's id are ignored
+     */
+    public static final long RUN_ID;
+    /**
+     * The most changes kept for one {@link Conversation}
+     */
+    private static final int MAX_CHANGES_PER_CONVERSATION;
+    private static final ConcurrentHashMap<ConversationKey, Changes> CHANGES;
+    
+    static {
+        RUN_ID = ThreadLocalRandom.current().nextLong();
+        MAX_CHANGES_PER_CONVERSATION = 512;
+        CHANGES = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Blank constructor
+     */
+    private MessageChangeLog() {
+    }
+    
+    /**
+     * Returns a stamp later than every change recorded so far. Taken before reading {@link Conversation}s, so any
+     * change the read might have missed is stamped later
+     *
+     * @return the stamp
+     */
+    public static long stamp() {
+        return MessageIdGenerator.nextId();
+    }
+    
+    /**
+     * Records that a {@link Message} of a {@link Conversation} was added or edited. Called once the change is made
+     *
+     * @param c         the {@link Conversation}
+     * @param messageId the {@link Message}'s id
+     */
+    static void record(Conversation c, long messageId) {
+        CHANGES.computeIfAbsent(ConversationKey.of(c), key -> new Changes()).add(messageId);
+    }
+    
+    /**
+     * Returns the ids of a {@link Conversation}'s {@link Message}s changed after the given stamp
+     *
+     * @param c    the {@link Conversation}
+     * @param mark a stamp from this run
+     * @return the ids, newest change first, or null if changes that old are no longer known
+     */
+    static Set<Long> changedSince(Conversation c, long mark) {
+        Changes changes = CHANGES.get(ConversationKey.of(c));
+        return (changes == null ? new LinkedHashSet<>() : changes.since(mark));
+    }
+    
+    /**
+     * Returns the stamp of the latest change to a {@link Conversation}'s {@link Message}s this run, which differs
+     * whenever anything derived from them may have changed
+     *
+     * @param c the {@link Conversation}
+     * @return the stamp, or Long.MIN_VALUE if nothing has changed this run
+     */
+    static long latestStamp(Conversation c) {
+        Changes changes = CHANGES.get(ConversationKey.of(c));
+        return (changes == null ? Long.MIN_VALUE : changes.latest());
+    }
+    
+    /**
+     * The latest changes of one {@link Conversation}, oldest first
+     */
+    private static final class Changes {
+        private final ArrayDeque<long[]> entries;
+        /**
+         * The stamp of the latest change dropped; changes up to it are no longer known
+         */
+        private long forgottenUpTo;
+        
+        Changes() {
+            this.entries = new ArrayDeque<>();
+            this.forgottenUpTo = Long.MIN_VALUE;
+        }
+        
+        /**
+         * Records a change, stamping it while holding the lock so the entries stay in stamp order
+         *
+         * @param messageId the changed {@link Message}'s id
+         */
+        synchronized void add(long messageId) {
+            if (entries.size() == MAX_CHANGES_PER_CONVERSATION) {
+                forgottenUpTo = entries.poll()[0];
+            }
+            entries.add(new long[]{stamp(), messageId});
+        }
+        
+        /**
+         * Returns the stamp of the latest change
+         *
+         * @return the stamp
+         */
+        synchronized long latest() {
+            long[] newest = entries.peekLast();
+            return (newest == null ? forgottenUpTo : newest[0]);
+        }
+        
+        /**
+         * Returns the ids of the {@link Message}s changed after the given stamp
+         *
+         * @param mark the stamp
+         * @return the ids, newest change first, or null if changes that old have been dropped
+         */
+        synchronized Set<Long> since(long mark) {
+            if (mark < forgottenUpTo) {
+                return null;
+            }
+            Set<Long> ids = new LinkedHashSet<>();
+            Iterator<long[]> newestFirst = entries.descendingIterator();
+            while (newestFirst.hasNext()) {
+                long[] entry = newestFirst.next();
+                if (entry[0] <= mark) {
+                    break;
+                }
+                ids.add(entry[1]);
+            }
+            return ids;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,68 @@
+import java.io.Serializable;
+
+/**
+ * {@link MessageEvent}<br />
+ * Tells a subscribed {@link Client} that a {@link Message} was added to one of its {@link User}'s
+ * {@link Conversation}s (see {@link MessageSubscriptions}). Usually the event carries the new {@link Message}, without
+ * its parent; if the client fell too far behind, the server instead sends one event per {@link Conversation} with
+ * only the number of {@link Message}s it left out, and the client should sync that {@link Conversation} again
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class MessageEvent implements Serializable {
+    private final ConversationKey conversation;
+    private final Message message;
+    private final int missed;
+    
+    /**
+     * A {@link MessageEvent} constructor
+     *
+     * @param conversation the key of the {@link Conversation}
+     * @param message      the new {@link Message} without its parent, or null if it was left out
+     * @param missed       the number of {@link Message}s left out (0 if message is given)
+     */
+    MessageEvent(ConversationKey conversation, Message message, int missed) {
+        this.conversation = conversation;
+        this.message = message;
+        this.missed = missed;
+    }
+    
+    /**
+     * Returns the key of the {@link Conversation} the {@link Message} was added to
+     *
+     * @return the key
+     */
+    public ConversationKey getConversation() {
+        return conversation;
+    }
+    
+    /**
+     * Returns the new {@link Message}
+     *
+     * @return the {@link Message} without its parent, or null if this event only counts missed {@link Message}s
+     */
+    public Message getMessage() {
+        return message;
+    }
+    
+    /**
+     * Returns the number of {@link Message}s added to the {@link Conversation} but left out of the events sent
+     *
+     * @return the number of missed {@link Message}s; if positive, the {@link Conversation} should be synced again
+     */
+    public int getMissed() {
+        return missed;
+    }
+    
+    /**
+     * Returns a {@link String} representation of this event
+     *
+     * @return a {@link String} representation of this event
+     */
+    @Override
+    public String toString() {
+        return conversation + (message == null ? " missed " + missed : " " + message.getMessageContent());
+    }
+    
+}
@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MessageIdGenerator}<br />
+ * Hands out the ids of {@link Message}s. An id is the milliseconds since {@link #EPOCH} followed by the id of the
+ * server which made it and a sequence number within the millisecond, so ids sort by the time they were handed out and
+ * ids made by different servers never clash. Ids are handed out without locking; if a millisecond's sequence numbers
+ * run out (or the clock goes backwards) the next id simply borrows from the following millisecond, so ids only ever
+ * increase.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class MessageIdGenerator {
+    /**
+     * The time ids count from (2022-12-12T00:00:00Z)
+     */
+    public static final long EPOCH;
+    /**
+     * The largest server id
+     */
+    public static final int MAX_NODE_ID;
+    private static final int NODE_BITS;
+    private static final int SEQUENCE_BITS;
+    private static final long SEQUENCE_MASK;
+    /**
+     * The last id handed out (or seen in saved data)
+     */
+    private static final AtomicLong last;
+    private static volatile long nodeId;
+    
+    static {
+        EPOCH = 1670803200000L;
+        NODE_BITS = 10;
+        SEQUENCE_BITS = 12;
+        MAX_NODE_ID = (1 << NODE_BITS) - 1;
+        SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+        last = new AtomicLong();
+        nodeId = 0;
+    }
+    
+    /**
+     * Blank constructor
+     */
+    private MessageIdGenerator() {
+    }
+    
+    /**
+     * Sets the id of this server, which is part of every id it hands out
+     *
+     * @param id the server id, from 0 to {@link #MAX_NODE_ID}
+     */
+    public static void setNodeId(int id) {
+        if (id < 0 || id > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID);
+        }
+        nodeId = id;
+    }
+    
+    /**
+     * Returns a new id, larger than every id handed out (or seen) before
+     *
+     * @return the id
+     */
+    public static long nextId() {
+        while (true) {
+            long previous = last.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long previousTime = previous >>> (NODE_BITS + SEQUENCE_BITS);
+            long next;
+            if (now > previousTime) {
+                next = (now << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS);
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = previous + 1;
+            } else {
+                next = ((previousTime + 1) << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS);
+            }
+            if (last.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+    
+    /**
+     * Records an id read from saved data, so that later ids are larger even if the clock has gone backwards since
+     *
+     * @param id the saved id
+     */
+    public static void observe(long id) {
+        long previous = last.get();
+        while (id > previous && !last.compareAndSet(previous, id)) {
+            previous = last.get();
+        }
+    }
+    
+}
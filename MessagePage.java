@@ -0,0 +1,151 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * {@link MessagePage}<br />
+ * Some of a {@link Conversation}'s {@link Message}s, next to each other in the order they were added, so a long
+ * {@link Conversation} can be read a page at a time instead of sent whole. The {@link Message}s come without their
+ * parent. A page spans a run of the {@link Conversation}'s {@link Message}s, though one seen through a
+ * {@link ConversationView} leaves out those hidden from its viewer; the ids of the first and last {@link Message}
+ * spanned are the cursors for the pages either side
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class MessagePage implements Serializable {
+    /**
+     * The most {@link Message}s the server puts on one page
+     */
+    public static final int MAX_PAGE_SIZE;
+    
+    static {
+        MAX_PAGE_SIZE = 1000;
+    }
+    
+    private final ConversationKey conversation;
+    private final ArrayList<Message> messages;
+    private final int offset;
+    private final int span;
+    private final int total;
+    private final long earliestId;
+    private final long latestId;
+    
+    /**
+     * A {@link MessagePage} constructor for a page holding every {@link Message} it spans
+     *
+     * @param conversation the key of the {@link Conversation}
+     * @param messages     the {@link Message}s, without their parent
+     * @param offset       the index of the first {@link Message} in the {@link Conversation}
+     * @param total        the number of {@link Message}s in the {@link Conversation}
+     */
+    MessagePage(ConversationKey conversation, ArrayList<Message> messages, int offset, int total) {
+        this(conversation, messages, offset, messages.size(), total,
+                (messages.isEmpty() ? 0 : messages.get(0).getId()),
+                (messages.isEmpty() ? 0 : messages.get(messages.size() - 1).getId()));
+    }
+    
+    /**
+     * A {@link MessagePage} constructor for a page which may leave out some of the {@link Message}s it spans, as a
+     * {@link ConversationView} does
+     *
+     * @param conversation the key of the {@link Conversation}
+     * @param messages     the {@link Message}s, without their parent
+     * @param offset       the index in the {@link Conversation} of the first {@link Message} spanned
+     * @param span         the number of {@link Message}s spanned, including those left out
+     * @param total        the number of {@link Message}s in the {@link Conversation}
+     * @param earliestId   the id of the first {@link Message} spanned, or 0 if none are
+     * @param latestId     the id of the last {@link Message} spanned, or 0 if none are
+     */
+    MessagePage(ConversationKey conversation, ArrayList<Message> messages, int offset, int span, int total,
+                long earliestId, long latestId) {
+        this.conversation = conversation;
+        this.messages = messages;
+        this.offset = offset;
+        this.span = span;
+        this.total = total;
+        this.earliestId = earliestId;
+        this.latestId = latestId;
+    }
+    
+    /**
+     * Returns the key of the {@link Conversation}
+     *
+     * @return the key
+     */
+    public ConversationKey getConversation() {
+        return conversation;
+    }
+    
+    /**
+     * Returns the {@link Message}s on this page, earliest added first
+     *
+     * @return the {@link Message}s, without their parent
+     */
+    public ArrayList<Message> getMessages() {
+        return messages;
+    }
+    
+    /**
+     * Returns the index in the {@link Conversation} of the first {@link Message} this page spans
+     *
+     * @return the index
+     */
+    public int getOffset() {
+        return offset;
+    }
+    
+    /**
+     * Returns the number of the {@link Conversation}'s {@link Message}s this page spans, counting any left out
+     *
+     * @return the number of {@link Message}s spanned
+     */
+    public int getSpan() {
+        return span;
+    }
+    
+    /**
+     * Returns the number of {@link Message}s in the whole {@link Conversation}
+     *
+     * @return the number of {@link Message}s
+     */
+    public int getTotal() {
+        return total;
+    }
+    
+    /**
+     * Returns whether there are {@link Message}s before this page
+     *
+     * @return whether there is an earlier page
+     */
+    public boolean hasEarlier() {
+        return offset > 0;
+    }
+    
+    /**
+     * Returns whether there are {@link Message}s after this page
+     *
+     * @return whether there is a later page
+     */
+    public boolean hasLater() {
+        return offset + span < total;
+    }
+    
+    /**
+     * Returns the cursor for the page before this one: the id of the first {@link Message} this page spans
+     *
+     * @return the id, or 0 if this page spans none
+     */
+    public long getEarliestId() {
+        return earliestId;
+    }
+    
+    /**
+     * Returns the cursor for the page after this one: the id of the last {@link Message} this page spans
+     *
+     * @return the id, or 0 if this page spans none
+     */
+    public long getLatestId() {
+        return latestId;
+    }
+    
+}
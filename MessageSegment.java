@@ -0,0 +1,751 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link MessageSegment}<br />
+ * The save file holding a {@link Conversation}'s {@link Message}s, accessed through a memory mapping. The file is a
+ * header, then a fixed-size entry per {@link Message}, then a content region holding the UTF-8 {@link Message}
+ * contents. An entry holds the {@link Message}'s timestamp and id, which never change, and two versions of the rest
+ * (sender and visibility flags, content offset and length), each with a sequence number and a CRC32C of the entry's
+ * fixed part, itself and its content. An edit writes the version not in use, with the next sequence number, so a
+ * crash part way through leaves the previous version intact; edited contents are appended to the content region.
+ * When the entries run out of room the segment is rewritten with twice the room, dropping any content no longer
+ * referenced. The header records how many entries had been forced to disk as of the last {@link #force()}; the first
+ * time a segment is used, entries after those which fail their check (torn by a crash) are dropped, while any earlier
+ * entry with no intact version is kept and reported, for the {@link WriteAheadLog} to repair.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class MessageSegment {
+    /**
+     * The current version of the segment format
+     */
+    public static final byte VERSION = 1;
+    private static final int MAGIC = 0x434D5347; // "CMSG"
+    
+    // Header: magic, version, (padding), capacity, count, content length, durable count, (reserved)
+    private static final int HEADER_SIZE = 32;
+    private static final int VERSION_POSITION = 4;
+    private static final int CAPACITY_POSITION = 8;
+    private static final int COUNT_POSITION = 12;
+    private static final int CONTENT_LENGTH_POSITION = 16;
+    private static final int DURABLE_COUNT_POSITION = 24;
+    
+    // Entry: timeSent, id, then two versions
+    private static final int ENTRY_SIZE = 56;
+    private static final int TIME_SENT_OFFSET = 0;
+    private static final int ID_OFFSET = 8;
+    private static final int FIXED_SIZE = 16;
+    // Version: flags, content offset, content length, sequence, CRC32C of the fixed part, the rest of the version and
+    // the content
+    private static final int VERSION_SIZE = 20;
+    private static final int FLAGS_OFFSET = 0;
+    private static final int CONTENT_OFFSET_OFFSET = 4;
+    private static final int CONTENT_LENGTH_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 12;
+    private static final int CHECKSUM_OFFSET = 16;
+    
+    private static final int FROM_CUSTOMER = 1;
+    private static final int CAN_SENDER_VIEW = 1 << 1;
+    private static final int CAN_RECEIVER_VIEW = 1 << 2;
+    
+    private static final int MIN_CAPACITY = 16;
+    private static final int MIN_MAPPING = 4096;
+    
+    private final File file;
+    /**
+     * Null until first used and after {@link #release()}
+     */
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private long contentLength;
+    /**
+     * The number of entries forced to disk, as recorded in the header
+     */
+    private int durableCount;
+    /**
+     * Which entries' second version is the one in use; worked out when the checksums are checked
+     */
+    private final BitSet secondVersion;
+    /**
+     * Whether every entry's checksum has been checked since the file was mapped
+     */
+    private boolean verified;
+    /**
+     * Whether the entries' timestamps never decrease, so they can be binary searched; checked with the checksums
+     */
+    private boolean sorted;
+    /**
+     * Whether the entries' ids only increase, so they can be binary searched
+     */
+    private boolean idsSorted;
+    
+    /**
+     * A {@link MessageSegment} constructor
+     *
+     * @param file the segment file
+     */
+    private MessageSegment(File file) {
+        this.file = file;
+        this.secondVersion = new BitSet();
+    }
+    
+    /**
+     * Opens an existing segment file
+     *
+     * @param file the segment file
+     * @return the {@link MessageSegment}
+     * @throws IOException if the file could not be read or is not a segment
+     */
+    public static MessageSegment open(File file) throws IOException {
+        MessageSegment segment = new MessageSegment(file);
+        synchronized (segment) {
+            segment.mapExisting();
+        }
+        return segment;
+    }
+    
+    /**
+     * Writes a new segment file containing the given {@link Message}s, replacing any file already there
+     *
+     * @param file     the segment file
+     * @param c        the {@link Conversation} the {@link Message}s belong to
+     * @param messages the {@link Message}s to write
+     * @return the {@link MessageSegment}
+     * @throws IOException if the file could not be written
+     */
+    public static MessageSegment create(File file, Conversation c, List<Message> messages) throws IOException {
+        MessageSegment segment = new MessageSegment(file);
+        synchronized (segment) {
+            segment.writeFresh(c, messages, Math.max(MIN_CAPACITY, messages.size() * 2));
+        }
+        return segment;
+    }
+    
+    /**
+     * Returns the segment file
+     *
+     * @return the segment file
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Returns the number of {@link Message}s in this segment
+     *
+     * @return the number of {@link Message}s
+     * @throws IOException if the file could not be read
+     */
+    public synchronized int size() throws IOException {
+        ensureMapped();
+        return count;
+    }
+    
+    /**
+     * Finds a {@link Message} by its timestamp without reading any {@link Message} contents
+     *
+     * @param timeSent the timestamp to look for
+     * @return the index of the last {@link Message} with the timestamp, or -1 if there is none
+     * @throws IOException if the file could not be read
+     */
+    public synchronized int indexOf(long timeSent) throws IOException {
+        ensureMapped();
+        return find(TIME_SENT_OFFSET, timeSent, sorted);
+    }
+    
+    /**
+     * Finds a {@link Message} by its id without reading any {@link Message} contents
+     *
+     * @param id the id to look for
+     * @return the index of the {@link Message} with the id, or -1 if there is none
+     * @throws IOException if the file could not be read
+     */
+    public synchronized int indexOfId(long id) throws IOException {
+        ensureMapped();
+        return find(ID_OFFSET, id, idsSorted);
+    }
+    
+    /**
+     * Returns the index of the last entry whose field at the given offset holds the given value
+     *
+     * @param fieldOffset the offset of the field within an entry
+     * @param value       the value to look for
+     * @param ascending   whether the field never decreases from one entry to the next
+     * @return the index, or -1 if there is none
+     */
+    private int find(int fieldOffset, long value, boolean ascending) {
+        if (ascending) {
+            // Find the first entry after the value; the one before it is the last candidate
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (buffer.getLong(entryPosition(mid) + fieldOffset) <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return (low > 0 && buffer.getLong(entryPosition(low - 1) + fieldOffset) == value ? low - 1 : -1);
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            if (buffer.getLong(entryPosition(i) + fieldOffset) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Reads a single {@link Message}
+     *
+     * @param index the index of the {@link Message}
+     * @param c     the {@link Conversation} the {@link Message} belongs to; set as its parent
+     * @return the {@link Message}
+     * @throws IOException if the file could not be read
+     */
+    public synchronized Message read(int index, Conversation c) throws IOException {
+        ensureMapped();
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + count + " messages");
+        }
+        return readEntry(index, c.getSeller().getEmail(), c.getCustomer().getEmail(), c);
+    }
+    
+    /**
+     * Reads every {@link Message}, in the order they were appended
+     *
+     * @param c the {@link Conversation} the {@link Message}s belong to; set as their parent
+     * @return the {@link Message}s
+     * @throws IOException if the file could not be read
+     */
+    public synchronized ArrayList<Message> readAll(Conversation c) throws IOException {
+        ensureMapped();
+        String sellerEmail = c.getSeller().getEmail();
+        String customerEmail = c.getCustomer().getEmail();
+        ArrayList<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(readEntry(i, sellerEmail, customerEmail, c));
+        }
+        return messages;
+    }
+    
+    /**
+     * Appends a {@link Message}
+     *
+     * @param m the {@link Message} to append
+     * @param c the {@link Conversation} it belongs to
+     * @return the number of bytes written
+     * @throws IOException if the file could not be written
+     */
+    public synchronized long append(Message m, Conversation c) throws IOException {
+        ensureMapped();
+        if (count == capacity) {
+            // Out of entries; rewrite with more room (and without any dead content)
+            ArrayList<Message> messages = readAll(c);
+            messages.add(m);
+            writeFresh(c, messages, capacity * 2);
+            return contentStart() + contentLength;
+        }
+        
+        byte[] content = m.getMessageContent().getBytes(StandardCharsets.UTF_8);
+        long contentOffset = appendContent(content);
+        int position = entryPosition(count);
+        if (m.getId() == 0) {
+            m.setId(MessageIdGenerator.nextId());
+        }
+        sorted = sorted && (count == 0 || timeSentAt(count - 1) <= m.getTimeSent());
+        idsSorted = idsSorted && (count == 0 || idAt(count - 1) < m.getId());
+        buffer.putLong(position + TIME_SENT_OFFSET, m.getTimeSent());
+        buffer.putLong(position + ID_OFFSET, m.getId());
+        writeVersion(count, 0, flagsOf(m, c), (int) contentOffset, content.length, 0);
+        invalidateVersion(count, 1);
+        secondVersion.clear(count);
+        // The count is written last so that a half-written entry is never read
+        count++;
+        buffer.putInt(COUNT_POSITION, count);
+        return ENTRY_SIZE + content.length;
+    }
+    
+    /**
+     * Writes the current state of an already appended {@link Message} as a new version of its entry, in place of the
+     * version before the one in use; if its content changed, the new content is appended and the version pointed at
+     * it. Until the new version is complete the one in use stays intact, so a crash never loses the {@link Message}
+     *
+     * @param index the index of the {@link Message}
+     * @param m     the {@link Message}
+     * @param c     the {@link Conversation} it belongs to
+     * @return the number of bytes written
+     * @throws IOException if the file could not be written
+     */
+    public synchronized long update(int index, Message m, Conversation c) throws IOException {
+        ensureMapped();
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + count + " messages");
+        }
+        int current = versionPosition(index, currentVersion(index));
+        int offset = buffer.getInt(current + CONTENT_OFFSET_OFFSET);
+        int length = buffer.getInt(current + CONTENT_LENGTH_OFFSET);
+        long written = VERSION_SIZE;
+        
+        if (!readContent(index).equals(m.getMessageContent())) {
+            byte[] content = m.getMessageContent().getBytes(StandardCharsets.UTF_8);
+            offset = (int) appendContent(content);
+            length = content.length;
+            written += content.length;
+        }
+        int next = 1 - currentVersion(index);
+        writeVersion(index, next, flagsOf(m, c), offset, length, buffer.getInt(current + SEQUENCE_OFFSET) + 1);
+        secondVersion.set(index, next == 1);
+        return written;
+    }
+    
+    /**
+     * Forces every change made so far to disk, then records that every entry now in the segment is on disk
+     */
+    public synchronized void force() {
+        if (buffer != null) {
+            buffer.force();
+            if (durableCount != count) {
+                durableCount = count;
+                buffer.putInt(DURABLE_COUNT_POSITION, durableCount);
+                buffer.force(0, HEADER_SIZE);
+            }
+        }
+    }
+    
+    /**
+     * Drops the memory mapping; it is re-created the next time this segment is used
+     */
+    public synchronized void release() {
+        buffer = null;
+    }
+    
+    /**
+     * Re-maps the file if {@link #release()} was called
+     *
+     * @throws IOException if the file could not be mapped
+     */
+    private void ensureMapped() throws IOException {
+        if (buffer == null) {
+            mapExisting();
+        }
+        if (!verified) {
+            verify();
+        }
+    }
+    
+    /**
+     * Checks every entry's checksums and picks the version of each to use: the intact one, or the later if both are.
+     * Entries at the end with no intact version which were appended after the last {@link #force()} are left over from
+     * a write cut short by a crash, so they are dropped (the {@link WriteAheadLog} still holds them). Any other entry
+     * with no intact version was already on disk, so it is kept and reported; replaying the {@link WriteAheadLog}
+     * writes it again if it was edited since
+     */
+    private void verify() {
+        secondVersion.clear();
+        boolean[] damaged = new boolean[count];
+        long contentEnd = contentLength;
+        for (int i = 0; i < count; i++) {
+            boolean first = isIntact(i, 0);
+            boolean second = isIntact(i, 1);
+            damaged[i] = !first && !second;
+            // Sequence numbers compared by difference, so they may wrap
+            boolean secondLater = sequenceAt(i, 1) - sequenceAt(i, 0) > 0;
+            // The intact version, or the later if both (or, as a best guess, neither) are
+            secondVersion.set(i, first == second ? secondLater : second);
+            if (!damaged[i]) {
+                int position = versionPosition(i, currentVersion(i));
+                contentEnd = Math.max(contentEnd, (long) buffer.getInt(position + CONTENT_OFFSET_OFFSET)
+                        + buffer.getInt(position + CONTENT_LENGTH_OFFSET));
+            }
+        }
+        int intact = count;
+        while (intact > durableCount && damaged[intact - 1]) {
+            intact--;
+        }
+        boolean repaired = false;
+        if (intact < count) {
+            System.err.printf("%s: dropped %d torn message(s) from the end%n", file, count - intact);
+            count = intact;
+            buffer.putInt(COUNT_POSITION, count);
+            repaired = true;
+        }
+        if (contentEnd > contentLength) {
+            // Content of an intact version reached the disk but the header's new length did not; keep appends off it
+            contentLength = contentEnd;
+            buffer.putLong(CONTENT_LENGTH_POSITION, contentLength);
+            repaired = true;
+        }
+        if (repaired) {
+            buffer.force();
+        }
+        for (int i = 0; i < count; i++) {
+            if (damaged[i]) {
+                System.err.printf("%s: message %d is damaged%n", file, i);
+            }
+        }
+        sorted = true;
+        idsSorted = true;
+        for (int i = 1; i < count; i++) {
+            sorted = sorted && timeSentAt(i - 1) <= timeSentAt(i);
+            idsSorted = idsSorted && idAt(i - 1) < idAt(i);
+        }
+        verified = true;
+    }
+    
+    /**
+     * Returns the timestamp of the entry at the given index
+     */
+    private long timeSentAt(int index) {
+        return buffer.getLong(entryPosition(index) + TIME_SENT_OFFSET);
+    }
+    
+    /**
+     * Returns the id of the entry at the given index
+     */
+    private long idAt(int index) {
+        return buffer.getLong(entryPosition(index) + ID_OFFSET);
+    }
+    
+    /**
+     * Returns the sequence number of one version of the entry at the given index
+     */
+    private int sequenceAt(int index, int version) {
+        return buffer.getInt(versionPosition(index, version) + SEQUENCE_OFFSET);
+    }
+    
+    /**
+     * Returns which version of the entry at the given index is in use
+     */
+    private int currentVersion(int index) {
+        return (secondVersion.get(index) ? 1 : 0);
+    }
+    
+    /**
+     * Returns whether one version of the entry at the given index (with the entry's fixed part and the version's
+     * content) matches its checksum
+     */
+    private boolean isIntact(int index, int version) {
+        int position = versionPosition(index, version);
+        int offset = buffer.getInt(position + CONTENT_OFFSET_OFFSET);
+        int length = buffer.getInt(position + CONTENT_LENGTH_OFFSET);
+        if (offset < 0 || length < 0 || contentStart() + offset + length > buffer.capacity()) {
+            return false;
+        }
+        return buffer.getInt(position + CHECKSUM_OFFSET) == checksum(index, version);
+    }
+    
+    /**
+     * Computes the CRC32C of the fixed part of the entry at the given index, one of its versions (excluding the
+     * checksum itself) and that version's content
+     */
+    private int checksum(int index, int version) {
+        int entryPosition = entryPosition(index);
+        int position = versionPosition(index, version);
+        CRC32C crc = new CRC32C();
+        ByteBuffer fixed = buffer.duplicate();
+        fixed.position(entryPosition).limit(entryPosition + FIXED_SIZE);
+        crc.update(fixed);
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(position).limit(position + CHECKSUM_OFFSET);
+        crc.update(entry);
+        ByteBuffer content = buffer.duplicate();
+        int contentPosition = (int) contentStart() + buffer.getInt(position + CONTENT_OFFSET_OFFSET);
+        content.position(contentPosition).limit(contentPosition + buffer.getInt(position + CONTENT_LENGTH_OFFSET));
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Writes one version of the entry at the given index, checksum last
+     */
+    private void writeVersion(int index, int version, int flags, int contentOffset, int contentLength, int sequence) {
+        int position = versionPosition(index, version);
+        buffer.putInt(position + FLAGS_OFFSET, flags);
+        buffer.putInt(position + CONTENT_OFFSET_OFFSET, contentOffset);
+        buffer.putInt(position + CONTENT_LENGTH_OFFSET, contentLength);
+        buffer.putInt(position + SEQUENCE_OFFSET, sequence);
+        buffer.putInt(position + CHECKSUM_OFFSET, checksum(index, version));
+    }
+    
+    /**
+     * Clears one version of the entry at the given index, with a checksum it can never match
+     */
+    private void invalidateVersion(int index, int version) {
+        int position = versionPosition(index, version);
+        buffer.putInt(position + FLAGS_OFFSET, 0);
+        buffer.putInt(position + CONTENT_OFFSET_OFFSET, 0);
+        buffer.putInt(position + CONTENT_LENGTH_OFFSET, 0);
+        buffer.putInt(position + SEQUENCE_OFFSET, 0);
+        buffer.putInt(position + CHECKSUM_OFFSET, ~checksum(index, version));
+    }
+    
+    /**
+     * Maps the existing file and reads its header
+     *
+     * @throws IOException if the file could not be mapped or is not a segment
+     */
+    private void mapExisting() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file + " is not a recognised segment file");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            channel.close();
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            buffer = null;
+            throw new IOException(file + " is not a recognised segment file");
+        }
+        byte version = buffer.get(VERSION_POSITION);
+        if (version != VERSION) {
+            buffer = null;
+            throw new IOException(file + " has an unsupported version (" + version + ")");
+        }
+        capacity = buffer.getInt(CAPACITY_POSITION);
+        count = buffer.getInt(COUNT_POSITION);
+        contentLength = buffer.getLong(CONTENT_LENGTH_POSITION);
+        durableCount = buffer.getInt(DURABLE_COUNT_POSITION);
+        verified = false;
+        if (capacity < 0 || count < 0 || count > capacity || durableCount < 0 || durableCount > count
+                || contentLength < 0
+                || contentStart() + contentLength > buffer.capacity()) {
+            buffer = null;
+            throw new IOException(file + " has a corrupt header");
+        }
+    }
+    
+    /**
+     * Replaces the file with one containing only the given {@link Message}s. {@link Message}s without an id are given
+     * one
+     *
+     * @param c           the {@link Conversation} the {@link Message}s belong to
+     * @param messages    the {@link Message}s to write
+     * @param newCapacity the number of entries to make room for
+     * @throws IOException if the file could not be written
+     */
+    private void writeFresh(Conversation c, List<Message> messages, int newCapacity) throws IOException {
+        int n = messages.size();
+        long[] timesSent = new long[n];
+        int[] flags = new int[n];
+        long[] ids = new long[n];
+        byte[][] contents = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            Message m = messages.get(i);
+            if (m.getId() == 0) {
+                m.setId(MessageIdGenerator.nextId());
+            }
+            timesSent[i] = m.getTimeSent();
+            flags[i] = flagsOf(m, c);
+            ids[i] = m.getId();
+            contents[i] = m.getMessageContent().getBytes(StandardCharsets.UTF_8);
+        }
+        writeEntries(timesSent, flags, ids, contents, newCapacity);
+    }
+    
+    /**
+     * Replaces the file with one containing only the given entries, in the current format
+     *
+     * @param timesSent   each entry's timestamp
+     * @param flags       each entry's flags
+     * @param ids         each entry's id
+     * @param contents    each entry's content
+     * @param newCapacity the number of entries to make room for
+     * @throws IOException if the file could not be written
+     */
+    private void writeEntries(long[] timesSent, int[] flags, long[] ids, byte[][] contents, int newCapacity)
+            throws IOException {
+        long totalContent = 0;
+        for (byte[] content : contents) {
+            totalContent += content.length;
+        }
+        
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        // Written beside the file then moved over it, so a crash leaves either the old or the new segment
+        File temp = new File(file.getPath() + ".tmp");
+        long start = HEADER_SIZE + (long) newCapacity * ENTRY_SIZE;
+        if (start + totalContent > Integer.MAX_VALUE) {
+            throw new IOException(file + " is full");
+        }
+        MappedByteBuffer fresh;
+        FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            fresh = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappingSize(start + totalContent));
+        } finally {
+            channel.close();
+        }
+        
+        buffer = fresh;
+        capacity = newCapacity;
+        count = contents.length;
+        contentLength = totalContent;
+        // Forced before it replaces the file, so every entry is on disk once it does
+        durableCount = count;
+        secondVersion.clear();
+        buffer.putInt(0, MAGIC);
+        buffer.put(VERSION_POSITION, VERSION);
+        buffer.putInt(CAPACITY_POSITION, capacity);
+        buffer.putLong(CONTENT_LENGTH_POSITION, contentLength);
+        
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) start);
+        int contentOffset = 0;
+        sorted = true;
+        idsSorted = true;
+        for (int i = 0; i < contents.length; i++) {
+            sorted = sorted && (i == 0 || timesSent[i - 1] <= timesSent[i]);
+            idsSorted = idsSorted && (i == 0 || ids[i - 1] < ids[i]);
+            view.put(contents[i]);
+            int position = entryPosition(i);
+            buffer.putLong(position + TIME_SENT_OFFSET, timesSent[i]);
+            buffer.putLong(position + ID_OFFSET, ids[i]);
+            writeVersion(i, 0, flags[i], contentOffset, contents[i].length, 0);
+            invalidateVersion(i, 1);
+            contentOffset += contents[i].length;
+        }
+        buffer.putInt(COUNT_POSITION, count);
+        buffer.putInt(DURABLE_COUNT_POSITION, durableCount);
+        buffer.force();
+        
+        try {
+            BinarySnapshot.replaceAtomically(temp, file);
+        } catch (IOException ioe) {
+            // Still mapping the temporary file; re-map the real one when next used
+            buffer = null;
+            throw ioe;
+        }
+        verified = true;
+    }
+    
+    /**
+     * Appends content to the content region, growing the mapping if needed
+     *
+     * @param content the bytes to append
+     * @return the offset of the content within the content region
+     * @throws IOException if the mapping could not be grown
+     */
+    private long appendContent(byte[] content) throws IOException {
+        long offset = contentLength;
+        long end = contentStart() + offset + content.length;
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException(file + " is full");
+        }
+        if (end > buffer.capacity()) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappingSize(end));
+            } finally {
+                channel.close();
+            }
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) (contentStart() + offset));
+        view.put(content);
+        contentLength = offset + content.length;
+        buffer.putLong(CONTENT_LENGTH_POSITION, contentLength);
+        return offset;
+    }
+    
+    /**
+     * Reads the entry at the given index
+     */
+    private Message readEntry(int index, String sellerEmail, String customerEmail, Conversation c) {
+        int position = entryPosition(index);
+        long timeSent = buffer.getLong(position + TIME_SENT_OFFSET);
+        int flags = buffer.getInt(versionPosition(index, currentVersion(index)) + FLAGS_OFFSET);
+        boolean fromCustomer = (flags & FROM_CUSTOMER) != 0;
+        Message m = new Message(fromCustomer ? customerEmail : sellerEmail, fromCustomer ? sellerEmail : customerEmail,
+                (flags & CAN_SENDER_VIEW) != 0, (flags & CAN_RECEIVER_VIEW) != 0, readContent(index), timeSent);
+        m.setId(buffer.getLong(position + ID_OFFSET));
+        m.setParent(c);
+        return m;
+    }
+    
+    /**
+     * Reads the content of the entry at the given index
+     */
+    private String readContent(int index) {
+        int position = versionPosition(index, currentVersion(index));
+        int offset = buffer.getInt(position + CONTENT_OFFSET_OFFSET);
+        int length = buffer.getInt(position + CONTENT_LENGTH_OFFSET);
+        if (offset < 0 || length < 0 || contentStart() + offset + length > buffer.capacity()) {
+            // Damaged entry (see verify()); its content can't be found
+            return "";
+        }
+        byte[] content = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) contentStart() + offset);
+        view.get(content);
+        return new String(content, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Returns the flags stored for a {@link Message}
+     */
+    private static int flagsOf(Message m, Conversation c) {
+        int flags = 0;
+        if (c.getCustomer().getEmail().equals(m.getSenderEmail())) {
+            flags |= FROM_CUSTOMER;
+        }
+        if (m.canSenderView()) {
+            flags |= CAN_SENDER_VIEW;
+        }
+        if (m.canReceiverView()) {
+            flags |= CAN_RECEIVER_VIEW;
+        }
+        return flags;
+    }
+    
+    /**
+     * Returns the position of the entry at the given index
+     */
+    private int entryPosition(int index) {
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+    
+    /**
+     * Returns the position of one version of the entry at the given index
+     */
+    private int versionPosition(int index, int version) {
+        return entryPosition(index) + FIXED_SIZE + version * VERSION_SIZE;
+    }
+    
+    /**
+     * Returns the position of the content region
+     */
+    private long contentStart() {
+        return HEADER_SIZE + (long) capacity * ENTRY_SIZE;
+    }
+    
+    /**
+     * Rounds a file size up to the size to map, so that appends rarely have to re-map
+     */
+    private static long mappingSize(long needed) {
+        long size = MIN_MAPPING;
+        while (size < needed) {
+            size *= 2;
+        }
+        return Math.min(size, Integer.MAX_VALUE);
+    }
+    
+}
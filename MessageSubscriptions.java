@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MessageSubscriptions}<br />
+ * The framed clients subscribed to new {@link Message}s in their {@link User}'s {@link Conversation}s, so they are
+ * pushed a {@link MessageEvent} as each is added instead of asking for their {@link Conversation}s again and again.
+ * Each subscriber has its own queue, pushed from a background thread whenever its connection can take another frame,
+ * so a slow client never holds up whoever added the {@link Message}. Events that pile up while a client isn't reading
+ * are sent together in one frame; past {@link #MAX_QUEUED_EVENTS} the rest are only counted, one count per
+ * {@link Conversation}, and sent as a single event telling the client to sync that {@link Conversation} again.
+ * Subscriptions last until the client unsubscribes or disconnects
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class MessageSubscriptions {
+    /**
+     * The most events queued for one subscriber; later ones are only counted until the queue is pushed
+     */
+    public static final int MAX_QUEUED_EVENTS;
+    /**
+     * The subscribers by their {@link User}'s email
+     */
+    private static final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscriber>> SUBSCRIBERS;
+    
+    ///// METRICS /////
+    private static final AtomicLong eventsPushed;
+    private static final AtomicLong eventsMissed;
+    
+    static {
+        MAX_QUEUED_EVENTS = 256;
+        SUBSCRIBERS = new ConcurrentHashMap<>();
+        eventsPushed = new AtomicLong();
+        eventsMissed = new AtomicLong();
+    }
+    
+    /**
+     * Encodes a frame of events in the subscriber's protocol
+     */
+    @FunctionalInterface
+    interface EventEncoder {
+        /**
+         * Encodes events as a frame
+         *
+         * @param events the events
+         * @return the frame
+         * @throws IOException if the events could not be encoded
+         */
+        byte[] encode(ArrayList<MessageEvent> events) throws IOException;
+    }
+    
+    /**
+     * Blank constructor
+     */
+    private MessageSubscriptions() {
+    }
+    
+    /**
+     * Subscribes a connection to new {@link Message}s in a {@link User}'s {@link Conversation}s, replacing any
+     * subscription it already had for them
+     *
+     * @param email         the {@link User}'s email
+     * @param sessionNumber the number of the client's connection
+     * @param sink          pushes frames to the client
+     * @param encoder       encodes the frames
+     */
+    static void subscribe(String email, int sessionNumber, SelectorEngine.FrameSink sink, EventEncoder encoder) {
+        unsubscribe(email, sessionNumber);
+        Subscriber subscriber = new Subscriber(email, sessionNumber, sink, encoder);
+        SUBSCRIBERS.computeIfAbsent(email, key -> new CopyOnWriteArrayList<>()).add(subscriber);
+        // Straight away if it has already closed
+        sink.onClose(() -> remove(subscriber));
+    }
+    
+    /**
+     * Ends a connection's subscription to a {@link User}'s new {@link Message}s
+     *
+     * @param email         the {@link User}'s email
+     * @param sessionNumber the number of the client's connection
+     * @return whether it was subscribed
+     */
+    static boolean unsubscribe(String email, int sessionNumber) {
+        List<Subscriber> subscribers = SUBSCRIBERS.get(email);
+        if (subscribers == null) {
+            return false;
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.sessionNumber == sessionNumber) {
+                return remove(subscriber);
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Removes a subscriber
+     *
+     * @param subscriber the {@link Subscriber}
+     * @return whether it was subscribed
+     */
+    private static boolean remove(Subscriber subscriber) {
+        boolean[] removed = new boolean[1];
+        SUBSCRIBERS.computeIfPresent(subscriber.email, (email, subscribers) -> {
+            removed[0] = subscribers.remove(subscriber);
+            return (subscribers.isEmpty() ? null : subscribers);
+        });
+        return removed[0];
+    }
+    
+    /**
+     * Queues an event for every subscriber of the two {@link User}s of a {@link Conversation} a {@link Message} was
+     * just added to, each with the {@link Message} as that {@link User} sees it (see {@link ConversationView}) and
+     * leaving out whichever of them can't see it. Called once the {@link Message} is added
+     *
+     * @param c the {@link Conversation}
+     * @param m the added {@link Message}
+     */
+    static void publish(Conversation c, Message m) {
+        if (SUBSCRIBERS.isEmpty()) {
+            return;
+        }
+        ConversationKey key = null;
+        for (String email : new String[]{c.getSeller().getEmail(), c.getCustomer().getEmail()}) {
+            List<Subscriber> subscribers = SUBSCRIBERS.get(email);
+            User viewer = (subscribers == null ? null : User.getUser(email));
+            if (viewer == null) {
+                continue;
+            }
+            // Shared by the User's events; nothing changes it once queued
+            Message projected = ConversationView.project(m, viewer);
+            if (projected == null) {
+                continue;
+            }
+            if (key == null) {
+                key = ConversationKey.of(c);
+            }
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(key, projected);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of subscriptions
+     *
+     * @return the number of subscriptions
+     */
+    public static int getSubscriberCount() {
+        int count = 0;
+        for (List<Subscriber> subscribers : SUBSCRIBERS.values()) {
+            count += subscribers.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the number of events pushed, not counting those standing for missed {@link Message}s
+     *
+     * @return the number of events pushed
+     */
+    public static long getEventsPushed() {
+        return eventsPushed.get();
+    }
+    
+    /**
+     * Returns the number of {@link Message}s left out of the events pushed because a subscriber's queue was full
+     *
+     * @return the number of missed {@link Message}s
+     */
+    public static long getEventsMissed() {
+        return eventsMissed.get();
+    }
+    
+    /**
+     * One connection's subscription to one {@link User}'s new {@link Message}s
+     */
+    private static final class Subscriber {
+        final String email;
+        final int sessionNumber;
+        private final SelectorEngine.FrameSink sink;
+        private final EventEncoder encoder;
+        // The rest is guarded by the subscriber itself
+        private final ArrayList<MessageEvent> queued;
+        /**
+         * The number of {@link Message}s left out per {@link Conversation} since the queue was last pushed. Once a
+         * {@link Conversation} is here, its later {@link Message}s are counted too, so the client never sees a
+         * {@link Message} after a gap without being told of the gap
+         */
+        private final LinkedHashMap<ConversationKey, Integer> missed;
+        /**
+         * Whether a push is running or waiting for the connection
+         */
+        private boolean scheduled;
+        
+        Subscriber(String email, int sessionNumber, SelectorEngine.FrameSink sink, EventEncoder encoder) {
+            this.email = email;
+            this.sessionNumber = sessionNumber;
+            this.sink = sink;
+            this.encoder = encoder;
+            this.queued = new ArrayList<>();
+            this.missed = new LinkedHashMap<>();
+        }
+        
+        /**
+         * Queues an event, starting a push unless one is already running or waiting
+         *
+         * @param key the key of the {@link Conversation}
+         * @param m   the new {@link Message}, without its parent
+         */
+        void offer(ConversationKey key, Message m) {
+            synchronized (this) {
+                Integer count = missed.get(key);
+                if (count != null) {
+                    missed.put(key, count + 1);
+                } else if (queued.size() >= MAX_QUEUED_EVENTS) {
+                    missed.put(key, 1);
+                } else {
+                    queued.add(new MessageEvent(key, m, 0));
+                }
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            ForkJoinPool.commonPool().execute(this::push);
+        }
+        
+        /**
+         * Pushes the queued events, a frame at a time, for as long as the connection takes them and more are queued.
+         * If the connection falls behind, stops until it catches up
+         */
+        private void push() {
+            while (sink.isReady(this::push)) {
+                ArrayList<MessageEvent> events;
+                int pushedCount;
+                int missedCount = 0;
+                synchronized (this) {
+                    if (queued.isEmpty() && missed.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    events = new ArrayList<>(queued);
+                    pushedCount = queued.size();
+                    for (Map.Entry<ConversationKey, Integer> entry : missed.entrySet()) {
+                        events.add(new MessageEvent(entry.getKey(), null, entry.getValue()));
+                        missedCount += entry.getValue();
+                    }
+                    queued.clear();
+                    missed.clear();
+                }
+                
+                try {
+                    if (!sink.push(encoder.encode(events))) {
+                        remove(this);
+                        return;
+                    }
+                } catch (IOException ioe) {
+                    System.err.printf("[%d] Error encoding events for client #%1$d%n", sessionNumber);
+                    ioe.printStackTrace();
+                    continue;
+                }
+                eventsPushed.addAndGet(pushedCount);
+                eventsMissed.addAndGet(missedCount);
+            }
+        }
+        
+    }
+    
+}
@@ -13,6 +13,50 @@ public abstract class OpenServer {
      * Default server port
      */
     public static final int SERVER_PORT = 1200;
+    /**
+     * Longest time between checkpoints (snapshot saves) while there are unsaved changes
+     */
+    public static final long CHECKPOINT_INTERVAL_MILLIS = 60_000;
+    /**
+     * Number of logged bytes after which a checkpoint is run early
+     */
+    public static final long CHECKPOINT_MAX_DIRTY_BYTES = 4 * 1024 * 1024;
+    /**
+     * Number of conversations whose messages are kept in memory; the rest are read from disk when needed
+     */
+    public static final int MAX_RESIDENT_CONVERSATIONS = 1024;
+    /**
+     * This server's id, part of every message id it hands out; must differ between servers sharing data
+     */
+    public static final int NODE_ID = 0;
+    /**
+     * How client sessions are run: a virtual thread each (falling back to a pool before Java 21) or a fixed pool
+     */
+    public static final ConnectionExecutor.Mode EXECUTION_MODE = ConnectionExecutor.Mode.VIRTUAL_THREADS;
+    /**
+     * Number of session threads when sessions are run on a pool
+     */
+    public static final int POOL_THREADS = 256;
+    /**
+     * Most clients served at once; further connections are closed straight away
+     */
+    public static final int MAX_CONNECTIONS = 10_000;
+    /**
+     * Bytes a blocking session may write before its stream is reset; 0 resets before every reply
+     */
+    public static final long STREAM_RESET_THRESHOLD_BYTES = 0;
+    /**
+     * Port of the non-blocking engine for framed clients (see {@link SelectorEngine}); -1 to not open it
+     */
+    public static final int SELECTOR_PORT = 1201;
+    /**
+     * Number of threads watching framed connections
+     */
+    public static final int SELECTOR_EVENT_LOOPS = 2;
+    /**
+     * Number of threads running framed clients' requests
+     */
+    public static final int SELECTOR_WORKER_THREADS = 16;
     private static final boolean PRINT_DEBUG;
     private static Server server = null;
     private static volatile boolean isOpen;
@@ -27,7 +71,7 @@ public abstract class OpenServer {
      * @param args CLI args; not used
      */
     public static void main(String[] args) {
-        // This may not be safe (it has a tendency of erasing data)
+        // Save files are replaced atomically, so this can't leave a half-written save behind
         // Adds a shutdown hook to try to close the server
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             if (server != null) {
@@ -63,12 +107,20 @@ public abstract class OpenServer {
         
         try {
             // Setup here
-            server = new Server(SERVER_PORT, PRINT_DEBUG);
+            MainListOfConversations.setMaxResidentBodies(MAX_RESIDENT_CONVERSATIONS);
+            MessageIdGenerator.setNodeId(NODE_ID);
+            server = new Server(SERVER_PORT, PRINT_DEBUG, CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_MAX_DIRTY_BYTES,
+                    EXECUTION_MODE, POOL_THREADS, MAX_CONNECTIONS);
+            server.setStreamResetThreshold(STREAM_RESET_THRESHOLD_BYTES);
+            if (SELECTOR_PORT >= 0) {
+                server.startSelectorEngine(SELECTOR_PORT, SELECTOR_EVENT_LOOPS, SELECTOR_WORKER_THREADS,
+                        MAX_CONNECTIONS);
+            }
             isOpen = true;
             if (PRINT_DEBUG) {
                 System.out.println("\u001B[3;32m\u001B[1;35m" +
                         "To close server safely, type \"exit\" then \"admin\" in that order.\r\n" +
-                        "If you force close the program, it may cause memory errors." + "\u001B[0;0m");
+                        "If you force close the program, changes since the last checkpoint are recovered from the log." + "\u001B[0;0m");
                 System.out.println("Waiting for a connection.");
             }
             
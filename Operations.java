@@ -10,5 +10,6 @@ public enum Operation {
     ListCustomers, GetAllCustomers, GetConversationsWithUser, SetMessageContent, AddMessageToConversation,
     UserBlocksUser, UserInvisibleToUser, GetConversationWithUsers, CreateCustomer, CreateSeller, CreateMessage,
     CreateConversation, SellerAddStore, GetConversationWithUsersWithStore, SendMessageFromFile, SetUserName,
-    SetUserPass, DeleteUserAccount
+    SetUserPass, DeleteUserAccount, Batch, SyncConversationsWithUser, Subscribe, Unsubscribe,
+    GetConversationSummaries, GetMessagePage, GetConversationCSV
 }
@@ -0,0 +1,787 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SelectorEngine}<br />
+ * Serves framed clients without a thread per connection. A few event-loop threads each watch their share of the
+ * connections with a {@link Selector}; only once a whole request frame has arrived is it handed to a pool of worker
+ * threads, which run it and queue the reply for the event loop to write. A connected client that isn't sending
+ * anything costs a registered channel and a 4-byte buffer, not a thread.
+ * <p>
+ * Every frame is a 4-byte big-endian length followed by that many bytes (see {@link Server} for what a request and a
+ * reply hold). Requests from one connection are run one at a time, in the order they arrived. A request frame that
+ * starts with {@link #TAGGED_MARKER} and a 4-byte request id is instead run as soon as a worker is free, alongside the
+ * connection's other requests, and its reply (always sent, even if empty) carries the same marker and id so the
+ * client can match it up however late it arrives. A tagged request's handler may also keep a {@link FrameSink} to
+ * push further frames to the client later, each starting with {@link #PUSH_MARKER} and the same request id. A
+ * connection with too many requests or replies waiting is not read from until they drain
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class SelectorEngine implements AutoCloseable {
+    /**
+     * The largest frame accepted; a client sending a larger one is disconnected
+     */
+    public static final int MAX_FRAME_BYTES;
+    /**
+     * The first byte of a tagged frame, followed by its 4-byte request id and then an ordinary frame
+     */
+    public static final byte TAGGED_MARKER;
+    /**
+     * The first byte of a frame pushed to the client, followed by the 4-byte id of the request it belongs to and then
+     * an ordinary frame
+     */
+    public static final byte PUSH_MARKER;
+    /**
+     * The most requests (or replies) waiting on one connection before it stops being read from
+     */
+    private static final int MAX_PENDING_FRAMES;
+    
+    static {
+        MAX_FRAME_BYTES = 64 * 1024 * 1024;
+        MAX_PENDING_FRAMES = 64;
+        // Clear of operation ordinals and of the WireCodec frame marker
+        TAGGED_MARKER = (byte) 0xC0;
+        PUSH_MARKER = (byte) 0xC1;
+    }
+    
+    /**
+     * Runs one request frame. Tagged frames from one connection may be run at the same time
+     */
+    @FunctionalInterface
+    interface FrameHandler {
+        /**
+         * Runs a request frame
+         *
+         * @param sessionNumber the number of the client's connection
+         * @param channel       the client's channel
+         * @param request       the request frame, without its length
+         * @param sink          pushes further frames for the request, or null if it is not tagged
+         * @return the reply frame (empty if there is no reply), or null if the client disconnected
+         * @throws IOException            if the request could not be read
+         * @throws ClassNotFoundException if the request held an unknown class
+         */
+        byte[] handle(int sessionNumber, SocketChannel channel, byte[] request, FrameSink sink)
+                throws IOException, ClassNotFoundException;
+    }
+    
+    /**
+     * Pushes frames to a client under the id of one of its tagged requests, after (or even before) its reply. Safe to
+     * use from any thread
+     */
+    interface FrameSink {
+        /**
+         * Returns whether the connection can take another frame straight away. If not, the task is run on a worker
+         * thread once it can, unless it closes first
+         *
+         * @param whenReady the task to run once the connection catches up
+         * @return whether a frame can be pushed now
+         */
+        boolean isReady(Runnable whenReady);
+        
+        /**
+         * Queues a frame to push to the client
+         *
+         * @param frame the frame, without its length, marker or request id
+         * @return false if the connection has closed
+         */
+        boolean push(byte[] frame);
+        
+        /**
+         * Runs a task once the connection closes, or straight away if it already has
+         *
+         * @param task the task; it runs on the event loop and must not block
+         */
+        void onClose(Runnable task);
+    }
+    
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final FrameHandler handler;
+    private final int maxConnections;
+    private final boolean printDebug;
+    private volatile boolean open;
+    private int nextLoop;
+    
+    ///// METRICS /////
+    private final AtomicInteger sessionCount;
+    private final AtomicInteger activeConnections;
+    private final AtomicInteger peakConnections;
+    private final AtomicLong rejectedConnections;
+    private final AtomicLong framesRead;
+    private final AtomicLong framesWritten;
+    
+    /**
+     * A {@link SelectorEngine} constructor. Binds the port and starts serving straight away
+     *
+     * @param port           the port to listen on (0 for any free port)
+     * @param eventLoops     the number of threads watching connections
+     * @param workerThreads  the number of threads running requests
+     * @param maxConnections the most clients connected at once; further connections are closed straight away
+     * @param handler        runs each request frame
+     * @param printDebug     whether to print debug info
+     * @throws IOException if the port could not be bound
+     */
+    SelectorEngine(int port, int eventLoops, int workerThreads, int maxConnections, FrameHandler handler,
+                   boolean printDebug) throws IOException {
+        if (eventLoops < 1 || workerThreads < 1 || maxConnections < 1) {
+            throw new IllegalArgumentException("Thread and connection limits must be positive");
+        }
+        this.handler = handler;
+        this.maxConnections = maxConnections;
+        this.printDebug = printDebug;
+        this.sessionCount = new AtomicInteger();
+        this.activeConnections = new AtomicInteger();
+        this.peakConnections = new AtomicInteger();
+        this.rejectedConnections = new AtomicLong();
+        this.framesRead = new AtomicLong();
+        this.framesWritten = new AtomicLong();
+        
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread t = new Thread(runnable, "Frame worker " + workerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        
+        this.serverChannel = ServerSocketChannel.open();
+        this.loops = new EventLoop[eventLoops];
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            for (int i = 0; i < eventLoops; i++) {
+                loops[i] = new EventLoop(i + 1);
+            }
+            // The first loop also accepts new connections
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ioe) {
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.close();
+                }
+            }
+            serverChannel.close();
+            workers.shutdownNow();
+            throw ioe;
+        }
+        
+        this.open = true;
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+    
+    /**
+     * Accepts every waiting connection, handing each to an event loop in turn. Runs on the first event loop
+     */
+    private void acceptConnections() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException ioe) {
+                if (open) {
+                    System.err.println("Error accepting a framed connection");
+                    ioe.printStackTrace();
+                }
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            
+            int sessionNumber = sessionCount.incrementAndGet();
+            int active = activeConnections.incrementAndGet();
+            if (active > maxConnections) {
+                activeConnections.decrementAndGet();
+                rejectedConnections.incrementAndGet();
+                closeQuietly(channel);
+                System.err.printf("[%d] Turned away framed client #%1$d; already serving %d clients%n",
+                        sessionNumber, maxConnections);
+                continue;
+            }
+            peakConnections.accumulateAndGet(active, Math::max);
+            
+            EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.execute(() -> loop.register(sessionNumber, channel));
+        }
+    }
+    
+    /**
+     * Queues a request frame on its connection, starting a worker on the connection if none is running
+     *
+     * @param connection the {@link Connection} the frame came from
+     * @param request    the request frame
+     */
+    private void enqueue(Connection connection, byte[] request) {
+        framesRead.incrementAndGet();
+        synchronized (connection) {
+            connection.requests.add(request);
+            if (connection.running) {
+                return;
+            }
+            connection.running = true;
+        }
+        try {
+            workers.execute(() -> runRequests(connection));
+        } catch (RejectedExecutionException ree) {
+            // Closed in the meantime
+            connection.loop.close(connection);
+        }
+    }
+    
+    /**
+     * Starts running a tagged request frame straight away, without waiting for the connection's other requests
+     *
+     * @param connection the {@link Connection} the frame came from
+     * @param request    the tagged request frame
+     */
+    private void dispatchTagged(Connection connection, byte[] request) {
+        framesRead.incrementAndGet();
+        synchronized (connection) {
+            connection.inFlight++;
+        }
+        try {
+            workers.execute(() -> runTagged(connection, request));
+        } catch (RejectedExecutionException ree) {
+            // Closed in the meantime
+            connection.loop.close(connection);
+        }
+    }
+    
+    /**
+     * Runs one tagged request frame and queues its reply under the same request id. Runs on a worker thread, possibly
+     * alongside others from the same connection
+     *
+     * @param connection the {@link Connection}
+     * @param request    the tagged request frame
+     */
+    private void runTagged(Connection connection, byte[] request) {
+        byte[] reply = null;
+        int requestId = 0;
+        if (request.length < 5) {
+            System.err.printf("[%d] Framed client #%1$d sent a tagged frame without a request id%n",
+                    connection.sessionNumber);
+        } else {
+            requestId = ByteBuffer.wrap(request, 1, 4).getInt();
+            try {
+                reply = handler.handle(connection.sessionNumber, connection.channel,
+                        Arrays.copyOfRange(request, 5, request.length), new TaggedSink(connection, requestId));
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                System.err.printf("[%d] Error running request %d from framed client #%1$d%n",
+                        connection.sessionNumber, requestId);
+                e.printStackTrace();
+            }
+        }
+        
+        if (reply == null || !connection.channel.isOpen()) {
+            if (printDebug) {
+                System.out.printf("[%d] Framed client #%1$d disconnected%n", connection.sessionNumber);
+            }
+            synchronized (connection) {
+                connection.inFlight--;
+            }
+            connection.loop.execute(() -> connection.loop.close(connection));
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + 5 + reply.length);
+        frame.putInt(5 + reply.length).put(TAGGED_MARKER).putInt(requestId).put(reply).flip();
+        synchronized (connection) {
+            connection.inFlight--;
+            connection.replies.add(frame);
+        }
+        connection.loop.execute(() -> connection.loop.flush(connection));
+    }
+    
+    /**
+     * Runs a connection's queued requests in order until there are none left. Runs on a worker thread; only one
+     * worker runs a given connection's requests at a time
+     *
+     * @param connection the {@link Connection}
+     */
+    private void runRequests(Connection connection) {
+        while (true) {
+            byte[] request;
+            synchronized (connection) {
+                request = connection.requests.poll();
+                if (request == null) {
+                    connection.running = false;
+                    return;
+                }
+            }
+            
+            byte[] reply;
+            try {
+                reply = handler.handle(connection.sessionNumber, connection.channel, request, null);
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                System.err.printf("[%d] Error running a request from framed client #%1$d%n",
+                        connection.sessionNumber);
+                e.printStackTrace();
+                reply = null;
+            }
+            
+            if (reply == null || !connection.channel.isOpen()) {
+                if (printDebug) {
+                    System.out.printf("[%d] Framed client #%1$d disconnected%n", connection.sessionNumber);
+                }
+                synchronized (connection) {
+                    connection.requests.clear();
+                    connection.running = false;
+                }
+                connection.loop.execute(() -> connection.loop.close(connection));
+                return;
+            }
+            if (reply.length > 0) {
+                ByteBuffer frame = ByteBuffer.allocate(4 + reply.length);
+                frame.putInt(reply.length).put(reply).flip();
+                synchronized (connection) {
+                    connection.replies.add(frame);
+                }
+            }
+            // Writes the reply and resumes reading if the connection had been paused
+            connection.loop.execute(() -> connection.loop.flush(connection));
+        }
+    }
+    
+    /**
+     * Closes a channel, ignoring any error
+     *
+     * @param channel the channel
+     */
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            // Already gone
+        }
+    }
+    
+    /**
+     * Returns the port framed clients connect to
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Returns the number of framed clients currently connected
+     *
+     * @return the number of connections
+     */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+    
+    /**
+     * Returns the most framed clients that have been connected at once
+     *
+     * @return the peak number of connections
+     */
+    public int getPeakConnections() {
+        return peakConnections.get();
+    }
+    
+    /**
+     * Returns the number of connections turned away because the connection limit had been reached
+     *
+     * @return the number of rejected connections
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+    
+    /**
+     * Returns the number of request frames read
+     *
+     * @return the number of request frames
+     */
+    public long getFramesRead() {
+        return framesRead.get();
+    }
+    
+    /**
+     * Returns the number of reply frames written
+     *
+     * @return the number of reply frames
+     */
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+    
+    /**
+     * Stops serving: stops accepting, closes every connection and stops the threads
+     */
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ioe) {
+            // Already gone
+        }
+        for (EventLoop loop : loops) {
+            // Each loop closes its connections and its selector on the way out
+            loop.selector.wakeup();
+        }
+        workers.shutdownNow();
+    }
+    
+    /**
+     * One framed client's connection: its half-read frame and its waiting requests and replies
+     */
+    private static final class Connection {
+        final int sessionNumber;
+        final SocketChannel channel;
+        final EventLoop loop;
+        final SelectionKey key;
+        /**
+         * The length of the frame being read; only used by the event loop
+         */
+        final ByteBuffer header;
+        /**
+         * The body of the frame being read, or null while reading its length; only used by the event loop
+         */
+        ByteBuffer body;
+        /**
+         * Whether the connection has been closed; only used by the event loop
+         */
+        boolean closed;
+        // The rest is guarded by the connection itself
+        final ArrayDeque<byte[]> requests;
+        final ArrayDeque<ByteBuffer> replies;
+        boolean running;
+        /**
+         * The number of tagged requests being run
+         */
+        int inFlight;
+        /**
+         * The tasks waiting for the replies to drain, and those to run once the connection closes (null once it has)
+         */
+        final ArrayList<Runnable> whenWritable;
+        ArrayList<Runnable> onClose;
+        
+        Connection(int sessionNumber, SocketChannel channel, EventLoop loop, SelectionKey key) {
+            this.sessionNumber = sessionNumber;
+            this.channel = channel;
+            this.loop = loop;
+            this.key = key;
+            this.header = ByteBuffer.allocate(4);
+            this.requests = new ArrayDeque<>();
+            this.replies = new ArrayDeque<>();
+            this.whenWritable = new ArrayList<>();
+            this.onClose = new ArrayList<>();
+        }
+        
+    }
+    
+    /**
+     * The {@link FrameSink} of one tagged request
+     */
+    private final class TaggedSink implements FrameSink {
+        private final Connection connection;
+        private final int requestId;
+        
+        TaggedSink(Connection connection, int requestId) {
+            this.connection = connection;
+            this.requestId = requestId;
+        }
+        
+        @Override
+        public boolean isReady(Runnable whenReady) {
+            synchronized (connection) {
+                if (connection.replies.size() < MAX_PENDING_FRAMES || connection.onClose == null) {
+                    // A closed connection is ready too, so the caller finds out it has closed by pushing
+                    return true;
+                }
+                connection.whenWritable.add(whenReady);
+                return false;
+            }
+        }
+        
+        @Override
+        public boolean push(byte[] frame) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 5 + frame.length);
+            buffer.putInt(5 + frame.length).put(PUSH_MARKER).putInt(requestId).put(frame).flip();
+            synchronized (connection) {
+                if (connection.onClose == null) {
+                    return false;
+                }
+                connection.replies.add(buffer);
+            }
+            connection.loop.execute(() -> connection.loop.flush(connection));
+            return true;
+        }
+        
+        @Override
+        public void onClose(Runnable task) {
+            synchronized (connection) {
+                if (connection.onClose != null) {
+                    connection.onClose.add(task);
+                    return;
+                }
+            }
+            task.run();
+        }
+        
+    }
+    
+    /**
+     * A thread watching some of the connections with its own {@link Selector}. All reads, writes and interest changes
+     * for its connections happen on this thread; other threads hand it work through {@link #execute(Runnable)}
+     */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks;
+        
+        EventLoop(int number) throws IOException {
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.thread = new Thread(this, "Selector loop " + number);
+            this.thread.setDaemon(true);
+        }
+        
+        /**
+         * Runs a task on this event loop
+         *
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (open) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            acceptConnections();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            flush(connection);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (open) {
+                    System.err.println("Error in " + thread.getName());
+                    e.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close((Connection) key.attachment());
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ioe) {
+                    // Ignored.
+                }
+            }
+        }
+        
+        /**
+         * Starts watching a newly accepted connection
+         *
+         * @param sessionNumber the number of the connection
+         * @param channel       the connection's channel
+         */
+        void register(int sessionNumber, SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(sessionNumber, channel, this, key));
+                if (printDebug) {
+                    System.out.printf("[%d] Framed client #%1$d connected on %s (%d connected)%n", sessionNumber,
+                            thread.getName(), activeConnections.get());
+                }
+            } catch (IOException ioe) {
+                activeConnections.decrementAndGet();
+                closeQuietly(channel);
+            }
+        }
+        
+        /**
+         * Reads whatever has arrived on a connection, queueing each whole frame
+         *
+         * @param connection the {@link Connection}
+         */
+        void read(Connection connection) {
+            try {
+                while (true) {
+                    ByteBuffer target = (connection.body == null ? connection.header : connection.body);
+                    if (connection.channel.read(target) == -1) {
+                        close(connection);
+                        return;
+                    }
+                    if (target.hasRemaining()) {
+                        // Nothing more for now
+                        return;
+                    }
+                    
+                    if (connection.body == null) {
+                        connection.header.flip();
+                        int length = connection.header.getInt();
+                        connection.header.clear();
+                        if (length < 2 || length > MAX_FRAME_BYTES) {
+                            System.err.printf("[%d] Framed client #%1$d sent a frame of %d bytes; disconnecting%n",
+                                    connection.sessionNumber, length);
+                            close(connection);
+                            return;
+                        }
+                        connection.body = ByteBuffer.allocate(length);
+                    } else {
+                        byte[] request = connection.body.array();
+                        connection.body = null;
+                        if (request[0] == TAGGED_MARKER) {
+                            dispatchTagged(connection, request);
+                        } else {
+                            enqueue(connection, request);
+                        }
+                        if (!updateInterest(connection)) {
+                            // Paused until the waiting requests are run
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException ioe) {
+                close(connection);
+            }
+        }
+        
+        /**
+         * Writes as much of a connection's waiting replies as the socket takes
+         *
+         * @param connection the {@link Connection}
+         */
+        void flush(Connection connection) {
+            if (connection.closed) {
+                return;
+            }
+            try {
+                synchronized (connection) {
+                    ByteBuffer frame;
+                    while ((frame = connection.replies.peek()) != null) {
+                        connection.channel.write(frame);
+                        if (frame.hasRemaining()) {
+                            break;
+                        }
+                        connection.replies.poll();
+                        framesWritten.incrementAndGet();
+                    }
+                    if (!connection.whenWritable.isEmpty() && connection.replies.size() < MAX_PENDING_FRAMES) {
+                        for (Runnable task : connection.whenWritable) {
+                            try {
+                                workers.execute(task);
+                            } catch (RejectedExecutionException ree) {
+                                // Shutting down
+                            }
+                        }
+                        connection.whenWritable.clear();
+                    }
+                }
+                updateInterest(connection);
+            } catch (IOException ioe) {
+                close(connection);
+            }
+        }
+        
+        /**
+         * Watches a connection for whatever it is ready for: writing if replies are waiting, and reading unless too
+         * many requests or replies are waiting
+         *
+         * @param connection the {@link Connection}
+         * @return whether the connection is being read from
+         */
+        boolean updateInterest(Connection connection) {
+            if (connection.closed || !connection.key.isValid()) {
+                return false;
+            }
+            int interest = 0;
+            synchronized (connection) {
+                if (connection.requests.size() + connection.inFlight < MAX_PENDING_FRAMES
+                        && connection.replies.size() < MAX_PENDING_FRAMES) {
+                    interest |= SelectionKey.OP_READ;
+                }
+                if (!connection.replies.isEmpty()) {
+                    interest |= SelectionKey.OP_WRITE;
+                }
+            }
+            connection.key.interestOps(interest);
+            return (interest & SelectionKey.OP_READ) != 0;
+        }
+        
+        /**
+         * Closes a connection and stops watching it
+         *
+         * @param connection the {@link Connection}
+         */
+        void close(Connection connection) {
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+            connection.key.cancel();
+            closeQuietly(connection.channel);
+            activeConnections.decrementAndGet();
+            
+            ArrayList<Runnable> tasks;
+            synchronized (connection) {
+                tasks = connection.onClose;
+                connection.onClose = null;
+                connection.whenWritable.clear();
+            }
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+        
+    }
+    
+}
@@ -2,6 +2,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * {@link Seller}<br />
@@ -11,8 +13,26 @@ import java.util.Set;
  * @version 12/12/2022
  */
 public final class Seller extends User {
+    /**
+     * The registered {@link Seller} owning each store (the first registered, if several share a name)
+     */
+    private static final ConcurrentHashMap<String, Seller> STORE_OWNERS;
+    /**
+     * Each registered {@link Seller}'s stores as listed by getAllStoresAsString(), keyed by email
+     */
+    private static final ConcurrentSkipListMap<String, String> STORE_LISTINGS;
+    /**
+     * The cached result of getAllStoresAsString(); null when a listing changed since it was built
+     */
+    private static volatile String storeDirectory;
     private final ArrayList<String> storeNames;
     
+    static {
+        STORE_OWNERS = new ConcurrentHashMap<>();
+        STORE_LISTINGS = new ConcurrentSkipListMap<>();
+        storeDirectory = null;
+    }
+    
     /**
      * A Seller constructor
      *
@@ -28,6 +48,8 @@ public final class Seller extends User {
         
         this.storeNames = new ArrayList<>();
         Collections.addAll(this.storeNames, storeNames);
+        reserve();
+        indexStores();
     }
     
     /**
@@ -44,6 +66,8 @@ public final class Seller extends User {
         super(name, email, password);
         
         this.storeNames = storeNames;
+        reserve();
+        indexStores();
     }
     
     /**
@@ -62,6 +86,8 @@ public final class Seller extends User {
         super(name, email, password, blockedPhrases);
         
         this.storeNames = storeNames;
+        reserve();
+        indexStores();
     }
     
     /**
@@ -80,6 +106,26 @@ public final class Seller extends User {
         
         this.storeNames = new ArrayList<>();
         Collections.addAll(this.storeNames, storeNames);
+        reserve();
+        indexStores();
+    }
+    
+    /**
+     * Constructor for a copy of a Seller received from the server; not added to the registry of users or stores
+     *
+     * @param name           name
+     * @param email          email
+     * @param passwordHash   the hashed password, or null if it was not sent
+     * @param blockedPhrases blockedPhrases
+     * @param blockedEmails  the emails of the blocked users
+     * @param invisToEmails  the emails of the users this seller is invisible to
+     * @param storeNames     storeNames
+     */
+    Seller(String name, String email, String passwordHash, HashMap<String, String> blockedPhrases,
+           ArrayList<String> blockedEmails, ArrayList<String> invisToEmails, ArrayList<String> storeNames) {
+        super(name, email, passwordHash, blockedPhrases, blockedEmails, invisToEmails);
+        
+        this.storeNames = storeNames;
     }
     
     /**
@@ -88,16 +134,20 @@ public final class Seller extends User {
      * @return the String representation of all stores
      */
     public static String getAllStoresAsString() {
-        StringBuilder out = new StringBuilder();
-        Set<String> emails = getUserEmails();
-        for (String email : emails) {
-            User u = User.getUser(email);
-            if (!(u instanceof Seller)) {
-                continue;
+        String directory = storeDirectory;
+        if (directory != null) {
+            return directory;
+        }
+        synchronized (STORE_OWNERS) {
+            if (storeDirectory == null) {
+                StringBuilder out = new StringBuilder();
+                for (String listing : STORE_LISTINGS.values()) {
+                    out.append(listing).append(System.lineSeparator());
+                }
+                storeDirectory = out.toString();
             }
-            out.append(((Seller) u).getSellerStoresAsString()).append(System.lineSeparator());
+            return storeDirectory;
         }
-        return out.toString();
     }
     
     /**
@@ -107,13 +157,67 @@ public final class Seller extends User {
      * @return the Seller
      */
     public static Seller getSellerFromStore(String storeName) {
-        ArrayList<Seller> sellers = User.getAllSellers();
-        for (Seller s : sellers) {
-            if (s.getStoreNames().contains(storeName)) {
-                return s;
+        return (storeName == null ? null : STORE_OWNERS.get(storeName));
+    }
+    
+    /**
+     * Adds this Seller's stores to the store index if it is the registered {@link User} with its email (rather than a
+     * copy received from the server)
+     */
+    private void indexStores() {
+        synchronized (STORE_OWNERS) {
+            if (getUser(getEmail()) != this) {
+                return;
+            }
+            for (String storeName : storeNames) {
+                STORE_OWNERS.putIfAbsent(storeName, this);
+            }
+            updateListing();
+        }
+    }
+    
+    /**
+     * Rebuilds this Seller's entry in the store directory. Must hold the STORE_OWNERS lock
+     */
+    private void updateListing() {
+        STORE_LISTINGS.put(getEmail(), storeNames.isEmpty() ? "" : getSellerStoresAsString());
+        storeDirectory = null;
+    }
+    
+    /**
+     * Gives a store whose owner no longer has it to the next registered {@link Seller} which does, if any. Must hold
+     * the STORE_OWNERS lock
+     *
+     * @param storeName the store
+     * @param previous  the {@link Seller} which no longer owns it
+     */
+    private static void reassignStore(String storeName, Seller previous) {
+        if (!STORE_OWNERS.remove(storeName, previous)) {
+            return;
+        }
+        for (Seller s : getAllSellers()) {
+            if (s != previous && s.storeNames.contains(storeName)) {
+                STORE_OWNERS.putIfAbsent(storeName, s);
+                return;
             }
         }
-        return null;
+    }
+    
+    /**
+     * Removes a deleted {@link Seller}'s stores from the store index
+     *
+     * @param seller the deleted {@link Seller}
+     */
+    static void forgetStores(Seller seller) {
+        synchronized (STORE_OWNERS) {
+            if (STORE_LISTINGS.remove(seller.getEmail()) == null) {
+                return;
+            }
+            for (String storeName : seller.storeNames) {
+                reassignStore(storeName, seller);
+            }
+            storeDirectory = null;
+        }
     }
     
     /**
@@ -145,6 +249,13 @@ public final class Seller extends User {
      */
     public void addStoreName(String storeName) {
         storeNames.add(storeName);
+        markDirty();
+        synchronized (STORE_OWNERS) {
+            if (getUser(getEmail()) == this) {
+                STORE_OWNERS.putIfAbsent(storeName, this);
+                updateListing();
+            }
+        }
     }
     
     /**
@@ -154,7 +265,17 @@ public final class Seller extends User {
      * @return whether the store previously existed
      */
     public boolean removeStoreName(String storeName) {
-        return storeNames.remove(storeName);
+        markDirty();
+        boolean removed = storeNames.remove(storeName);
+        synchronized (STORE_OWNERS) {
+            if (removed && getUser(getEmail()) == this) {
+                if (!storeNames.contains(storeName)) {
+                    reassignStore(storeName, this);
+                }
+                updateListing();
+            }
+        }
+        return removed;
     }
     
     
@@ -2,13 +2,20 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * {@link Server}<br />
@@ -25,8 +32,44 @@ public class Server extends ServerSocket {
     public static final String DELIMITER;
     public static final String DELIMITER_REPLACEMENT;
     public static final String FILE_LOC;
+    /**
+     * The default longest time between checkpoints while there are unsaved changes
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    /**
+     * The default number of logged bytes after which a checkpoint is run early
+     */
+    public static final long DEFAULT_CHECKPOINT_MAX_DIRTY_BYTES;
+    /**
+     * The number of threads used to parse conversation files on startup
+     */
+    private static final int LOAD_PARALLELISM;
+    /**
+     * The default way of running client sessions
+     */
+    public static final ConnectionExecutor.Mode DEFAULT_EXECUTION_MODE;
+    /**
+     * The default number of session threads when running sessions on a pool
+     */
+    public static final int DEFAULT_POOL_THREADS;
+    /**
+     * The default number of clients served at once
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS;
     private final static String inputCountErrorMessage;
     private static ArrayList<String> saveFileComments;
+    /**
+     * The log of every change made since the last snapshot; null until a {@link Server} has loaded its data
+     */
+    private static volatile WriteAheadLog writeAheadLog;
+    /**
+     * Runs checkpoints in the background; null until a {@link Server} has loaded its data
+     */
+    private static volatile CheckpointScheduler checkpointScheduler;
+    /**
+     * The conversation ids last written to conversation_list.bin
+     */
+    private static HashSet<String> savedConversationNames;
     /**
      * A (probably temporary) boolean used to ensure that no more than one {@link Server} is created
      */
@@ -37,14 +80,30 @@ public class Server extends ServerSocket {
         DELIMITER = ";;";
         DELIMITER_REPLACEMENT = "\\\\;\\\\;\\\\";
         FILE_LOC = "src/data/";
+        DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60_000;
+        DEFAULT_CHECKPOINT_MAX_DIRTY_BYTES = 4 * 1024 * 1024;
+        LOAD_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+        DEFAULT_EXECUTION_MODE = ConnectionExecutor.Mode.VIRTUAL_THREADS;
+        DEFAULT_POOL_THREADS = 256;
+        DEFAULT_MAX_CONNECTIONS = 10_000;
         
         inputCountErrorMessage = "[%d] Operation `%s` expected %d Objects but got %d instead";
         hasBeenCreated = false;
     }
     
     ///// IMPORTED FROM MAIN /////
-    private final ArrayList<Socket> clients;
-    private final ArrayList<Thread> threads;
+    /**
+     * Runs the client sessions
+     */
+    private final ConnectionExecutor connections;
+    /**
+     * Serves framed clients without a thread each; null unless started
+     */
+    private volatile SelectorEngine selectorEngine;
+    /**
+     * How many bytes a blocking session may write before its stream is reset (0 to reset before every reply)
+     */
+    private volatile long streamResetThresholdBytes;
     private final boolean printDebug;
     private int threadCountCreated;
     
@@ -67,16 +126,56 @@ public class Server extends ServerSocket {
      * @throws IOException from ServerSocket(int port)
      */
     public Server(int desiredPort, boolean printDebug) throws IOException {
+        this(desiredPort, printDebug, DEFAULT_CHECKPOINT_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_MAX_DIRTY_BYTES);
+    }
+    
+    /**
+     * A {@link Server} constructor
+     *
+     * @param desiredPort             the port to bind this server to
+     * @param printDebug              whether to print debug info
+     * @param checkpointIntervalMillis the longest time between checkpoints while there are unsaved changes
+     * @param checkpointMaxDirtyBytes the number of logged bytes after which a checkpoint is run early
+     * @throws IOException from ServerSocket(int port)
+     */
+    public Server(int desiredPort, boolean printDebug, long checkpointIntervalMillis, long checkpointMaxDirtyBytes)
+            throws IOException {
+        this(desiredPort, printDebug, checkpointIntervalMillis, checkpointMaxDirtyBytes, DEFAULT_EXECUTION_MODE,
+                DEFAULT_POOL_THREADS, DEFAULT_MAX_CONNECTIONS);
+    }
+    
+    /**
+     * A {@link Server} constructor
+     *
+     * @param desiredPort             the port to bind this server to
+     * @param printDebug              whether to print debug info
+     * @param checkpointIntervalMillis the longest time between checkpoints while there are unsaved changes
+     * @param checkpointMaxDirtyBytes the number of logged bytes after which a checkpoint is run early
+     * @param executionMode           how to run client sessions
+     * @param poolThreads             the number of session threads when running them on a pool
+     * @param maxConnections          the most clients to serve at once
+     * @throws IOException from ServerSocket(int port)
+     */
+    public Server(int desiredPort, boolean printDebug, long checkpointIntervalMillis, long checkpointMaxDirtyBytes,
+                  ConnectionExecutor.Mode executionMode, int poolThreads, int maxConnections) throws IOException {
         super(desiredPort);
         
-        this.clients = new ArrayList<>();
-        this.threads = new ArrayList<>();
+        this.connections = new ConnectionExecutor(executionMode, poolThreads, maxConnections);
+        this.streamResetThresholdBytes = SessionObjectOutputStream.DEFAULT_RESET_THRESHOLD_BYTES;
         threadCountCreated = 0;
         
         if (hasBeenCreated) {
             System.err.println("MULTIPLE SERVERS CREATED -- WARNING: NOT INTENDED USE!!!");
         } else {
-            loadFromMemory();
+            boolean loadedText = loadFromMemory();
+            writeAheadLog = new WriteAheadLog(new File(FILE_LOC + "wal.log"));
+            if (loadedText) {
+                // One-shot conversion; the old .ssv files are left in place but are no longer read
+                saveToMemory(false);
+                System.out.println("Converted the text save files in " + FILE_LOC + " to the binary format");
+            }
+            checkpointScheduler = new CheckpointScheduler(Server::saveToMemory, checkpointIntervalMillis,
+                    checkpointMaxDirtyBytes, printDebug);
         }
         
         this.printDebug = printDebug;
@@ -85,141 +184,397 @@ public class Server extends ServerSocket {
     }
     
     /**
-     * Reads the previous program data from memory. <em>Run only once</em>
+     * Reads the previous program data from memory, preferring the binary save files over the old text ones.
+     * <em>Run only once</em>
+     *
+     * @return whether the data was read from the old text save files and so should be re-saved in the binary format
      */
-    private synchronized static void loadFromMemory() {
+    private synchronized static boolean loadFromMemory() {
         saveFileComments = new ArrayList<>();
-        // load all users (first)
-        // load all conversations (ids first then grab each)
+        boolean loadedText = false;
         try {
-            File usersFile = new File(FILE_LOC + "users.ssv");
-            if (!usersFile.exists()) {
-                // This is fine, just break out of the try
-                throw new InstantiationException("catch me wheeeeeee");
+            if (new File(FILE_LOC + "users.bin").exists()) {
+                loadBinarySnapshot();
+            } else if (new File(FILE_LOC + "users.ssv").exists()) {
+                loadTextSnapshot();
+                loadedText = true;
             }
-            BufferedReader usersReader = new BufferedReader(new FileReader(usersFile));
-            
-            String userLine;
-            while ((userLine = usersReader.readLine()) != null) {
-                if (!userLine.equals("")) {
-                    if (userLine.startsWith(";")) {
-                        saveFileComments.add(userLine);
-                        continue;
-                    }
-                    // Automatically puts it into User.USERS, so we don't need to catch it for anything.
-                    try {
-                        User.rebuildUser(userLine);
-                    } catch (IllegalArgumentException iae) {
-                        System.err.println("error rebuilding line: \"" + userLine + "\"");
-                    }
-                }
+        } catch (IOException ioe) {
+            System.err.println("Error reading data!");
+            ioe.printStackTrace();
+        }
+        
+        // Re-apply everything that happened after the snapshot was taken
+        try {
+            WriteAheadLog.replay(new File(FILE_LOC + "wal.log"), Server::applyLogRecord);
+        } catch (IOException ioe) {
+            System.err.println("Error reading the write-ahead log!");
+            ioe.printStackTrace();
+        }
+        return loadedText;
+    }
+    
+    /**
+     * Reads the {@link User}s and {@link Conversation}s from the binary save files. Once the {@link User}s are loaded
+     * the conversation files are independent of each other, so their metadata is read in parallel on a {@link ForkJoinPool}
+     * then added to the {@link MainListOfConversations} all at once. Prints how long each phase took
+     *
+     * @throws IOException if a file could not be read
+     */
+    private static void loadBinarySnapshot() throws IOException {
+        long start = System.nanoTime();
+        saveFileComments = BinarySnapshot.readUsers(new File(FILE_LOC + "users.bin"));
+        User.markUsersSaved();
+        long usersLoaded = System.nanoTime();
+        
+        File conversationListFile = new File(FILE_LOC + "conversation_list.bin");
+        ArrayList<String> conversationIds = (conversationListFile.exists()
+                ? new ArrayList<>(BinarySnapshot.readConversationList(conversationListFile)) : new ArrayList<>());
+        long listLoaded = System.nanoTime();
+        
+        ForkJoinPool pool = new ForkJoinPool(LOAD_PARALLELISM);
+        List<Conversation> loaded;
+        try {
+            loaded = pool.submit(() -> conversationIds.parallelStream()
+                    .map(Server::loadConversation)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Error loading conversations", e);
+        } finally {
+            pool.shutdown();
+        }
+        MainListOfConversations.addLoadedConversations(loaded);
+        long conversationsLoaded = System.nanoTime();
+        
+        System.out.printf("Loaded %d users in %d ms, %d conversation ids in %d ms and %d conversations in %d ms "
+                        + "(%d threads)%n",
+                User.getUsersCollection().size(), (usersLoaded - start) / 1_000_000,
+                conversationIds.size(), (listLoaded - usersLoaded) / 1_000_000,
+                loaded.size(), (conversationsLoaded - listLoaded) / 1_000_000, LOAD_PARALLELISM);
+    }
+    
+    /**
+     * Reads one {@link Conversation}'s metadata from its binary save file without registering it. Its {@link Message}s
+     * are read the first time they are needed. Safe to call from several threads at once
+     *
+     * @param conversationId the id (file name) of the {@link Conversation}
+     * @return the {@link Conversation}, or null if it could not be loaded
+     */
+    private static Conversation loadConversation(String conversationId) {
+        File conversationFile = new File(FILE_LOC + conversationId + ".bin");
+        if (!conversationFile.exists()) {
+            System.err.printf("Conversation %s not found%n", conversationId);
+            return null;
+        }
+        try {
+            Conversation c = BinarySnapshot.readConversation(conversationFile,
+                    new File(FILE_LOC + conversationId + ".seg"));
+            if (c == null) {
+                System.err.printf("Conversation %s could not load all resources (check users.bin intact).%n",
+                        conversationId);
             }
-            
-            usersReader.close();
-            
-            File conversationListFile = new File(FILE_LOC + "conversation_list.ssv");
-            BufferedReader conversationListReader = new BufferedReader(new FileReader(conversationListFile));
-            
-            HashSet<String> conversationIds = new HashSet<>();
-            String conversationListLine;
-            while ((conversationListLine = conversationListReader.readLine()) != null) {
-                if (!conversationListLine.equals("")) {
-                    conversationIds.add(conversationListLine);
+            return c;
+        } catch (IOException ioe) {
+            System.err.printf("Error reading conversation %s%n", conversationId);
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the {@link User}s and {@link Conversation}s from the old text (.ssv) save files
+     *
+     * @throws IOException if a file could not be read
+     */
+    private static void loadTextSnapshot() throws IOException {
+        // load all users (first)
+        // load all conversations (ids first then grab each)
+        File usersFile = new File(FILE_LOC + "users.ssv");
+        BufferedReader usersReader = new BufferedReader(new FileReader(usersFile));
+        
+        String userLine;
+        while ((userLine = usersReader.readLine()) != null) {
+            if (!userLine.equals("")) {
+                if (userLine.startsWith(";")) {
+                    saveFileComments.add(userLine);
+                    continue;
+                }
+                // Automatically puts it into User.USERS, so we don't need to catch it for anything.
+                try {
+                    User.rebuildUser(userLine);
+                } catch (IllegalArgumentException iae) {
+                    System.err.println("error rebuilding line: \"" + userLine + "\"");
                 }
             }
-            
-            conversationListReader.close();
-            
-            for (String conversationId : conversationIds) {
+        }
+        
+        usersReader.close();
+        User.markUsersSaved();
+        
+        File conversationListFile = new File(FILE_LOC + "conversation_list.ssv");
+        BufferedReader conversationListReader = new BufferedReader(new FileReader(conversationListFile));
+        
+        HashSet<String> conversationIds = new HashSet<>();
+        String conversationListLine;
+        while ((conversationListLine = conversationListReader.readLine()) != null) {
+            if (!conversationListLine.equals("")) {
+                conversationIds.add(conversationListLine);
+            }
+        }
+        
+        conversationListReader.close();
+        
+        for (String conversationId : conversationIds) {
+            try {
+                File conversationFile = new File(FILE_LOC + conversationId + ".ssv");
+                BufferedReader conversationReader = new BufferedReader(new FileReader(conversationFile));
+                
+                String conversationLine = conversationReader.readLine();
+                if (conversationLine == null) {
+                    continue;
+                }
+                String[] metaSplit = conversationLine.split(DELIMITER);
+                
+                // seller, store, customer, disappearing
+                // id, storeName, id, boolean
+                if (metaSplit.length != 4) {
+                    System.err.println("Error parsing metadata for file " + conversationId + ".ssv");
+                    continue;
+                }
+                String sellerId = metaSplit[0];
+                Seller seller = (Seller) User.getUser(sellerId);
+                String storeName = parse(metaSplit[1]);
+                if (storeName.equals("")) {
+                    storeName = null;
+                }
+                String customerId = parse(metaSplit[2]);
+                Customer customer = (Customer) User.getUser(customerId);
+                boolean isDisappearing = Boolean.parseBoolean(parse(metaSplit[3]));
+                
+                // causes errors I don't have time to deal with.
+                // If being loaded for a second time, skip
+                Conversation c;
                 try {
-                    File conversationFile = new File(FILE_LOC + conversationId + ".ssv");
-                    BufferedReader conversationReader = new BufferedReader(new FileReader(conversationFile));
-                    
-                    String conversationLine = conversationReader.readLine();
-                    if (conversationLine == null) {
+                    c = new Conversation(seller, storeName, customer, isDisappearing);
+                } catch (ClassCastException cce) {
+                    System.err.println("ClassCastException caught; should have worked???");
+                    cce.printStackTrace();
+                    continue;
+                }
+                
+                while ((conversationLine = conversationReader.readLine()) != null) {
+                    String[] dataSplit = conversationLine.split(DELIMITER);
+                    // Format:
+                    // timeSent;senderType{CUSTOMER,SELLER};canSenderView;canReceiverView;messageContent
+                    if (dataSplit.length != 5) {
+                        System.err.println("Error parsing line \"" + conversationLine + "\".");
                         continue;
                     }
-                    String[] metaSplit = conversationLine.split(DELIMITER);
+                    long timeSent = Long.parseLong(dataSplit[0]);
+                    boolean canSenderView = Boolean.parseBoolean(dataSplit[2]);
+                    boolean canReceiverView = Boolean.parseBoolean(dataSplit[3]);
+                    String messageContent = parse(dataSplit[4]);
                     
-                    // seller, store, customer, disappearing
-                    // id, storeName, id, boolean
-                    if (metaSplit.length != 4) {
-                        System.err.println("Error parsing metadata for file " + conversationId + ".ssv");
-                        continue;
-                    }
-                    String sellerId = metaSplit[0];
-                    Seller seller = (Seller) User.getUser(sellerId);
-                    String storeName = parse(metaSplit[1]);
-                    if (storeName.equals("")) {
-                        storeName = null;
-                    }
-                    String customerId = parse(metaSplit[2]);
-                    Customer customer = (Customer) User.getUser(customerId);
-                    boolean isDisappearing = Boolean.parseBoolean(parse(metaSplit[3]));
+                    // timeSent, senderId, receiverId, canSenderView, canReceiverView, messageContent
                     
-                    // causes errors I don't have time to deal with.
-                    // If being loaded for a second time, skip
-                    Conversation c;
+                    // Represents who the SENDER is
+                    if (dataSplit[1].equals("CUSTOMER")) {
+                        c.restoreMessage(new Message(customerId, sellerId, canSenderView, canReceiverView,
+                                messageContent, timeSent));
+                    } else if (dataSplit[1].equals("SELLER")) {
+                        c.restoreMessage(new Message(sellerId, customerId, canSenderView, canReceiverView,
+                                messageContent, timeSent));
+                    } else {
+                        System.err.println("What is type \"" + dataSplit[1] +
+                                "\"? (Error in parsing message line.)");
+                    }
+                }
+                
+                conversationReader.close();
+                c.markPersisted(c.getMessages().size());
+            } catch (FileNotFoundException fnfe) {
+                System.err.printf("Conversation %s not found%n", conversationId);
+            } catch (NullPointerException npe) {
+                System.err.printf("Conversation %s could not load all resources (check users.ssv intact).%n",
+                        conversationId);
+            }
+        }
+    }
+    
+    /**
+     * Re-applies a single {@link WriteAheadLog} record. Every record type can safely be applied on top of a snapshot
+     * that already contains it
+     *
+     * @param record the record line
+     */
+    private static void applyLogRecord(String record) {
+        String[] split = record.split(DELIMITER, -1);
+        try {
+            switch (split[0]) {
+                case WriteAheadLog.CREATE_USER -> {
                     try {
-                        c = new Conversation(seller, storeName, customer, isDisappearing);
-                    } catch (ClassCastException cce) {
-                        System.err.println("ClassCastException caught; should have worked???");
-                        cce.printStackTrace();
-                        continue;
+                        User.rebuildUser(record.substring(split[0].length() + DELIMITER.length()));
+                    } catch (IllegalArgumentException iae) {
+                        // Already in the snapshot
                     }
-                    
-                    while ((conversationLine = conversationReader.readLine()) != null) {
-                        String[] dataSplit = conversationLine.split(DELIMITER);
-                        // Format:
-                        // timeSent;senderType{CUSTOMER,SELLER};canSenderView;canReceiverView;messageContent
-                        if (dataSplit.length != 5) {
-                            System.err.println("Error parsing line \"" + conversationLine + "\".");
-                            continue;
-                        }
-                        long timeSent = Long.parseLong(dataSplit[0]);
-                        boolean canSenderView = Boolean.parseBoolean(dataSplit[2]);
-                        boolean canReceiverView = Boolean.parseBoolean(dataSplit[3]);
-                        String messageContent = dataSplit[4];
-                        
-                        // timeSent, senderId, receiverId, canSenderView, canReceiverView, messageContent
-                        
-                        // Represents who the SENDER is
-                        if (dataSplit[1].equals("CUSTOMER")) {
-                            c.addMessage(new Message(customerId, sellerId, canSenderView, canReceiverView,
-                                    messageContent, timeSent));
-                        } else if (dataSplit[1].equals("SELLER")) {
-                            c.addMessage(new Message(sellerId, customerId, canSenderView, canReceiverView,
-                                    messageContent, timeSent));
-                        } else {
-                            System.err.println("What is type \"" + dataSplit[1] +
-                                    "\"? (Error in parsing message line.)");
-                        }
+                }
+                case WriteAheadLog.DELETE_USER -> User.removeUser(User.getUser(parse(split[1])));
+                case WriteAheadLog.SET_USER_NAME -> User.getUser(parse(split[1])).setName(parse(split[2]));
+                case WriteAheadLog.SET_USER_PASS -> User.getUser(parse(split[1])).setPasswordHash(parse(split[2]));
+                case WriteAheadLog.BLOCK_USER -> {
+                    User u = User.getUser(parse(split[1]));
+                    if (!u.getBlockedEmails().contains(parse(split[2]))) {
+                        u.blockUser(parse(split[2]));
+                    }
+                }
+                case WriteAheadLog.INVISIBLE_TO_USER -> {
+                    User u = User.getUser(parse(split[1]));
+                    if (!u.getInvisEmails().contains(parse(split[2]))) {
+                        u.becomeInvisibleToUser(parse(split[2]));
                     }
-                    
-                    conversationReader.close();
-                } catch (FileNotFoundException fnfe) {
-                    System.err.printf("Conversation %s not found%n", conversationId);
-                } catch (NullPointerException npe) {
-                    System.err.printf("Conversation %s could not load all resources (check users.ssv intact).%n",
-                            conversationId);
                 }
+                case WriteAheadLog.ADD_STORE -> {
+                    Seller s = (Seller) User.getUser(parse(split[1]));
+                    if (!s.getStoreNames().contains(parse(split[2]))) {
+                        s.addStoreName(parse(split[2]));
+                    }
+                }
+                case WriteAheadLog.CREATE_CONVERSATION -> findOrCreateConversation(split[1], split[2], split[3],
+                        Boolean.parseBoolean(split[4]));
+                case WriteAheadLog.ADD_MESSAGE -> {
+                    // seller, store, customer, timeSent, senderType, canSenderView, canReceiverView, messageContent, id
+                    Conversation c = findOrCreateConversation(split[1], split[2], split[3], false);
+                    String sellerEmail = parse(split[1]);
+                    String customerEmail = parse(split[3]);
+                    boolean fromCustomer = split[5].equals("CUSTOMER");
+                    Message m = new Message(fromCustomer ? customerEmail : sellerEmail,
+                            fromCustomer ? sellerEmail : customerEmail, Boolean.parseBoolean(split[6]),
+                            Boolean.parseBoolean(split[7]), parse(split[8]), Long.parseLong(split[4]));
+                    m.setId(Long.parseLong(split[9]));
+                    c.restoreMessage(m);
+                }
+                case WriteAheadLog.EDIT_MESSAGE -> {
+                    Conversation c = findOrCreateConversation(split[1], split[2], split[3], false);
+                    c.editMessage(Long.parseLong(split[4]), 0, parse(split[5]));
+                }
+                default -> System.err.println("Unrecognised write-ahead log record \"" + record + "\"");
             }
+        } catch (RuntimeException re) {
+            // NullPointerException, ClassCastException, ArrayIndexOutOfBoundsException, NumberFormatException
+            System.err.println("Error applying write-ahead log record \"" + record + "\"");
+        }
+    }
+    
+    /**
+     * Finds the {@link Conversation} described by the given (cleaned) fields, creating it if it does not exist yet
+     *
+     * @param sellerField    the cleaned email of the {@link Seller}
+     * @param storeField     the cleaned store ("" for no store)
+     * @param customerField  the cleaned email of the {@link Customer}
+     * @param isDisappearing whether a newly created {@link Conversation} is disappearing
+     * @return the {@link Conversation}
+     */
+    private static Conversation findOrCreateConversation(String sellerField, String storeField, String customerField,
+                                                         boolean isDisappearing) {
+        Seller seller = (Seller) User.getUser(parse(sellerField));
+        Customer customer = (Customer) User.getUser(parse(customerField));
+        if (seller == null || customer == null) {
+            throw new NullPointerException("Conversation participant no longer exists");
+        }
+        String store = parse(storeField);
+        if (store.equals("")) {
+            store = null;
+        }
+        Conversation c = MainListOfConversations.getConversationWithUsersWithStore(seller, customer, store);
+        if (c == null) {
+            c = new Conversation(seller, store, customer, isDisappearing);
+        }
+        return c;
+    }
+    
+    /**
+     * Appends a record to the {@link WriteAheadLog}, waiting until it is on disk
+     *
+     * @param type   the type of record
+     * @param fields the (uncleaned) fields of the record
+     */
+    private static void logChange(String type, String... fields) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            return;
+        }
+        String[] cleaned = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            cleaned[i] = clean(fields[i]);
+        }
+        try {
+            noteLogged(log.append(type, cleaned));
         } catch (IOException ioe) {
-            System.err.println("Error reading data!");
+            System.err.println("Error writing to the write-ahead log! Details: ");
             ioe.printStackTrace();
-        } catch (InstantiationException ie) {
-            // ignored
         }
     }
     
     /**
-     * Saves the current program data to memory.
+     * Tells the {@link CheckpointScheduler} how many bytes were just logged
+     *
+     * @param bytes the number of bytes logged
+     */
+    private static void noteLogged(long bytes) {
+        CheckpointScheduler scheduler = checkpointScheduler;
+        if (scheduler != null) {
+            scheduler.addDirtyBytes(bytes);
+        }
+    }
+    
+    /**
+     * Appends the record for a {@link Message} added to a {@link Conversation} to the {@link WriteAheadLog}
+     *
+     * @param c the {@link Conversation} the {@link Message} was added to
+     * @param m the {@link Message} added
+     */
+    private static void logAddMessage(Conversation c, Message m) {
+        logChange(WriteAheadLog.ADD_MESSAGE, c.getSeller().getEmail(), c.getStore(), c.getCustomer().getEmail(),
+                String.valueOf(m.getTimeSent()),
+                c.getCustomer().getEmail().equals(m.getSenderEmail()) ? "CUSTOMER" : "SELLER",
+                String.valueOf(m.canSenderView()), String.valueOf(m.canReceiverView()), m.getMessageContent(),
+                String.valueOf(m.getId()));
+    }
+    
+    /**
+     * Saves the current program data to memory, writing only what changed since the last save
+     *
+     * @return the number of bytes written
      */
-    private synchronized static void saveToMemory() {
+    private static long saveToMemory() {
+        return saveToMemory(true);
+    }
+    
+    /**
+     * Saves the current program data to memory. Changes logged before this point are discarded from the
+     * {@link WriteAheadLog} once the snapshot has been written.
+     *
+     * @param incremental whether to write only the {@link User}s and {@link Conversation}s that changed since the
+     *                    last save (appending new {@link Message}s where possible) rather than every file
+     * @return the number of bytes written
+     */
+    private synchronized static long saveToMemory(boolean incremental) {
         if (saveFileComments == null) {
             saveFileComments = new ArrayList<>();
         }
         
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            try {
+                log.beginCheckpoint();
+            } catch (IOException ioe) {
+                System.err.println("Error starting checkpoint! Details: ");
+                ioe.printStackTrace();
+                return 0;
+            }
+        }
+        
         File dir = new File("src/data/");
         if (!dir.exists()) {
             dir.mkdirs();
@@ -227,76 +582,96 @@ public class Server extends ServerSocket {
         
         // save all users
         // save all conversations
-        // I know .ssv isn't really a thing. Too bad.
+        long bytesWritten = 0;
         try {
-            File usersFile = new File(FILE_LOC + "users.ssv");
-            BufferedWriter usersWriter = new BufferedWriter(new FileWriter(usersFile, false));
-            usersWriter.write("");
-            for (String comment : saveFileComments) {
-                usersWriter.append(comment).append(System.lineSeparator());
-            }
-            Set<String> emails = User.getUserEmails();
-            for (String email : emails) {
-                usersWriter.append(User.getUser(email).toFileLine()).append(System.lineSeparator());
+            File usersFile = new File(FILE_LOC + "users.bin");
+            if (!incremental || !usersFile.exists() || User.hasUnsavedUsers()) {
+                // Cleared first so that changes made while writing are saved next time
+                User.markUsersSaved();
+                try {
+                    bytesWritten += BinarySnapshot.writeUsers(usersFile, User.getUsersCollection(),
+                            saveFileComments);
+                } catch (IOException ioe) {
+                    User.markUsersUnsaved();
+                    throw ioe;
+                }
             }
-            usersWriter.flush();
-            usersWriter.close();
             
             HashSet<String> usedConversationNames = new HashSet<>();
-            for (Conversation c : MainListOfConversations.getMainListOfConversations()) {
+            HashSet<String> writtenConversationNames = new HashSet<>();
+            // A copy, as handlers may register Conversations while this runs on the checkpoint thread
+            for (Conversation c : MainListOfConversations.snapshotMainListOfConversations()) {
                 String name = hashStrings(c.getCustomer().getEmail(), c.getSeller().getEmail(), c.getStore());
-                if (usedConversationNames.contains(name)) {
+                if (writtenConversationNames.contains(name)) {
                     // duplicate has found
                     continue;
                 }
+                writtenConversationNames.add(name);
                 // If User deleted, save the file but don't save let it be loaded to prevent errors and dead-reading
                 if (User.getUser(c.getCustomer().getEmail()) != null &&
                         User.getUser(c.getSeller().getEmail()) != null) {
                     usedConversationNames.add(name);
                 }
                 
-                File conversationFile = new File(FILE_LOC + name + ".ssv");
-                BufferedWriter conversationFileWriter = new BufferedWriter(
-                        new FileWriter(conversationFile, false));
-                
-                // seller, store, customer, disappearing
-                conversationFileWriter.write(
-                        clean(c.getSeller().getEmail()) + DELIMITER
-                                + clean(c.getStore()) + DELIMITER
-                                + clean(c.getCustomer().getEmail()) + DELIMITER
-                                + c.isDisappearing() + System.lineSeparator()
-                );
+                File conversationFile = new File(FILE_LOC + name + ".bin");
+                File segmentFile = new File(FILE_LOC + name + ".seg");
+                MessageSegment segment = c.getSegment();
+                boolean rewrite = !incremental || c.isDirty() || segment == null
+                        || !segment.getFile().equals(segmentFile) || !conversationFile.exists();
+                if (!rewrite && !c.isBodyResident()) {
+                    // Evicted (or never read) since it was last saved, so nothing can have changed
+                    continue;
+                }
+                ArrayList<Message> messages = c.snapshotMessages();
+                int messageCount = messages.size();
+                int firstToWrite = (rewrite ? 0 : c.getPersistedMessageCount());
+                Set<Message> changed = c.takeChangedMessages();
+                if (firstToWrite >= messageCount && !rewrite && changed.isEmpty()) {
+                    // Nothing new
+                    continue;
+                }
                 
-                for (Message m : c.getMessages()) {
-                    // write a line here ;_;
-                    // timeSent, senderId, receiverId, canSenderView, canReceiverView, messageContent
-                    // timeSent;senderType{CUSTOMER,SELLER};canSenderView;canReceiverView;messageContent
-                    User sender = (c.getCustomer().getEmail().equals(m.getSenderEmail())
-                            ? c.getCustomer() : c.getSeller());
-                    conversationFileWriter.append(String.valueOf(m.getTimeSent())).append(DELIMITER)
-                            .append(sender instanceof Customer ? "CUSTOMER" : "SELLER").append(DELIMITER)
-                            .append(String.valueOf(m.canSenderView())).append(DELIMITER)
-                            .append(String.valueOf(m.canReceiverView())).append(DELIMITER)
-                            .append(clean(m.getMessageContent())).append(System.lineSeparator());
+                // Cleared first so that changes made while writing are saved next time
+                c.markPersisted(messageCount);
+                try {
+                    if (rewrite) {
+                        bytesWritten += BinarySnapshot.writeConversation(conversationFile, c);
+                        segment = MessageSegment.create(segmentFile, c,
+                                new ArrayList<>(messages.subList(0, messageCount)));
+                        c.setSegment(segment);
+                    } else {
+                        // Edited Messages are updated in place; new ones are appended
+                        for (int i = 0; i < firstToWrite && !changed.isEmpty(); i++) {
+                            Message m = messages.get(i);
+                            if (changed.remove(m)) {
+                                bytesWritten += segment.update(i, m, c);
+                            }
+                        }
+                        for (int i = firstToWrite; i < messageCount; i++) {
+                            bytesWritten += segment.append(messages.get(i), c);
+                        }
+                    }
+                    segment.force();
+                } catch (IOException ioe) {
+                    c.markDirty();
+                    throw ioe;
                 }
-                conversationFileWriter.flush();
-                conversationFileWriter.close();
             }
             
-            File conversationListFile = new File(FILE_LOC + "conversation_list.ssv");
-            BufferedWriter conversationListWriter =
-                    new BufferedWriter(new FileWriter(conversationListFile, false));
-            
-            for (String conversationName : usedConversationNames) {
-                conversationListWriter.append(conversationName).append(System.lineSeparator());
+            if (!incremental || !usedConversationNames.equals(savedConversationNames)) {
+                bytesWritten += BinarySnapshot.writeConversationList(new File(FILE_LOC + "conversation_list.bin"),
+                        usedConversationNames);
+                savedConversationNames = usedConversationNames;
             }
             
-            conversationListWriter.flush();
-            conversationListWriter.close();
+            if (log != null) {
+                log.endCheckpoint();
+            }
         } catch (IOException e) {
             System.err.println("Error saving data! Details: ");
             e.printStackTrace();
         }
+        return bytesWritten;
     }
     
     /**
@@ -360,7 +735,8 @@ public class Server extends ServerSocket {
     }
     
     /**
-     * Overrides the ServerSocket method to accept a connection and spawn a Thread controlling it
+     * Overrides the ServerSocket method to accept a connection and start a session serving it on the
+     * {@link ConnectionExecutor}. If the session limit has been reached the connection is closed straight away
      *
      * @return the Socket connected
      * @throws IOException from ServerSocket.accept();
@@ -370,119 +746,266 @@ public class Server extends ServerSocket {
         // Accept the connection as normal, then process it afterwards. Store this new client to the socket
         Socket socket = super.accept();
         
-        // Add this socket to the list
-        clients.add(socket);
-        
-        // Increase total thread count and store it to threadNum to pass to the Thread
+        // Increase total session count and store it to threadNum to pass to the session
         final int threadNum = ++threadCountCreated;
         
-        // Create and store a new Thread to keep this client relationship alive.
-        // Using Runnable instead of lambda for backwards compatibility.
-        threads.add(new Thread(new Runnable() {
-            @Override
-            public void run() {
-                // Surrounding to try to catch some issues (just throws them back for now)
-                try {
-                    if (printDebug) {
-                        // sout an update, can remove later
-                        System.out.printf("[%d] In thread %1$d (client #%1$d) on port %d%n",
-                                threadNum, socket.getPort());
-                    }
-                    // Make a DataBundle to store all the data and easily pass it around (and prevent duplicate OOS's)
-                    final DataBundle dataBundle = new DataBundle(threadCountCreated, socket);
-                    
-                    // Keep repeating these operations until the socket closes or crashes
-                    while (socket.isConnected()) {
-                        if (printDebug) {
-                            System.out.printf("[%d] Waiting for next request from client #%1$d%n",
-                                    dataBundle.threadNum);
-                        }
-                        // Store the new version of the data and print an update (or remove updates later)
-                        int operationOrdinal = dataBundle.is.read();
-                        // Socket closed, terminate this thread
-                        if (operationOrdinal == -1) {
-                            throw new SocketException("Catch this!");
-                        }
-                        dataBundle.operation = Operation.values()[operationOrdinal];
-                        dataBundle.numObjects = dataBundle.is.read();
-                        if (printDebug) {
-                            System.out.printf("[%d] Received operation %s with %d objects passed.%n",
-                                    dataBundle.threadNum, dataBundle.operation.toString(), dataBundle.numObjects);
-                        }
-                        
-                        // Depending on the operation, call the appropriate method
-                        switch (dataBundle.operation) {
-                            case Message -> doMessage(dataBundle);
-                            case GetUser -> doGetUser(dataBundle);
-                            case UserExists -> doUserExists(dataBundle);
-                            case AllStoresAsString -> doGetAllStoresAsString(dataBundle);
-                            case GetAllSellers -> doGetAllSellers(dataBundle);
-                            case GetSellerFromStore -> doGetSellerFromStore(dataBundle);
-                            case ListCustomers -> doListCustomers(dataBundle);
-                            case GetAllCustomers -> doGetAllCustomers(dataBundle);
-                            case GetConversationsWithUser -> doGetConversationsWithUser(dataBundle);
-                            case SetMessageContent -> doSetMessageContent(dataBundle);
-                            case AddMessageToConversation -> doAddMessageToConversation(dataBundle);
-                            case UserBlocksUser -> doUserBlocksUser(dataBundle);
-                            case UserInvisibleToUser -> doUserInvisibleToUser(dataBundle);
-                            case GetConversationWithUsers -> doGetConversationWithUsers(dataBundle);
-                            case CreateCustomer -> doCreateCustomer(dataBundle);
-                            case CreateSeller -> doCreateSeller(dataBundle);
-                            case CreateMessage -> doCreateMessage(dataBundle);
-                            case CreateConversation -> doCreateConversation(dataBundle);
-                            case SellerAddStore -> doSellerAddStore(dataBundle);
-                            case GetConversationWithUsersWithStore -> doGetConversationWithUsersWithStore(dataBundle);
-                            case SendMessageFromFile -> doSendMessageFromFile(dataBundle);
-                            case SetUserName -> doSetUserName(dataBundle);
-                            case SetUserPass -> doSetUserPass(dataBundle);
-                            case DeleteUserAccount -> doDeleteUserAccount(dataBundle);
-                            case Disconnect -> {
-                                if (printDebug) {
-                                    System.out.printf("[%d] Client #%1$d disconnected%n", threadNum);
-                                }
-                                return;
-                            }
-                            case Exit -> doExit(dataBundle);
-                            default -> {
-                                // If the Operation is not recognised, clean the inputs, and print an error
-                                for (int i = 0; i < dataBundle.numObjects; i++) {
-                                    dataBundle.ois.readObject();
-                                }
-                                if (printDebug) {
-                                    System.err.printf(
-                                            "[%d] Operation %s not recognised/implemented (passed %d Objects)%n",
-                                            dataBundle.threadNum, dataBundle.operation.toString(),
-                                            dataBundle.numObjects);
-                                }
-                            }
-                        }
-                    }
-                } catch (SocketException se) {
-                    // Almost certainly an issue with the socket disconnecting. Try to close it just in case it wasn't.
-                    try {
-                        socket.close();
-                        saveToMemory();
-                        return;
-                    } catch (IOException e) {
-                        // Ignored.
-                    }
-                    if (printDebug) {
-                        System.err.printf("[%d] Client #%1$d disconnected unexpectedly. Thread %1$d terminated.%n",
-                                threadNum);
-                    }
-                } catch (IOException | ClassNotFoundException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }));
-        
-        // Start the new Thread
-        threads.get(threads.size() - 1).start();
+        if (!connections.submit(threadNum, socket, () -> serveClient(threadNum, socket))) {
+            socket.close();
+            System.err.printf("[%d] Turned away client #%1$d; already serving %d clients%n", threadNum,
+                    connections.getMaxSessions());
+        } else if (printDebug) {
+            System.out.printf("[%d] %d active sessions (peak %d, %d turned away)%n", threadNum,
+                    connections.getActiveSessions(), connections.getPeakSessions(),
+                    connections.getRejectedSessions());
+        }
         
         // Return the socket connected to this client back
         return socket;
     }
     
+    /**
+     * Serves one client's requests until it disconnects. Runs on the {@link ConnectionExecutor}, which closes the
+     * socket afterwards
+     *
+     * @param threadNum the number of this client's session
+     * @param socket    the client's socket
+     */
+    private void serveClient(int threadNum, Socket socket) {
+        // Surrounding to try to catch some issues (just throws them back for now)
+        try {
+            if (printDebug) {
+                // sout an update, can remove later
+                System.out.printf("[%d] In thread %1$d (client #%1$d) on port %d%n",
+                        threadNum, socket.getPort());
+            }
+            // Make a DataBundle to store all the data and easily pass it around (and prevent duplicate OOS's)
+            InputStream is = socket.getInputStream();
+            ObjectInputStream ois = new ObjectInputStream(is);
+            // Buffered so that each reply (with any reset before it) leaves in one packet
+            OutputStream os = new BufferedOutputStream(socket.getOutputStream());
+            SessionObjectOutputStream oos = new SessionObjectOutputStream(os, streamResetThresholdBytes);
+            // The client waits for the stream header
+            oos.flush();
+            final DataBundle dataBundle = new DataBundle(threadNum, socket, is, ois, os, oos);
+            
+            // Keep repeating these operations until the socket closes or crashes
+            while (socket.isConnected()) {
+                if (printDebug) {
+                    System.out.printf("[%d] Waiting for next request from client #%1$d%n",
+                            dataBundle.threadNum);
+                }
+                // Store the new version of the data and print an update (or remove updates later)
+                int operationOrdinal = dataBundle.is.read();
+                // Socket closed, terminate this thread
+                if (operationOrdinal == -1) {
+                    throw new SocketException("Catch this!");
+                }
+                dataBundle.operation = Operation.values()[operationOrdinal];
+                dataBundle.numObjects = dataBundle.is.read();
+                if (printDebug) {
+                    System.out.printf("[%d] Received operation %s with %d objects passed.%n",
+                            dataBundle.threadNum, dataBundle.operation.toString(), dataBundle.numObjects);
+                }
+                
+                oos.resetIfDue();
+                if (!dispatch(dataBundle)) {
+                    return;
+                }
+                // Also flushes replies (and resets) the handler didn't
+                oos.flush();
+            }
+        } catch (SocketException se) {
+            // Almost certainly an issue with the socket disconnecting. Try to close it just in case it wasn't.
+            // Every change this client made is already in the write-ahead log, so nothing needs saving here
+            try {
+                socket.close();
+                return;
+            } catch (IOException e) {
+                // Ignored.
+            }
+            if (printDebug) {
+                System.err.printf("[%d] Client #%1$d disconnected unexpectedly. Thread %1$d terminated.%n",
+                        threadNum);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Runs the {@link Operation} read into the given {@link DataBundle}, reading its objects from data.ois and writing
+     * any reply to data.oos
+     *
+     * @param dataBundle the {@link DataBundle} containing the socket, the thread's information and the operation
+     * @return false if the client disconnected, true otherwise
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private boolean dispatch(DataBundle dataBundle) throws IOException, ClassNotFoundException {
+        // Depending on the operation, call the appropriate method
+        switch (dataBundle.operation) {
+            case Message -> doMessage(dataBundle);
+            case GetUser -> doGetUser(dataBundle);
+            case UserExists -> doUserExists(dataBundle);
+            case AllStoresAsString -> doGetAllStoresAsString(dataBundle);
+            case GetAllSellers -> doGetAllSellers(dataBundle);
+            case GetSellerFromStore -> doGetSellerFromStore(dataBundle);
+            case ListCustomers -> doListCustomers(dataBundle);
+            case GetAllCustomers -> doGetAllCustomers(dataBundle);
+            case GetConversationsWithUser -> doGetConversationsWithUser(dataBundle);
+            case SetMessageContent -> doSetMessageContent(dataBundle);
+            case AddMessageToConversation -> doAddMessageToConversation(dataBundle);
+            case UserBlocksUser -> doUserBlocksUser(dataBundle);
+            case UserInvisibleToUser -> doUserInvisibleToUser(dataBundle);
+            case GetConversationWithUsers -> doGetConversationWithUsers(dataBundle);
+            case CreateCustomer -> doCreateCustomer(dataBundle);
+            case CreateSeller -> doCreateSeller(dataBundle);
+            case CreateMessage -> doCreateMessage(dataBundle);
+            case CreateConversation -> doCreateConversation(dataBundle);
+            case SellerAddStore -> doSellerAddStore(dataBundle);
+            case GetConversationWithUsersWithStore -> doGetConversationWithUsersWithStore(dataBundle);
+            case SendMessageFromFile -> doSendMessageFromFile(dataBundle);
+            case SetUserName -> doSetUserName(dataBundle);
+            case SetUserPass -> doSetUserPass(dataBundle);
+            case DeleteUserAccount -> doDeleteUserAccount(dataBundle);
+            case Batch -> doBatch(dataBundle);
+            case SyncConversationsWithUser -> doSyncConversationsWithUser(dataBundle);
+            case Subscribe -> doSubscribe(dataBundle);
+            case Unsubscribe -> doUnsubscribe(dataBundle);
+            case GetConversationSummaries -> doGetConversationSummaries(dataBundle);
+            case GetMessagePage -> doGetMessagePage(dataBundle);
+            case GetConversationCSV -> doGetConversationCSV(dataBundle);
+            case Disconnect -> {
+                if (printDebug) {
+                    System.out.printf("[%d] Client #%1$d disconnected%n", dataBundle.threadNum);
+                }
+                return false;
+            }
+            case Exit -> doExit(dataBundle);
+            default -> {
+                // If the Operation is not recognised, clean the inputs, and print an error
+                for (int i = 0; i < dataBundle.numObjects; i++) {
+                    dataBundle.ois.readObject();
+                }
+                if (printDebug) {
+                    System.err.printf(
+                            "[%d] Operation %s not recognised/implemented (passed %d Objects)%n",
+                            dataBundle.threadNum, dataBundle.operation.toString(),
+                            dataBundle.numObjects);
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Runs one request frame from a client of the {@link SelectorEngine}. A serialized frame holds the
+     * {@link Operation}'s ordinal, the number of objects passed and then a serialization stream of those objects, just
+     * as a blocking client sends them; a binary frame holds the same after the {@link WireCodec} marker, with the
+     * objects in the binary protocol
+     *
+     * @param sessionNumber the number of the client's connection
+     * @param channel       the client's channel
+     * @param request       the request frame
+     * @param sink          pushes further frames for the request, or null if it is not tagged
+     * @return the reply frame (in the same protocol as the request, or empty if the operation has no reply), or null
+     * if the client disconnected
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private byte[] serveFrame(int sessionNumber, SocketChannel channel, byte[] request, SelectorEngine.FrameSink sink)
+            throws IOException, ClassNotFoundException {
+        boolean binary = WireCodec.isBinaryFrame(request);
+        int start = (binary ? 1 : 0);
+        if (request.length < start + 2) {
+            throw new StreamCorruptedException("Request frame of " + request.length + " bytes");
+        }
+        int operationOrdinal = request[start] & 0xFF;
+        if (operationOrdinal >= Operation.values().length) {
+            throw new StreamCorruptedException("Unknown operation " + operationOrdinal);
+        }
+        Operation operation = Operation.values()[operationOrdinal];
+        InputStream arguments = new ByteArrayInputStream(request, start + 2, request.length - start - 2);
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        DataBundle dataBundle;
+        if (binary) {
+            reply.write(WireCodec.FRAME_MARKER);
+            dataBundle = new DataBundle(sessionNumber, channel.socket(), arguments,
+                    new WireCodec.RequestReader(arguments, operation), reply, new WireCodec.ReplyWriter(reply));
+        } else {
+            dataBundle = new DataBundle(sessionNumber, channel.socket(), arguments, reply);
+        }
+        // Only the marker or stream header so far
+        int headerLength = reply.size();
+        dataBundle.operation = operation;
+        dataBundle.numObjects = request[start + 1] & 0xFF;
+        dataBundle.sink = sink;
+        if (printDebug) {
+            System.out.printf("[%d] Received %s operation %s with %d objects passed.%n", dataBundle.threadNum,
+                    (binary ? "binary" : "framed"), dataBundle.operation.toString(), dataBundle.numObjects);
+        }
+        
+        if (!dispatch(dataBundle)) {
+            return null;
+        }
+        dataBundle.oos.flush();
+        return (reply.size() > headerLength ? reply.toByteArray() : new byte[0]);
+    }
+    
+    /**
+     * Opens a {@link SelectorEngine} serving framed clients on another port, alongside the blocking sessions on this
+     * {@link Server}'s own port. It is closed along with this {@link Server}
+     *
+     * @param port           the port for framed clients (0 for any free port)
+     * @param eventLoops     the number of threads watching connections
+     * @param workerThreads  the number of threads running requests
+     * @param maxConnections the most framed clients connected at once
+     * @return the started {@link SelectorEngine}
+     * @throws IOException if the port could not be bound
+     */
+    public synchronized SelectorEngine startSelectorEngine(int port, int eventLoops, int workerThreads,
+                                                           int maxConnections) throws IOException {
+        if (selectorEngine != null) {
+            throw new IllegalStateException("The selector engine is already running on port "
+                    + selectorEngine.getPort());
+        }
+        selectorEngine = new SelectorEngine(port, eventLoops, workerThreads, maxConnections, this::serveFrame,
+                printDebug);
+        return selectorEngine;
+    }
+    
+    /**
+     * Sets how often blocking sessions started from now on reset their reply streams (see
+     * {@link SessionObjectOutputStream})
+     *
+     * @param bytes how many bytes may be written before the stream is reset; 0 to reset before every reply
+     */
+    public void setStreamResetThreshold(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The reset threshold can't be negative");
+        }
+        streamResetThresholdBytes = bytes;
+    }
+    
+    /**
+     * Returns what runs this {@link Server}'s client sessions, for its metrics
+     *
+     * @return the {@link ConnectionExecutor}
+     */
+    public ConnectionExecutor getConnectionExecutor() {
+        return connections;
+    }
+    
+    /**
+     * Returns what runs this {@link Server}'s checkpoints, for their metrics (how many have run, how long they took
+     * and how many bytes they wrote)
+     *
+     * @return the {@link CheckpointScheduler}, or null if this {@link Server} has been closed
+     */
+    public CheckpointScheduler getCheckpointScheduler() {
+        return checkpointScheduler;
+    }
+    
     /**
      * Prints a message sent to the server
      *
@@ -546,8 +1069,8 @@ public class Server extends ServerSocket {
             // Don't need to dump stream because it's being closed anyhow
         }
         
+        // close() runs the final checkpoint
         data.socket.close();
-        saveToMemory();
         this.close();
     }
     
@@ -693,6 +1216,233 @@ public class Server extends ServerSocket {
         dumpOISStream(data, 1);
     }
     
+    /**
+     * Works out what changed in the passed {@link User}'s {@link Conversation}s since the passed {@link SyncCursor}
+     * (null for everything) and writes the {@link ConversationDelta} to data.oos
+     *
+     * @param data the {@link DataBundle} containing the socket and thread's information
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doSyncConversationsWithUser(DataBundle data) throws IOException, ClassNotFoundException {
+        if (data.numObjects != 2) {
+            System.err.printf(inputCountErrorMessage, data.threadNum, data.operation, 2, data.numObjects);
+            if (data.numObjects == 0) {
+                data.oos.writeObject(null);
+                data.oos.flush();
+                return;
+            }
+        }
+        
+        User user = (User) data.ois.readObject();
+        SyncCursor cursor = (data.numObjects > 1 ? (SyncCursor) data.ois.readObject() : null);
+        data.oos.writeObject(ConversationDelta.since(user, cursor));
+        data.oos.flush();
+        
+        dumpOISStream(data, 2);
+    }
+    
+    /**
+     * Writes a {@link ConversationSummary} of each of the passed {@link User}'s {@link Conversation}s to data.oos,
+     * the one with the latest {@link Message} first
+     *
+     * @param data the {@link DataBundle} containing the socket and thread's information
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doGetConversationSummaries(DataBundle data) throws IOException, ClassNotFoundException {
+        if (data.numObjects != 1) {
+            System.err.printf(inputCountErrorMessage, data.threadNum, data.operation, 1, data.numObjects);
+            if (data.numObjects == 0) {
+                data.oos.writeObject(null);
+                data.oos.flush();
+                return;
+            }
+        }
+        
+        User user = (User) data.ois.readObject();
+        ArrayList<ConversationSummary> summaries = new ArrayList<>();
+        if (user != null) {
+            for (Conversation c : MainListOfConversations.getConversationsWithUser(user)) {
+                summaries.add(ConversationSummary.of(c, user));
+            }
+            summaries.sort(Comparator.comparingLong(ConversationSummary::getLastMessageTime).reversed());
+        }
+        data.oos.writeObject(summaries);
+        data.oos.flush();
+        
+        dumpOISStream(data, 1);
+    }
+    
+    /**
+     * Writes a {@link MessagePage} of the passed {@link Conversation}, as the passed {@link User} sees it, to data.oos:
+     * up to the passed number of the {@link Message}s they can see before (or, if the passed boolean is true, after)
+     * the one with the passed id, or the latest (or earliest) if the id is null or 0. Writes null if there is no such
+     * {@link Conversation} or {@link Message}, or no {@link User} was passed or they are not in the
+     * {@link Conversation}; a page is never sent unfiltered
+     *
+     * @param data the {@link DataBundle} containing the socket and thread's information
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doGetMessagePage(DataBundle data) throws IOException, ClassNotFoundException {
+        if (data.numObjects != 5) {
+            System.err.printf(inputCountErrorMessage, data.threadNum, data.operation, 5, data.numObjects);
+            if (data.numObjects < 5) {
+                data.oos.writeObject(null);
+                data.oos.flush();
+                dumpOISStream(data, 0);
+                return;
+            }
+        }
+        
+        Conversation conversation = MainListOfConversations.getConversation((Conversation) data.ois.readObject());
+        Long anchorId = (Long) data.ois.readObject();
+        Boolean after = (Boolean) data.ois.readObject();
+        Integer size = (Integer) data.ois.readObject();
+        User viewer = (User) data.ois.readObject();
+        int pageSize = Math.max(0, Math.min(size == null ? 0 : size, MessagePage.MAX_PAGE_SIZE));
+        long anchor = (anchorId == null ? 0 : anchorId);
+        boolean isAfter = Boolean.TRUE.equals(after);
+        
+        MessagePage page = null;
+        if (conversation != null && viewer != null) {
+            // The server's own copy, so its blocked phrases are current
+            User serverViewer = User.getUser(viewer.getEmail());
+            if (serverViewer != null && isInConversation(conversation, serverViewer)) {
+                page = ConversationView.page(conversation, serverViewer, anchor, isAfter, pageSize);
+            }
+        }
+        data.oos.writeObject(page);
+        data.oos.flush();
+        
+        dumpOISStream(data, 5);
+    }
+    
+    /**
+     * Gets a {@link Conversation} as CSV, as one of its {@link User}s sees it
+     *
+     * @param data the {@link DataBundle} with the {@link ObjectInputStream} and {@link ObjectOutputStream}
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doGetConversationCSV(DataBundle data) throws IOException, ClassNotFoundException {
+        if (data.numObjects != 2) {
+            System.err.printf(inputCountErrorMessage, data.threadNum, data.operation, 2, data.numObjects);
+            if (data.numObjects < 2) {
+                data.oos.writeObject(null);
+                data.oos.flush();
+                dumpOISStream(data, 0);
+                return;
+            }
+        }
+        
+        Conversation conversation = MainListOfConversations.getConversation((Conversation) data.ois.readObject());
+        User viewer = (User) data.ois.readObject();
+        User serverViewer = (viewer == null ? null : User.getUser(viewer.getEmail()));
+        
+        data.oos.writeObject(conversation == null || serverViewer == null
+                || !isInConversation(conversation, serverViewer) ? null : conversation.asCSV(serverViewer));
+        data.oos.flush();
+        
+        dumpOISStream(data, 2);
+    }
+    
+    /**
+     * Returns whether a {@link User} is one of the two in a {@link Conversation}
+     *
+     * @param c    the {@link Conversation}
+     * @param user the {@link User}
+     * @return whether they are its seller or its customer
+     */
+    private static boolean isInConversation(Conversation c, User user) {
+        return c.getSeller().getEmail().equals(user.getEmail()) || c.getCustomer().getEmail().equals(user.getEmail());
+    }
+    
+    /**
+     * Subscribes the client to new {@link Message}s in the passed {@link User}'s {@link Conversation}s, which are
+     * then pushed to it as {@link MessageEvent}s under this request's id (see {@link MessageSubscriptions}). Only a
+     * tagged request to the {@link SelectorEngine} can subscribe. Writes whether the client was subscribed to data.oos
+     *
+     * @param data the {@link DataBundle} containing the socket and thread's information
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doSubscribe(DataBundle data) throws IOException, ClassNotFoundException {
+        if (data.numObjects != 1) {
+            System.err.printf(inputCountErrorMessage, data.threadNum, data.operation, 1, data.numObjects);
+            if (data.numObjects == 0) {
+                data.oos.writeObject(false);
+                data.oos.flush();
+                return;
+            }
+        }
+        
+        User user = (User) data.ois.readObject();
+        boolean subscribed = false;
+        if (data.sink == null) {
+            System.err.printf("[%d] Client #%1$d can't subscribe without a tagged request%n", data.threadNum);
+        } else if (user != null && User.getUser(user.getEmail()) != null) {
+            boolean binary = data.oos instanceof WireCodec.ReplyWriter;
+            MessageSubscriptions.subscribe(user.getEmail(), data.threadNum, data.sink,
+                    events -> encodePush(binary, events));
+            subscribed = true;
+        }
+        data.oos.writeObject(subscribed);
+        data.oos.flush();
+        
+        dumpOISStream(data, 1);
+    }
+    
+    /**
+     * Ends the client's subscription to the passed {@link User}'s new {@link Message}s and writes whether it was
+     * subscribed to data.oos
+     *
+     * @param data the {@link DataBundle} containing the socket and thread's information
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doUnsubscribe(DataBundle data) throws IOException, ClassNotFoundException {
+        if (data.numObjects != 1) {
+            System.err.printf(inputCountErrorMessage, data.threadNum, data.operation, 1, data.numObjects);
+            if (data.numObjects == 0) {
+                data.oos.writeObject(false);
+                data.oos.flush();
+                return;
+            }
+        }
+        
+        User user = (User) data.ois.readObject();
+        // Only SelectorEngine connections subscribe, and their numbers are counted apart from blocking sessions'
+        data.oos.writeObject(data.sink != null && user != null
+                && MessageSubscriptions.unsubscribe(user.getEmail(), data.threadNum));
+        data.oos.flush();
+        
+        dumpOISStream(data, 1);
+    }
+    
+    /**
+     * Encodes a frame to push to a client of the {@link SelectorEngine}, as a reply in its protocol would be
+     *
+     * @param binary whether the client speaks the {@link WireCodec} binary protocol
+     * @param value  what to push
+     * @return the frame
+     * @throws IOException if the value could not be encoded
+     */
+    private static byte[] encodePush(boolean binary, Object value) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        ObjectOutputStream out;
+        if (binary) {
+            frame.write(WireCodec.FRAME_MARKER);
+            out = new WireCodec.ReplyWriter(frame);
+        } else {
+            out = new ObjectOutputStream(frame);
+        }
+        out.writeObject(value);
+        out.flush();
+        return frame.toByteArray();
+    }
+    
     /**
      * Sets the {@link Message} content to a {@link String} passed and writes the new version of the passed
      * {@link Message} to data.oos
@@ -718,13 +1468,14 @@ public class Server extends ServerSocket {
         Conversation toFind = messageToEdit.getParent();
         Conversation found = MainListOfConversations.getConversation(toFind);
         
-        Message actualMessage = found.getMessageByTimestamp(messageToEdit.getTimeSent());
+        Message actualMessage = found.editMessage(messageToEdit.getId(), messageToEdit.getTimeSent(), contentToSet);
         
         if (actualMessage == null) {
             System.err.printf("[%d] Failed in doSetMessageContent; actualMessage is null, found: %s%n",
                     data.threadNum, found);
         } else {
-            messageToEdit.setMessageContent(contentToSet);
+            logChange(WriteAheadLog.EDIT_MESSAGE, found.getSeller().getEmail(), found.getStore(),
+                    found.getCustomer().getEmail(), String.valueOf(actualMessage.getId()), contentToSet);
         }
         
         data.oos.writeObject(actualMessage);
@@ -756,7 +1507,10 @@ public class Server extends ServerSocket {
         
         Conversation found = MainListOfConversations.getConversation(conversationToEdit);
         
-        found.addMessage(messageToAdd);
+        if (found.addMessage(messageToAdd)) {
+            logAddMessage(found, messageToAdd);
+            MessageSubscriptions.publish(found, messageToAdd);
+        }
         
         data.oos.writeObject(found);
         data.oos.flush();
@@ -788,6 +1542,7 @@ public class Server extends ServerSocket {
         
         if (!toEdit.getBlockedEmails().contains(userToBlock.getEmail())) {
             toEdit.blockUser(userToBlock.getEmail());
+            logChange(WriteAheadLog.BLOCK_USER, toEdit.getEmail(), userToBlock.getEmail());
         }
         
         data.oos.writeObject(toEdit);
@@ -821,6 +1576,7 @@ public class Server extends ServerSocket {
         
         if (!userToEdit.getInvisEmails().contains(userToHideFrom.getEmail())) {
             toEdit.becomeInvisibleToUser(userToHideFrom.getEmail());
+            logChange(WriteAheadLog.INVISIBLE_TO_USER, toEdit.getEmail(), userToHideFrom.getEmail());
         }
         
         data.oos.writeObject(toEdit);
@@ -882,6 +1638,10 @@ public class Server extends ServerSocket {
             }
         }
         
+        if (customer != null) {
+            logCreateUser(customer);
+        }
+        
         data.oos.writeObject(customer);
         
         dumpOISStream(data, 4);
@@ -917,6 +1677,10 @@ public class Server extends ServerSocket {
             }
         }
         
+        if (seller != null) {
+            logCreateUser(seller);
+        }
+        
         data.oos.writeObject(seller);
         
         dumpOISStream(data, 5);
@@ -946,6 +1710,7 @@ public class Server extends ServerSocket {
         );
         Conversation found = MainListOfConversations.getConversation((Conversation) data.ois.readObject());
         m.setParent(found);
+        m.setId(MessageIdGenerator.nextId());
         
         data.oos.writeObject(m);
         data.oos.flush();
@@ -971,10 +1736,14 @@ public class Server extends ServerSocket {
             }
         }
         
-        data.oos.writeObject(new Conversation(
+        Conversation conversation = new Conversation(
                 (Seller) data.ois.readObject(), (String) data.ois.readObject(), (Customer) data.ois.readObject(),
                 (Boolean) data.ois.readObject()
-        ));
+        );
+        logChange(WriteAheadLog.CREATE_CONVERSATION, conversation.getSeller().getEmail(), conversation.getStore(),
+                conversation.getCustomer().getEmail(), String.valueOf(conversation.isDisappearing()));
+        
+        data.oos.writeObject(conversation);
         
         dumpOISStream(data, 4);
     }
@@ -1002,6 +1771,7 @@ public class Server extends ServerSocket {
         Seller toEdit = (Seller) User.getUser(sellerToEdit.getEmail());
         
         toEdit.addStoreName(storeName);
+        logChange(WriteAheadLog.ADD_STORE, toEdit.getEmail(), storeName);
         
         data.oos.writeObject(toEdit);
         data.oos.flush();
@@ -1071,7 +1841,9 @@ public class Server extends ServerSocket {
             return;
         }
         
-        conversation.sendMessageFromFile((User) data.ois.readObject(), (File) data.ois.readObject());
+        Message sent = conversation.sendMessageFromFile((User) data.ois.readObject(), (File) data.ois.readObject());
+        logAddMessage(conversation, sent);
+        MessageSubscriptions.publish(conversation, sent);
         
         data.oos.writeObject(conversation);
         data.oos.flush();
@@ -1099,6 +1871,7 @@ public class Server extends ServerSocket {
         
         User toEdit = User.getUser(((User) data.ois.readObject()).getEmail());
         toEdit.setName((String) data.ois.readObject());
+        logChange(WriteAheadLog.SET_USER_NAME, toEdit.getEmail(), toEdit.getName());
         
         data.oos.writeObject(toEdit);
         data.oos.flush();
@@ -1126,6 +1899,7 @@ public class Server extends ServerSocket {
         
         User toEdit = User.getUser(((User) data.ois.readObject()).getEmail());
         toEdit.setPassword((String) data.ois.readObject());
+        logChange(WriteAheadLog.SET_USER_PASS, toEdit.getEmail(), toEdit.getPassword());
         
         data.oos.writeObject(toEdit);
         data.oos.flush();
@@ -1151,7 +1925,11 @@ public class Server extends ServerSocket {
             }
         }
         
-        User.removeUser(User.getUser(((User) data.ois.readObject()).getEmail()));
+        User toDelete = User.getUser(((User) data.ois.readObject()).getEmail());
+        User.removeUser(toDelete);
+        if (toDelete != null) {
+            logChange(WriteAheadLog.DELETE_USER, toDelete.getEmail());
+        }
         
         data.oos.writeObject(null);
         data.oos.flush();
@@ -1159,6 +1937,74 @@ public class Server extends ServerSocket {
         dumpOISStream(data, 1);
     }
     
+    /**
+     * Runs a batch of requests in order and writes an {@link ArrayList} of their replies (null for a request without
+     * one) to data.oos. data.numObjects is the number of requests, each of which follows as its {@link Operation}'s
+     * ordinal, the number of objects passed and the objects, just as it would be sent on its own. Batches can't hold
+     * other batches, disconnects, exits, subscriptions or unsubscriptions; those requests are skipped and reply null
+     *
+     * @param data the {@link DataBundle} containing the socket and thread's information
+     * @throws IOException            if an {@link IOException} occurs
+     * @throws ClassNotFoundException if a {@link ClassNotFoundException} occurs
+     */
+    private void doBatch(DataBundle data) throws IOException, ClassNotFoundException {
+        ArrayList<Object> replies = new ArrayList<>(data.numObjects);
+        ReplyCapture capture = new ReplyCapture();
+        // A binary request's objects are read by a schema that depends on the operation
+        boolean binary = data.ois instanceof WireCodec.RequestReader;
+        for (int i = 0; i < data.numObjects; i++) {
+            int operationOrdinal = data.is.read();
+            int numObjects = data.is.read();
+            if (numObjects == -1) {
+                throw new EOFException("Batch ended after " + i + " of " + data.numObjects + " requests");
+            }
+            if (operationOrdinal >= Operation.values().length) {
+                throw new StreamCorruptedException("Unknown operation " + operationOrdinal);
+            }
+            Operation operation = Operation.values()[operationOrdinal];
+            ObjectInputStream ois = (binary ? new WireCodec.RequestReader(data.is, operation) : data.ois);
+            DataBundle request = new DataBundle(data.threadNum, data.socket, data.is, ois, data.os, capture);
+            request.operation = operation;
+            request.numObjects = numObjects;
+            
+            switch (operation) {
+                // Subscriptions are pushed against the frame that asked for them, which a batched request has not
+                case Batch, Disconnect, Exit, Subscribe, Unsubscribe -> {
+                    System.err.printf("[%d] Client #%1$d can't batch operation %s; skipped%n", data.threadNum,
+                            operation);
+                    dumpOISStream(request, 0);
+                }
+                default -> dispatch(request);
+            }
+            replies.add(capture.take());
+        }
+        if (printDebug) {
+            System.out.printf("[%d] Ran a batch of %d requests from client #%1$d%n", data.threadNum, replies.size());
+        }
+        
+        data.oos.writeObject(replies);
+        data.oos.flush();
+    }
+    
+    /**
+     * Appends the record for a newly created {@link User} to the {@link WriteAheadLog}
+     *
+     * @param user the {@link User} created
+     */
+    private static void logCreateUser(User user) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            return;
+        }
+        try {
+            // toFileLine() is already cleaned
+            noteLogged(log.append(WriteAheadLog.CREATE_USER, user.toFileLine()));
+        } catch (IOException ioe) {
+            System.err.println("Error writing to the write-ahead log! Details: ");
+            ioe.printStackTrace();
+        }
+    }
+    
     /**
      * Reads (data.numObjects - consumed) objects from data.ois
      *
@@ -1182,20 +2028,80 @@ public class Server extends ServerSocket {
      */
     @Override
     public void close() throws IOException {
-        saveToMemory();
+        // Stop serving first so nothing changes after the final checkpoint
+        connections.close();
+        SelectorEngine engine = selectorEngine;
+        if (engine != null) {
+            selectorEngine = null;
+            engine.close();
+        }
         
-        for (Thread t : threads) {
-            if (t.isAlive()) {
-                t.interrupt();
-            }
+        CheckpointScheduler scheduler = checkpointScheduler;
+        if (scheduler != null) {
+            // Runs the final checkpoint
+            checkpointScheduler = null;
+            scheduler.close();
+        } else {
+            saveToMemory();
         }
-        for (Socket socket : clients) {
-            socket.close();
+        
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            writeAheadLog = null;
+            log.close();
         }
         
         super.close();
     }
     
+    /**
+     * Keeps the reply a handler writes instead of sending it, so a batched request's reply can be sent along with the
+     * rest of its batch's
+     */
+    private static final class ReplyCapture extends ObjectOutputStream {
+        private Object reply;
+        
+        /**
+         * A {@link ReplyCapture} constructor
+         *
+         * @throws IOException never; declared by {@link ObjectOutputStream}
+         */
+        ReplyCapture() throws IOException {
+            super();
+        }
+        
+        @Override
+        protected void writeObjectOverride(Object obj) {
+            reply = obj;
+        }
+        
+        /**
+         * Does nothing: nothing is sent
+         */
+        @Override
+        public void flush() {
+        }
+        
+        /**
+         * Does nothing: nothing is sent
+         */
+        @Override
+        public void reset() {
+        }
+        
+        /**
+         * Returns the reply written since the last call, if any
+         *
+         * @return the reply, or null if none was written
+         */
+        Object take() {
+            Object taken = reply;
+            reply = null;
+            return taken;
+        }
+        
+    }
+    
     private static class DataBundle {
         final int threadNum;
         final Socket socket;
@@ -1205,16 +2111,32 @@ public class Server extends ServerSocket {
         final ObjectOutputStream oos;
         Operation operation;
         int numObjects;
+        /**
+         * Pushes frames to the client after the reply; null unless the request is a tagged one to the
+         * {@link SelectorEngine}
+         */
+        SelectorEngine.FrameSink sink;
         
-        DataBundle(int threadCountCreated, Socket socket) throws IOException {
+        DataBundle(int threadCountCreated, Socket socket, InputStream is, OutputStream os) throws IOException {
             this.threadNum = threadCountCreated;
             this.socket = socket;
             
-            this.is = socket.getInputStream();
+            this.is = is;
             this.ois = new ObjectInputStream(this.is);
-            this.os = socket.getOutputStream();
+            this.os = os;
             this.oos = new ObjectOutputStream(this.os);
         }
         
+        DataBundle(int threadCountCreated, Socket socket, InputStream is, ObjectInputStream ois, OutputStream os,
+                   ObjectOutputStream oos) {
+            this.threadNum = threadCountCreated;
+            this.socket = socket;
+            
+            this.is = is;
+            this.ois = ois;
+            this.os = os;
+            this.oos = oos;
+        }
+        
     }
 }
@@ -0,0 +1,127 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link SessionObjectOutputStream}<br />
+ * The {@link ObjectOutputStream} a {@link Client} or a {@link Server} session writes for the whole life of its
+ * connection. A plain {@link ObjectOutputStream} remembers every object it has written so it can send a back-reference
+ * instead when the object is written again, and the {@link java.io.ObjectInputStream} at the other end remembers them
+ * too. Over a long session both tables grow without bound, and an object changed since it was first written is sent
+ * as a reference to its old state. This stream forgets everything it has written (and tells the other end to do the
+ * same) as a message starts: before every message by default, or once a set number of bytes have been written
+ * since the last reset, which bounds both tables while still sharing repeated objects within that window.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class SessionObjectOutputStream extends ObjectOutputStream {
+    /**
+     * The default number of bytes after which the stream is reset: 0, resetting before every message
+     */
+    public static final long DEFAULT_RESET_THRESHOLD_BYTES;
+    
+    static {
+        DEFAULT_RESET_THRESHOLD_BYTES = 0;
+    }
+    
+    private final ByteCounter counter;
+    private final long resetThresholdBytes;
+    private long bytesAtLastReset;
+    private long resets;
+    
+    /**
+     * A {@link SessionObjectOutputStream} constructor
+     *
+     * @param out                 the connection's stream
+     * @param resetThresholdBytes how many bytes may be written before the stream is reset as a message starts; 0 to
+     *                            reset before every message. Objects written again before a reset are sent as
+     *                            references to their earlier state, so only raise this if written objects are not
+     *                            changed afterwards
+     * @throws IOException if the stream header could not be written
+     */
+    public SessionObjectOutputStream(OutputStream out, long resetThresholdBytes) throws IOException {
+        this(new ByteCounter(out), resetThresholdBytes);
+    }
+    
+    /**
+     * A {@link SessionObjectOutputStream} constructor
+     *
+     * @param counter             the connection's stream, counting the bytes written
+     * @param resetThresholdBytes the number of bytes after which the stream is reset
+     * @throws IOException if the stream header could not be written
+     */
+    private SessionObjectOutputStream(ByteCounter counter, long resetThresholdBytes) throws IOException {
+        super(counter);
+        if (resetThresholdBytes < 0) {
+            throw new IllegalArgumentException("The reset threshold can't be negative");
+        }
+        this.counter = counter;
+        this.resetThresholdBytes = resetThresholdBytes;
+        this.bytesAtLastReset = 0;
+        this.resets = 0;
+    }
+    
+    /**
+     * Resets the stream if the threshold has been reached. Called as a message starts, just before its first object:
+     * the reset is only read by the other end along with the next object, so it must not sit in front of the raw
+     * bytes the {@link Server} reads between messages
+     *
+     * @return whether the stream was reset
+     * @throws IOException if the stream could not be written
+     */
+    public boolean resetIfDue() throws IOException {
+        // Counts what has reached the connection; every message is flushed before the next one starts
+        if (counter.count - bytesAtLastReset < resetThresholdBytes) {
+            return false;
+        }
+        reset();
+        resets++;
+        bytesAtLastReset = counter.count;
+        return true;
+    }
+    
+    /**
+     * Returns the number of bytes written to the connection
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        return counter.count;
+    }
+    
+    /**
+     * Returns the number of times the stream has been reset
+     *
+     * @return the number of resets
+     */
+    public long getResets() {
+        return resets;
+    }
+    
+    /**
+     * Counts the bytes passed through to the connection
+     */
+    private static final class ByteCounter extends FilterOutputStream {
+        long count;
+        
+        ByteCounter(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+        
+    }
+    
+}
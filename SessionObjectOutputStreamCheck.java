@@ -0,0 +1,213 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * {@link SessionObjectOutputStreamCheck}<br />
+ * Contains a main method that checks {@link SessionObjectOutputStream} resets as it should. Messages are written just
+ * as {@link Client} writes them (the operation and object count as raw bytes, then the objects) and read back just as
+ * a {@link Server} session reads them. Prints each check passed, and exits with status 1 at the first that fails
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public abstract class SessionObjectOutputStreamCheck {
+    /**
+     * The operation byte every message starts with; anything else read in its place means the stream is out of step
+     */
+    private static final int OPERATION;
+    /**
+     * The reset threshold checked, small enough to be crossed within a few messages
+     */
+    private static final long THRESHOLD_BYTES;
+    
+    static {
+        OPERATION = Operation.GetMessagePage.ordinal();
+        THRESHOLD_BYTES = 512;
+    }
+    
+    /**
+     * Main method that runs every check
+     *
+     * @param args CLI args; not used
+     */
+    public static void main(String[] args) {
+        try {
+            checkResetBeforeFirstObject();
+            checkThreshold();
+            checkNegativeThreshold();
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Error running the checks! Details: ");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("All SessionObjectOutputStream checks passed");
+    }
+    
+    /**
+     * With the default threshold the stream resets before every message's first object. The reset never sits in
+     * front of the raw bytes read between messages, a message without objects leaves its reset for the next, and an
+     * object changed since it was last written arrives in its new state
+     *
+     * @throws IOException            if a stream could not be written or read
+     * @throws ClassNotFoundException if an object could not be read
+     */
+    private static void checkResetBeforeFirstObject() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        SessionObjectOutputStream oos = new SessionObjectOutputStream(os,
+                SessionObjectOutputStream.DEFAULT_RESET_THRESHOLD_BYTES);
+        oos.flush();
+        
+        ArrayList<String> list = new ArrayList<>();
+        list.add("a");
+        check(send(os, oos, list), "a message with objects resets first");
+        send(os, oos);
+        list.add("b");
+        check(send(os, oos, list), "every message with objects resets, even after one without");
+        check(oos.getResets() == 2, "a message without objects doesn't reset");
+        
+        InputStream is = new ByteArrayInputStream(os.toByteArray());
+        ObjectInputStream ois = new ObjectInputStream(is);
+        Object first = receive(is, ois, 1)[0];
+        receive(is, ois, 0);
+        Object second = receive(is, ois, 1)[0];
+        check(first.equals(list.subList(0, 1)), "the first message is read back");
+        check(second.equals(list), "an object changed since it was written arrives in its new state");
+        check(first != second, "an object written again after a reset is a new object");
+        check(is.read() == -1, "nothing is left over after the last message");
+        pass("reset before the first object");
+    }
+    
+    /**
+     * With a threshold the stream resets only as the first message after that many bytes starts. Until then an object
+     * written again is sent as a reference to its first copy
+     *
+     * @throws IOException            if a stream could not be written or read
+     * @throws ClassNotFoundException if an object could not be read
+     */
+    private static void checkThreshold() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        SessionObjectOutputStream oos = new SessionObjectOutputStream(os, THRESHOLD_BYTES);
+        oos.flush();
+        
+        ArrayList<String> list = new ArrayList<>();
+        ArrayList<Boolean> resets = new ArrayList<>();
+        long bytesAtLastReset = 0;
+        for (int i = 0; i < 40; i++) {
+            list.add("message " + i);
+            // Only the objects are counted; the raw bytes go around the object stream
+            long before = oos.getBytesWritten();
+            // A fresh object with it, so the bytes written grow even while the list is sent as a reference
+            boolean reset = send(os, oos, list, "padding " + i + " ".repeat(40));
+            check(reset == (before - bytesAtLastReset >= THRESHOLD_BYTES),
+                    "message " + i + " resets exactly when the threshold is reached");
+            if (reset) {
+                bytesAtLastReset = before;
+            }
+            resets.add(reset);
+        }
+        long resetCount = resets.stream().filter(reset -> reset).count();
+        check(resetCount > 0 && resetCount < resets.size(), "some but not all messages reset");
+        check(oos.getResets() == resetCount, "the reset count matches the resets made");
+        
+        InputStream is = new ByteArrayInputStream(os.toByteArray());
+        ObjectInputStream ois = new ObjectInputStream(is);
+        Object previous = null;
+        for (int i = 0; i < resets.size(); i++) {
+            Object received = receive(is, ois, 2)[0];
+            if (i == 0 || resets.get(i)) {
+                check(received.equals(list.subList(0, i + 1)), "message " + i + " after a reset is sent whole");
+                check(received != previous, "message " + i + " after a reset is a new object");
+            } else {
+                check(received == previous, "message " + i + " before the threshold is a back-reference");
+            }
+            previous = received;
+        }
+        check(is.read() == -1, "nothing is left over after the last message");
+        pass("reset once the threshold is reached");
+    }
+    
+    /**
+     * A negative threshold is refused
+     *
+     * @throws IOException if the stream header could not be written
+     */
+    private static void checkNegativeThreshold() throws IOException {
+        try {
+            new SessionObjectOutputStream(new ByteArrayOutputStream(), -1);
+        } catch (IllegalArgumentException iae) {
+            pass("a negative threshold is refused");
+            return;
+        }
+        check(false, "a negative threshold is refused");
+    }
+    
+    /**
+     * Writes a message as {@link Client} does
+     *
+     * @param os      the connection's stream
+     * @param oos     the object stream over it
+     * @param objects the objects passed
+     * @return whether the stream was reset
+     * @throws IOException if the message could not be written
+     */
+    private static boolean send(OutputStream os, SessionObjectOutputStream oos, Object... objects)
+            throws IOException {
+        os.write(OPERATION);
+        os.write(objects.length);
+        boolean reset = (objects.length > 0 && oos.resetIfDue());
+        for (Object object : objects) {
+            oos.writeObject(object);
+        }
+        oos.flush();
+        return reset;
+    }
+    
+    /**
+     * Reads a message as a {@link Server} session does
+     *
+     * @param is         the connection's stream
+     * @param ois        the object stream over it
+     * @param numObjects the number of objects the message should hold
+     * @return the message's objects
+     * @throws IOException            if the message could not be read
+     * @throws ClassNotFoundException if an object could not be read
+     */
+    private static Object[] receive(InputStream is, ObjectInputStream ois, int numObjects)
+            throws IOException, ClassNotFoundException {
+        check(is.read() == OPERATION, "the operation is read raw, with no reset in front of it");
+        check(is.read() == numObjects, "the object count is read raw");
+        Object[] objects = new Object[numObjects];
+        for (int i = 0; i < numObjects; i++) {
+            objects[i] = ois.readObject();
+        }
+        return objects;
+    }
+    
+    /**
+     * Exits with status 1 if a check failed
+     *
+     * @param passed      whether the check passed
+     * @param description what was checked
+     */
+    private static void check(boolean passed, String description) {
+        if (!passed) {
+            System.err.println("FAILED: " + description);
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Prints that a group of checks passed
+     *
+     * @param description what was checked
+     */
+    private static void pass(String description) {
+        System.out.println("OK: " + description);
+    }
+    
+}
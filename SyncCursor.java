@@ -0,0 +1,58 @@
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link SyncCursor}<br />
+ * How far a client has synced a {@link User}'s {@link Conversation}s: for each {@link Conversation} it holds, the
+ * {@link MessageChangeLog} stamp it was last brought up to date at. Handed out by the server with every
+ * {@link ConversationDelta} and sent back for the next one
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class SyncCursor implements Serializable {
+    private final long runId;
+    private final HashMap<ConversationKey, Long> marks;
+    
+    /**
+     * A {@link SyncCursor} constructor
+     *
+     * @param runId the {@link MessageChangeLog#RUN_ID} of the server handing it out
+     * @param marks the stamp each {@link Conversation} was brought up to date at
+     */
+    SyncCursor(long runId, HashMap<ConversationKey, Long> marks) {
+        this.runId = runId;
+        this.marks = marks;
+    }
+    
+    /**
+     * Returns the id of the run of the server that handed this out
+     *
+     * @return the run id
+     */
+    long getRunId() {
+        return runId;
+    }
+    
+    /**
+     * Returns the stamp each {@link Conversation} was brought up to date at
+     *
+     * @return the stamps by {@link Conversation}
+     */
+    Map<ConversationKey, Long> getMarks() {
+        return Collections.unmodifiableMap(marks);
+    }
+    
+    /**
+     * Returns a {@link String} representation of this cursor
+     *
+     * @return a {@link String} representation of this cursor
+     */
+    @Override
+    public String toString() {
+        return "SyncCursor{run=" + runId + ", conversations=" + marks.size() + "}";
+    }
+    
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * {@link User}<br />
@@ -18,12 +19,12 @@ public abstract class User implements Serializable {
     //////// CLASS VARIABLES ////////
     /**
      * RESERVED_EMAILS - contains a full list of all the user's emails so the
-     * USERS - a hasmap containing all the users to ensure there are no duplicates
+     * USERS - a concurrent map containing all the users; an email is reserved and its user added in one atomic step so
+     * there are never duplicates. Reads never lock and iteration never fails while users are added or removed
      * WHITESPACE_CHARS - checks for whitespace characters in the emails
      */
     private static final Set<String> RESERVED_EMAILS; // the emails that have been used so far
-    private static final HashMap<String, User> USERS;
-    private static final Object ADD_USER;
+    private static final ConcurrentHashMap<String, User> USERS;
     
     // I am sorry for this; Java's built-in Regex does not match \s properly; explanation from stackoverflow below
     // Java doesn’t support the Unicode white space property even though doing so is required to meet UTS#18’s RL1.2
@@ -59,10 +60,15 @@ public abstract class User implements Serializable {
             + "\\u205F" // MEDIUM MATHEMATICAL SPACE
             + "\\u3000"; // IDEOGRAPHIC SPACE
     
+    /**
+     * Whether a User has been removed (or saving failed) since the users were last saved
+     */
+    private static volatile boolean usersChanged;
+    
     static {
-        USERS = new HashMap<>();
+        USERS = new ConcurrentHashMap<>();
         RESERVED_EMAILS = USERS.keySet();
-        ADD_USER = "Lock for adding Users to User.USERS";
+        usersChanged = false;
     }
     
     private final String email;
@@ -72,9 +78,13 @@ public abstract class User implements Serializable {
     //////// INSTANCE VARIABLES ////////
     private String name;
     private String password;
+    /**
+     * Whether this User has changed since it was last saved
+     */
+    private transient boolean dirty;
     
     /**
-     * User constructor
+     * User constructor. The User is not added to USERS until the subclass constructor calls reserve()
      *
      * @param name     name
      * @param email    email
@@ -98,13 +108,11 @@ public abstract class User implements Serializable {
         
         this.blockedEmails = new ArrayList<>();
         this.invisToEmails = new ArrayList<>();
-        synchronized (ADD_USER) {
-            USERS.put(this.email, this);
-        }
+        this.dirty = true;
     }
     
     /**
-     * User constructor
+     * User constructor. The User is not added to USERS until the subclass constructor calls reserve()
      *
      * @param name           name
      * @param email          email
@@ -127,8 +135,43 @@ public abstract class User implements Serializable {
         
         this.blockedEmails = new ArrayList<>();
         this.invisToEmails = new ArrayList<>();
+        this.dirty = true;
+    }
+    
+    /**
+     * Constructor for a copy of a User received from the server (see {@link WireCodec}). The copy is not added to
+     * USERS, so it never clashes with the User it was copied from
+     *
+     * @param name           name
+     * @param email          email
+     * @param passwordHash   the hashed password, or null if it was not sent
+     * @param blockedPhrases blockedPhrases
+     * @param blockedEmails  the emails of the blocked users
+     * @param invisToEmails  the emails of the users this user is invisible to
+     */
+    protected User(String name, String email, String passwordHash, HashMap<String, String> blockedPhrases,
+                   ArrayList<String> blockedEmails, ArrayList<String> invisToEmails) {
+        this.name = name;
+        this.email = email;
+        this.password = passwordHash;
+        
+        this.blockedPhrases = blockedPhrases;
         
-        USERS.put(this.email, this);
+        this.blockedEmails = blockedEmails;
+        this.invisToEmails = invisToEmails;
+        this.dirty = false;
+    }
+    
+    /**
+     * Adds this User to USERS unless its email was taken in the meantime. Readers of USERS take what they find as
+     * fully built, so each subclass constructor calls this last, once every field of its own is set
+     *
+     * @throws IllegalArgumentException if another User with this email already exists
+     */
+    protected final void reserve() throws IllegalArgumentException {
+        if (USERS.putIfAbsent(this.email, this) != null) {
+            throw new IllegalArgumentException("Email already used! (The string before the @ symbol must be unique!");
+        }
     }
     
     /**
@@ -404,7 +447,54 @@ public abstract class User implements Serializable {
         if (user == null) {
             return;
         }
-        USERS.remove(user.getEmail(), user);
+        if (USERS.remove(user.getEmail(), user)) {
+            usersChanged = true;
+            if (user instanceof Seller) {
+                Seller.forgetStores((Seller) user);
+            }
+        }
+    }
+    
+    /**
+     * Returns whether any {@link User} has been added, changed or removed since the users were last saved
+     *
+     * @return whether the users need saving
+     */
+    static boolean hasUnsavedUsers() {
+        if (usersChanged) {
+            return true;
+        }
+        for (User u : USERS.values()) {
+            if (u.dirty) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Marks every {@link User} as saved. Called before the users are written so that changes made while writing are
+     * picked up by the next save
+     */
+    static void markUsersSaved() {
+        usersChanged = false;
+        for (User u : USERS.values()) {
+            u.dirty = false;
+        }
+    }
+    
+    /**
+     * Marks the users as needing to be saved again (saving them failed)
+     */
+    static void markUsersUnsaved() {
+        usersChanged = true;
+    }
+    
+    /**
+     * Marks this {@link User} as changed since it was last saved
+     */
+    protected void markDirty() {
+        this.dirty = true;
     }
     
     /**
@@ -423,6 +513,7 @@ public abstract class User implements Serializable {
      */
     public void setName(String name) {
         this.name = name;
+        markDirty();
     }
     
     /**
@@ -441,6 +532,17 @@ public abstract class User implements Serializable {
      */
     public void setPassword(String password) {
         this.password = hashPassword(password);
+        markDirty();
+    }
+    
+    /**
+     * Sets the user's password to an already hashed value (used when restoring saved data)
+     *
+     * @param passwordHash the hashed password
+     */
+    void setPasswordHash(String passwordHash) {
+        this.password = passwordHash;
+        markDirty();
     }
     
     /**
@@ -487,7 +589,10 @@ public abstract class User implements Serializable {
         if (replacement == null) {
             throw new IllegalArgumentException("Blocked phrase replacement cannot be null!");
         }
-        blockedPhrases.put(phrase, replacement);
+        synchronized (blockedPhrases) {
+            blockedPhrases.put(phrase, replacement);
+        }
+        markDirty();
         return true;
     }
     
@@ -498,11 +603,15 @@ public abstract class User implements Serializable {
      * @return whether the phrase was previously blocked
      */
     public boolean removeBlockedPhrase(String phrase) {
-        return blockedPhrases.remove(phrase) != null;
+        markDirty();
+        synchronized (blockedPhrases) {
+            return blockedPhrases.remove(phrase) != null;
+        }
     }
     
     /**
-     * Returns this User's list of blocked phrases
+     * Returns this User's list of blocked phrases. It is changed while synchronized on itself, so anything reading it
+     * while it may be changed must be too
      *
      * @return this User's list of blocked phrases
      */
@@ -585,6 +694,7 @@ public abstract class User implements Serializable {
      */
     public void blockUser(String emailToBlock) {
         blockedEmails.add(emailToBlock);
+        markDirty();
     }
     
     /**
@@ -594,6 +704,7 @@ public abstract class User implements Serializable {
      */
     public void becomeInvisibleToUser(String emailToVanishFrom) {
         invisToEmails.add(emailToVanishFrom);
+        markDirty();
     }
     
     /**
@@ -604,17 +715,14 @@ public abstract class User implements Serializable {
     public final String viewDashboard() {
         String stringToReturn = "";
         if (this instanceof Customer) {
-            for (Conversation currentConversation : MainListOfConversations.getMainListOfConversations()) {
-//                Conversation currentConversation = MainListOfConversations.getMainListOfConversations().get(i);
+            for (Conversation currentConversation : MainListOfConversations.getConversationsWithUser(this)) {
                 if (currentConversation.getCustomer().equals(this)) {
                     stringToReturn += currentConversation.getSeller().getName() + ":\r\n"
                             + Seller.getAllStoresAsString() + "\r\n";
                 }
             }
         } else if (this instanceof Seller) {
-            for (Conversation currentConversation : MainListOfConversations.getMainListOfConversations()) {
-                // int i = 0; i < MainListOfConversations.getMainListOfConversations().size(); i++
-//                Conversation currentConversation = MainListOfConversations.getMainListOfConversations().get(i);
+            for (Conversation currentConversation : MainListOfConversations.getConversationsWithUser(this)) {
                 if (currentConversation.getSeller().equals(this)) {
                     Customer c = currentConversation.getCustomer();
                     stringToReturn += c.getName() + "\tNumber of messages sent: "
@@ -723,8 +831,8 @@ public abstract class User implements Serializable {
         ArrayList<Conversation> temp = MainListOfConversations.getConversationsWithUser(this);
         
         for (Conversation conversation : temp) {
-            for (int j = 0; j < conversation.getMessages().size(); j++) {
-                String message = conversation.getMessages().get(j).getMessageContent();
+            for (Message m : conversation.snapshotMessages()) {
+                String message = m.getMessageContent();
                 while (!message.equals("")) {
                     String currentWord = message.substring(0, message.indexOf(" "));
                     if (!wordArray.contains(currentWord)) {
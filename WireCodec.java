@@ -0,0 +1,1021 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link WireCodec}<br />
+ * The compact binary protocol spoken by {@link Client}s in {@link Client.Protocol#BINARY} mode. Instead of being
+ * Java-serialized, each request argument is written as its {@link Operation}'s schema says: {@link User}s,
+ * {@link Conversation}s and edited {@link Message}s go as references (an email, a seller/customer/store key, an id)
+ * which the server resolves to its own objects, and only new {@link Message}s are sent whole. A reply is one tagged
+ * value; a {@link Conversation} in a reply carries its participants without their password hashes or blocked phrases,
+ * and its {@link Message}s with their emails packed into a flag. Strings are length-prefixed UTF-8 and numbers are
+ * varints, as in {@link BinarySnapshot}.
+ * <p>
+ * A binary frame starts with {@link #FRAME_MARKER}, whose low bits are the protocol {@link #VERSION}. A request then
+ * holds the {@link Operation}'s ordinal, the number of arguments and the arguments; a reply holds one tagged value
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class WireCodec {
+    /**
+     * The current version of the binary protocol
+     */
+    public static final byte VERSION = 1;
+    /**
+     * The first byte of every binary frame. A serialized frame starts with an {@link Operation} ordinal instead,
+     * which is always smaller
+     */
+    static final byte FRAME_MARKER = (byte) (0xB0 | VERSION);
+    
+    /**
+     * How a request argument is written
+     */
+    enum Kind {
+        STRING, BOOLEAN, LONG, STRING_MAP, STRING_LIST,
+        /**
+         * A {@link User}, by email
+         */
+        USER,
+        /**
+         * A {@link Conversation}, by seller, customer and store
+         */
+        CONVERSATION,
+        /**
+         * An existing {@link Message}, by its {@link Conversation}, id and time sent
+         */
+        MESSAGE_REF,
+        /**
+         * A new {@link Message}, whole
+         */
+        MESSAGE,
+        /**
+         * A {@link File}, by path
+         */
+        FILE,
+        /**
+         * A {@link SyncCursor}: its run id and each {@link Conversation}'s key and stamp
+         */
+        SYNC_CURSOR,
+        /**
+         * Anything, as a tagged value
+         */
+        VALUE
+    }
+    
+    /**
+     * The arguments of each {@link Operation}; those not listed (or arguments past the end) are tagged values
+     */
+    private static final EnumMap<Operation, Kind[]> REQUESTS;
+    
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_LIST = 6;
+    private static final byte TAG_STRING_MAP = 7;
+    private static final byte TAG_CUSTOMER = 8;
+    private static final byte TAG_SELLER = 9;
+    private static final byte TAG_CONVERSATION = 10;
+    private static final byte TAG_MESSAGE = 11;
+    /**
+     * Anything else, Java-serialized
+     */
+    private static final byte TAG_SERIALIZED = 12;
+    /**
+     * A {@link MessageEvent}: its {@link Conversation}'s key, the count of missed {@link Message}s and, if none were,
+     * the {@link Message} with its emails packed
+     */
+    private static final byte TAG_MESSAGE_EVENT = 13;
+    /**
+     * A {@link MessagePage}: its {@link Conversation}'s key, offset, span, total and cursors, and its {@link Message}s
+     * with their emails packed
+     */
+    private static final byte TAG_MESSAGE_PAGE = 14;
+    /**
+     * A {@link ConversationSummary}: its {@link Conversation}'s key, the names of its {@link User}s, its disappearing
+     * flag, which participant is the other {@link User}, and its message count and last message time
+     */
+    private static final byte TAG_CONVERSATION_SUMMARY = 15;
+    /**
+     * A {@link ConversationDelta}: its cursor, whether it is full, the {@link Conversation}s sent whole (as
+     * {@link #TAG_CONVERSATION} writes them), the changed {@link Message}s under their {@link Conversation}'s key with
+     * their emails packed, and the keys of the {@link Conversation}s removed
+     */
+    private static final byte TAG_CONVERSATION_DELTA = 16;
+    
+    private static final byte FROM_CUSTOMER = 1;
+    private static final byte CAN_SENDER_VIEW = 1 << 1;
+    private static final byte CAN_RECEIVER_VIEW = 1 << 2;
+    /**
+     * The sender and receiver are written out rather than implied by FROM_CUSTOMER
+     */
+    private static final byte EXPLICIT_EMAILS = 1 << 3;
+    
+    static {
+        REQUESTS = new EnumMap<>(Operation.class);
+        REQUESTS.put(Operation.Message, new Kind[]{Kind.STRING});
+        REQUESTS.put(Operation.GetUser, new Kind[]{Kind.STRING});
+        REQUESTS.put(Operation.UserExists, new Kind[]{Kind.STRING});
+        REQUESTS.put(Operation.GetSellerFromStore, new Kind[]{Kind.STRING});
+        REQUESTS.put(Operation.GetConversationsWithUser, new Kind[]{Kind.USER});
+        REQUESTS.put(Operation.SetMessageContent, new Kind[]{Kind.MESSAGE_REF, Kind.STRING});
+        REQUESTS.put(Operation.AddMessageToConversation, new Kind[]{Kind.CONVERSATION, Kind.MESSAGE});
+        REQUESTS.put(Operation.UserBlocksUser, new Kind[]{Kind.USER, Kind.USER});
+        REQUESTS.put(Operation.UserInvisibleToUser, new Kind[]{Kind.USER, Kind.USER});
+        REQUESTS.put(Operation.GetConversationWithUsers, new Kind[]{Kind.USER, Kind.USER});
+        REQUESTS.put(Operation.CreateCustomer, new Kind[]{Kind.STRING, Kind.STRING, Kind.STRING, Kind.STRING_MAP});
+        REQUESTS.put(Operation.CreateSeller,
+                new Kind[]{Kind.STRING, Kind.STRING, Kind.STRING, Kind.STRING_MAP, Kind.STRING_LIST});
+        REQUESTS.put(Operation.CreateMessage, new Kind[]{Kind.STRING, Kind.STRING, Kind.BOOLEAN, Kind.BOOLEAN,
+                Kind.STRING, Kind.LONG, Kind.CONVERSATION});
+        REQUESTS.put(Operation.CreateConversation, new Kind[]{Kind.USER, Kind.STRING, Kind.USER, Kind.BOOLEAN});
+        REQUESTS.put(Operation.SellerAddStore, new Kind[]{Kind.USER, Kind.STRING});
+        REQUESTS.put(Operation.GetConversationWithUsersWithStore, new Kind[]{Kind.USER, Kind.USER, Kind.STRING});
+        REQUESTS.put(Operation.SendMessageFromFile, new Kind[]{Kind.CONVERSATION, Kind.USER, Kind.FILE});
+        REQUESTS.put(Operation.SetUserName, new Kind[]{Kind.USER, Kind.STRING});
+        REQUESTS.put(Operation.SetUserPass, new Kind[]{Kind.USER, Kind.STRING});
+        REQUESTS.put(Operation.DeleteUserAccount, new Kind[]{Kind.USER});
+        REQUESTS.put(Operation.SyncConversationsWithUser, new Kind[]{Kind.USER, Kind.SYNC_CURSOR});
+        REQUESTS.put(Operation.Subscribe, new Kind[]{Kind.USER});
+        REQUESTS.put(Operation.Unsubscribe, new Kind[]{Kind.USER});
+        REQUESTS.put(Operation.GetConversationSummaries, new Kind[]{Kind.USER});
+        REQUESTS.put(Operation.GetMessagePage,
+                new Kind[]{Kind.CONVERSATION, Kind.LONG, Kind.BOOLEAN, Kind.VALUE, Kind.USER});
+        REQUESTS.put(Operation.GetConversationCSV, new Kind[]{Kind.CONVERSATION, Kind.USER});
+    }
+    
+    /**
+     * Blank constructor
+     */
+    private WireCodec() {
+    }
+    
+    /**
+     * Returns whether a frame is in the binary protocol, checking that it is a version this server speaks
+     *
+     * @param frame the frame
+     * @return whether the frame is binary (false if it is a serialized frame)
+     * @throws StreamCorruptedException if the frame is binary but of another version
+     */
+    static boolean isBinaryFrame(byte[] frame) throws StreamCorruptedException {
+        if (frame.length == 0 || (frame[0] & 0xF0) != (FRAME_MARKER & 0xF0)) {
+            return false;
+        }
+        if (frame[0] != FRAME_MARKER) {
+            throw new StreamCorruptedException("Unsupported wire protocol version " + (frame[0] & 0x0F));
+        }
+        return true;
+    }
+    
+    /**
+     * Returns how the given argument of an {@link Operation} is written
+     *
+     * @param operation the {@link Operation}
+     * @param index     the argument's position
+     * @return how the argument is written
+     */
+    private static Kind kindOf(Operation operation, int index) {
+        Kind[] schema = REQUESTS.get(operation);
+        return (schema == null || index >= schema.length ? Kind.VALUE : schema[index]);
+    }
+    
+    /**
+     * Writes a whole request frame (without its length)
+     *
+     * @param out       where to write
+     * @param operation the {@link Operation}
+     * @param arguments its arguments
+     * @throws IOException if an argument does not fit its schema or could not be written
+     */
+    static void writeRequest(DataOutputStream out, Operation operation, Object... arguments) throws IOException {
+        out.writeByte(FRAME_MARKER);
+        writeRequestBody(out, operation, arguments);
+        out.flush();
+    }
+    
+    /**
+     * Writes a request without the frame marker, as each request in a {@link Operation#Batch} is written
+     *
+     * @param out       where to write
+     * @param operation the {@link Operation}
+     * @param arguments its arguments
+     * @throws IOException if an argument does not fit its schema or could not be written
+     */
+    static void writeRequestBody(DataOutputStream out, Operation operation, Object... arguments) throws IOException {
+        out.writeByte(operation.ordinal());
+        out.writeByte(arguments.length);
+        for (int i = 0; i < arguments.length; i++) {
+            writeArgument(out, kindOf(operation, i), arguments[i]);
+        }
+    }
+    
+    /**
+     * Reads a reply frame (without its length)
+     *
+     * @param frame the reply frame
+     * @return the reply
+     * @throws IOException            if the frame is not a binary reply
+     * @throws ClassNotFoundException if the reply held an unknown serialized class
+     */
+    static Object readReply(byte[] frame) throws IOException, ClassNotFoundException {
+        if (!isBinaryFrame(frame)) {
+            throw new StreamCorruptedException("Not a binary reply");
+        }
+        return readValue(new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1)));
+    }
+    
+    /**
+     * Writes one request argument
+     *
+     * @param out   where to write
+     * @param kind  how to write it
+     * @param value the argument
+     * @throws IOException if the argument does not fit its schema or could not be written
+     */
+    private static void writeArgument(DataOutputStream out, Kind kind, Object value) throws IOException {
+        if (kind == Kind.VALUE) {
+            writeValue(out, value);
+            return;
+        }
+        out.writeBoolean(value != null);
+        if (value == null) {
+            return;
+        }
+        try {
+            switch (kind) {
+                case STRING -> writeString(out, (String) value);
+                case BOOLEAN -> out.writeBoolean((Boolean) value);
+                case LONG -> writeVarLong(out, zigZag((Long) value));
+                case STRING_MAP -> writeStringMap(out, (Map<?, ?>) value);
+                case STRING_LIST -> writeStrings(out, (Collection<?>) value);
+                case USER -> writeString(out, ((User) value).getEmail());
+                case CONVERSATION -> writeConversationKey(out, (Conversation) value);
+                case MESSAGE_REF -> {
+                    Message m = (Message) value;
+                    writeConversationKey(out, m.getParent());
+                    writeVarLong(out, m.getId());
+                    writeVarLong(out, zigZag(m.getTimeSent()));
+                }
+                case MESSAGE -> writeMessage(out, (Message) value);
+                case FILE -> writeString(out, ((File) value).getPath());
+                case SYNC_CURSOR -> writeSyncCursor(out, (SyncCursor) value);
+                default -> throw new IllegalStateException("Unhandled kind " + kind);
+            }
+        } catch (ClassCastException cce) {
+            throw new NotSerializableException("Expected " + kind + " but got " + value.getClass().getName());
+        }
+    }
+    
+    /**
+     * Reads one request argument, resolving references to this server's objects
+     *
+     * @param in   where to read from
+     * @param kind how it was written
+     * @return the argument; a reference to something that no longer exists reads as null
+     * @throws IOException            if the argument could not be read
+     * @throws ClassNotFoundException if a tagged value held an unknown serialized class
+     */
+    private static Object readArgument(DataInputStream in, Kind kind) throws IOException, ClassNotFoundException {
+        if (kind == Kind.VALUE) {
+            return readValue(in);
+        }
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return switch (kind) {
+            case STRING -> readString(in);
+            case BOOLEAN -> in.readBoolean();
+            case LONG -> unZigZag(readVarLong(in));
+            case STRING_MAP -> readStringMap(in);
+            case STRING_LIST -> readStrings(in);
+            case USER -> User.getUser(readString(in));
+            case CONVERSATION -> MainListOfConversations.getConversation(readConversationKey(in));
+            case MESSAGE_REF -> {
+                Conversation parent = MainListOfConversations.getConversation(readConversationKey(in));
+                long id = readVarLong(in);
+                long timeSent = unZigZag(readVarLong(in));
+                if (parent == null) {
+                    yield null;
+                }
+                // Only the Message's place is needed; its content is looked up by whoever uses it
+                Message m = new Message(null, null, true, true, null, timeSent);
+                m.setId(id);
+                m.setParent(parent);
+                yield m;
+            }
+            case MESSAGE -> readMessage(in);
+            case FILE -> new File(readString(in));
+            case SYNC_CURSOR -> readSyncCursor(in);
+            default -> throw new IllegalStateException("Unhandled kind " + kind);
+        };
+    }
+    
+    /**
+     * Writes a tagged value
+     *
+     * @param out   where to write
+     * @param value the value
+     * @throws IOException if the value could not be written
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            writeVarLong(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Customer || value instanceof Seller) {
+            out.writeByte(value instanceof Seller ? TAG_SELLER : TAG_CUSTOMER);
+            writeUser(out, (User) value);
+        } else if (value instanceof Conversation) {
+            out.writeByte(TAG_CONVERSATION);
+            writeConversation(out, (Conversation) value);
+        } else if (value instanceof Message) {
+            Message m = (Message) value;
+            out.writeByte(TAG_MESSAGE);
+            writeMessage(out, m);
+            out.writeBoolean(m.getParent() != null);
+            if (m.getParent() != null) {
+                writeConversationStub(out, m.getParent());
+            }
+        } else if (value instanceof MessageEvent) {
+            MessageEvent event = (MessageEvent) value;
+            ConversationKey key = event.getConversation();
+            out.writeByte(TAG_MESSAGE_EVENT);
+            writeKey(out, key);
+            writeVarLong(out, event.getMissed());
+            if (event.getMessage() != null) {
+                writeConversationMessage(out, event.getMessage(), key.getCustomerEmail(), key.getSellerEmail());
+            }
+        } else if (value instanceof MessagePage) {
+            MessagePage page = (MessagePage) value;
+            ConversationKey key = page.getConversation();
+            out.writeByte(TAG_MESSAGE_PAGE);
+            writeKey(out, key);
+            writeVarLong(out, page.getOffset());
+            writeVarLong(out, page.getSpan());
+            writeVarLong(out, page.getTotal());
+            writeVarLong(out, page.getEarliestId());
+            writeVarLong(out, page.getLatestId());
+            writeVarLong(out, page.getMessages().size());
+            for (Message m : page.getMessages()) {
+                writeConversationMessage(out, m, key.getCustomerEmail(), key.getSellerEmail());
+            }
+        } else if (value instanceof ConversationSummary) {
+            ConversationSummary summary = (ConversationSummary) value;
+            out.writeByte(TAG_CONVERSATION_SUMMARY);
+            writeKey(out, summary.getKey());
+            writeString(out, summary.getSellerName());
+            writeString(out, summary.getCustomerName());
+            out.writeBoolean(summary.isDisappearing());
+            out.writeBoolean(summary.isWithSeller());
+            writeVarLong(out, summary.getMessageCount());
+            writeVarLong(out, zigZag(summary.getLastMessageTime()));
+        } else if (value instanceof ConversationDelta) {
+            ConversationDelta delta = (ConversationDelta) value;
+            out.writeByte(TAG_CONVERSATION_DELTA);
+            writeSyncCursor(out, delta.getCursor());
+            out.writeBoolean(delta.isFull());
+            writeVarLong(out, delta.getConversations().size());
+            for (Conversation c : delta.getConversations()) {
+                writeConversation(out, c);
+            }
+            writeVarLong(out, delta.getChangedMessages().size());
+            for (Map.Entry<ConversationKey, ArrayList<Message>> entry : delta.getChangedMessages().entrySet()) {
+                ConversationKey key = entry.getKey();
+                writeKey(out, key);
+                writeVarLong(out, entry.getValue().size());
+                for (Message m : entry.getValue()) {
+                    writeConversationMessage(out, m, key.getCustomerEmail(), key.getSellerEmail());
+                }
+            }
+            writeVarLong(out, delta.getRemoved().size());
+            for (ConversationKey key : delta.getRemoved()) {
+                writeKey(out, key);
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            out.writeByte(TAG_LIST);
+            writeVarLong(out, values.size());
+            for (Object element : values) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map && isStringMap((Map<?, ?>) value)) {
+            out.writeByte(TAG_STRING_MAP);
+            writeStringMap(out, (Map<?, ?>) value);
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            out.writeByte(TAG_SERIALIZED);
+            writeVarLong(out, bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+    
+    /**
+     * Reads a tagged value
+     *
+     * @param in where to read from
+     * @return the value
+     * @throws IOException            if the value could not be read
+     * @throws ClassNotFoundException if the value held an unknown serialized class
+     */
+    private static Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return true;
+            case TAG_FALSE:
+                return false;
+            case TAG_INT:
+                return (int) unZigZag(readVarLong(in));
+            case TAG_LONG:
+                return unZigZag(readVarLong(in));
+            case TAG_STRING:
+                return readString(in);
+            case TAG_CUSTOMER:
+            case TAG_SELLER:
+                return readUser(in, tag == TAG_SELLER);
+            case TAG_CONVERSATION:
+                return readConversation(in);
+            case TAG_MESSAGE: {
+                Message m = readMessage(in);
+                if (in.readBoolean()) {
+                    m.setParent(readConversationStub(in));
+                }
+                return m;
+            }
+            case TAG_MESSAGE_EVENT: {
+                ConversationKey key = readConversationKey(in);
+                int missed = readCount(in);
+                return new MessageEvent(key, (missed > 0 ? null
+                        : readConversationMessage(in, key.getCustomerEmail(), key.getSellerEmail())), missed);
+            }
+            case TAG_MESSAGE_PAGE: {
+                ConversationKey key = readConversationKey(in);
+                int offset = readCount(in);
+                int span = readCount(in);
+                int total = readCount(in);
+                long earliestId = readVarLong(in);
+                long latestId = readVarLong(in);
+                int count = readCount(in);
+                ArrayList<Message> messages = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    messages.add(readConversationMessage(in, key.getCustomerEmail(), key.getSellerEmail()));
+                }
+                return new MessagePage(key, messages, offset, span, total, earliestId, latestId);
+            }
+            case TAG_CONVERSATION_SUMMARY: {
+                ConversationKey key = readConversationKey(in);
+                String sellerName = readString(in);
+                String customerName = readString(in);
+                boolean disappearing = in.readBoolean();
+                boolean withSeller = in.readBoolean();
+                int messageCount = readCount(in);
+                return new ConversationSummary(key, sellerName, customerName, disappearing, withSeller, messageCount,
+                        unZigZag(readVarLong(in)));
+            }
+            case TAG_CONVERSATION_DELTA: {
+                SyncCursor cursor = readSyncCursor(in);
+                boolean full = in.readBoolean();
+                int count = readCount(in);
+                ArrayList<Conversation> conversations = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    conversations.add(readConversation(in));
+                }
+                count = readCount(in);
+                HashMap<ConversationKey, ArrayList<Message>> changedMessages = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    ConversationKey key = readConversationKey(in);
+                    int messageCount = readCount(in);
+                    ArrayList<Message> messages = new ArrayList<>(Math.min(messageCount, 1024));
+                    for (int j = 0; j < messageCount; j++) {
+                        messages.add(readConversationMessage(in, key.getCustomerEmail(), key.getSellerEmail()));
+                    }
+                    changedMessages.put(key, messages);
+                }
+                count = readCount(in);
+                ArrayList<ConversationKey> removed = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    removed.add(readConversationKey(in));
+                }
+                return new ConversationDelta(cursor, full, conversations, changedMessages, removed);
+            }
+            case TAG_LIST: {
+                int count = readCount(in);
+                ArrayList<Object> values = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    values.add(readValue(in));
+                }
+                return values;
+            }
+            case TAG_STRING_MAP:
+                return readStringMap(in);
+            case TAG_SERIALIZED: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ois.readObject();
+                }
+            }
+            default:
+                throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+    
+    /**
+     * Writes all of a {@link User} but its {@link Conversation}s
+     */
+    private static void writeUser(DataOutputStream out, User u) throws IOException {
+        writeString(out, u.getEmail());
+        writeString(out, u.getName());
+        writeNullableString(out, u.getPassword());
+        writeStrings(out, u.getBlockedEmails());
+        writeStrings(out, u.getInvisEmails());
+        writeStringMap(out, u.getBlockedPhrases() == null ? Map.of() : u.getBlockedPhrases());
+        if (u instanceof Seller) {
+            writeStrings(out, ((Seller) u).getStoreNames());
+        }
+    }
+    
+    /**
+     * Reads a {@link User} written by writeUser(DataOutputStream, User) as a copy not added to the registry
+     */
+    private static User readUser(DataInputStream in, boolean seller) throws IOException {
+        String email = readString(in);
+        String name = readString(in);
+        String passwordHash = readNullableString(in);
+        ArrayList<String> blockedEmails = readStrings(in);
+        ArrayList<String> invisEmails = readStrings(in);
+        HashMap<String, String> blockedPhrases = readStringMap(in);
+        if (seller) {
+            return new Seller(name, email, passwordHash, blockedPhrases, blockedEmails, invisEmails, readStrings(in));
+        }
+        return new Customer(name, email, passwordHash, blockedPhrases, blockedEmails, invisEmails);
+    }
+    
+    /**
+     * Writes what the other side of a {@link Conversation} needs of a participant: no password hash, blocked phrases
+     * or stores
+     */
+    private static void writeParticipant(DataOutputStream out, User u) throws IOException {
+        writeString(out, u.getEmail());
+        writeString(out, u.getName());
+        writeStrings(out, u.getBlockedEmails());
+        writeStrings(out, u.getInvisEmails());
+    }
+    
+    /**
+     * Reads a participant written by writeParticipant(DataOutputStream, User)
+     */
+    private static User readParticipant(DataInputStream in, boolean seller) throws IOException {
+        String email = readString(in);
+        String name = readString(in);
+        ArrayList<String> blockedEmails = readStrings(in);
+        ArrayList<String> invisEmails = readStrings(in);
+        if (seller) {
+            return new Seller(name, email, null, new HashMap<>(), blockedEmails, invisEmails, new ArrayList<>());
+        }
+        return new Customer(name, email, null, new HashMap<>(), blockedEmails, invisEmails);
+    }
+    
+    /**
+     * Writes a {@link Conversation} with its participants and {@link Message}s
+     */
+    private static void writeConversation(DataOutputStream out, Conversation c) throws IOException {
+        writeParticipant(out, c.getSeller());
+        writeParticipant(out, c.getCustomer());
+        writeNullableString(out, c.getStore());
+        out.writeBoolean(c.isDisappearing());
+        ArrayList<Message> messages = c.snapshotMessages();
+        writeVarLong(out, messages.size());
+        for (Message m : messages) {
+            writeConversationMessage(out, m, c.getCustomer().getEmail(), c.getSeller().getEmail());
+        }
+    }
+    
+    /**
+     * Reads a {@link Conversation} written by writeConversation(DataOutputStream, Conversation) as a copy not added
+     * to the {@link MainListOfConversations}
+     */
+    private static Conversation readConversation(DataInputStream in) throws IOException {
+        Seller seller = (Seller) readParticipant(in, true);
+        Customer customer = (Customer) readParticipant(in, false);
+        Conversation c = new Conversation(seller, readNullableString(in), customer, in.readBoolean(), null);
+        int count = readCount(in);
+        for (int i = 0; i < count; i++) {
+            c.restoreMessage(readConversationMessage(in, customer.getEmail(), seller.getEmail()));
+        }
+        return c;
+    }
+    
+    /**
+     * Writes the key of a {@link Conversation} a {@link Message} belongs to, with its participants' names
+     */
+    private static void writeConversationStub(DataOutputStream out, Conversation c) throws IOException {
+        writeConversationKey(out, c);
+        writeString(out, c.getSeller().getName());
+        writeString(out, c.getCustomer().getName());
+        out.writeBoolean(c.isDisappearing());
+    }
+    
+    /**
+     * Reads a {@link Conversation} written by writeConversationStub(DataOutputStream, Conversation), without its
+     * {@link Message}s
+     */
+    private static Conversation readConversationStub(DataInputStream in) throws IOException {
+        ConversationKey key = readConversationKey(in);
+        Seller seller = new Seller(readString(in), key.getSellerEmail(), null, new HashMap<>(), new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>());
+        Customer customer = new Customer(readString(in), key.getCustomerEmail(), null, new HashMap<>(),
+                new ArrayList<>(), new ArrayList<>());
+        return new Conversation(seller, key.getStore(), customer, in.readBoolean(), null);
+    }
+    
+    /**
+     * Writes the seller, customer and store identifying a {@link Conversation}
+     */
+    private static void writeConversationKey(DataOutputStream out, Conversation c) throws IOException {
+        writeString(out, c.getSeller().getEmail());
+        writeString(out, c.getCustomer().getEmail());
+        writeNullableString(out, c.getStore());
+    }
+    
+    /**
+     * Writes a {@link ConversationKey} as writeConversationKey(DataOutputStream, Conversation) writes a
+     * {@link Conversation}'s
+     */
+    private static void writeKey(DataOutputStream out, ConversationKey key) throws IOException {
+        writeString(out, key.getSellerEmail());
+        writeString(out, key.getCustomerEmail());
+        writeNullableString(out, key.getStore());
+    }
+    
+    /**
+     * Reads a key written by writeConversationKey(DataOutputStream, Conversation)
+     */
+    private static ConversationKey readConversationKey(DataInputStream in) throws IOException {
+        String sellerEmail = readString(in);
+        String customerEmail = readString(in);
+        return new ConversationKey(sellerEmail, customerEmail, readNullableString(in));
+    }
+    
+    /**
+     * Writes a {@link SyncCursor}'s run id, then each {@link Conversation}'s key and stamp
+     */
+    private static void writeSyncCursor(DataOutputStream out, SyncCursor cursor) throws IOException {
+        out.writeLong(cursor.getRunId());
+        writeVarLong(out, cursor.getMarks().size());
+        for (Map.Entry<ConversationKey, Long> mark : cursor.getMarks().entrySet()) {
+            writeKey(out, mark.getKey());
+            writeVarLong(out, mark.getValue());
+        }
+    }
+    
+    /**
+     * Reads a {@link SyncCursor} written by writeSyncCursor(DataOutputStream, SyncCursor)
+     */
+    private static SyncCursor readSyncCursor(DataInputStream in) throws IOException {
+        long runId = in.readLong();
+        int count = readCount(in);
+        HashMap<ConversationKey, Long> marks = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            marks.put(readConversationKey(in), readVarLong(in));
+        }
+        return new SyncCursor(runId, marks);
+    }
+    
+    /**
+     * Writes a {@link Message} whole (but for its parent)
+     */
+    private static void writeMessage(DataOutputStream out, Message m) throws IOException {
+        writeConversationMessage(out, m, null, null);
+    }
+    
+    /**
+     * Reads a {@link Message} written by writeMessage(DataOutputStream, Message)
+     */
+    private static Message readMessage(DataInputStream in) throws IOException {
+        return readConversationMessage(in, null, null);
+    }
+    
+    /**
+     * Writes a {@link Message}, leaving out its emails if it is from the given customer to the given seller or the
+     * other way round
+     */
+    private static void writeConversationMessage(DataOutputStream out, Message m, String customerEmail,
+                                                 String sellerEmail) throws IOException {
+        byte flags = (byte) ((m.canSenderView() ? CAN_SENDER_VIEW : 0) | (m.canReceiverView() ? CAN_RECEIVER_VIEW : 0));
+        if (customerEmail != null && m.getSenderEmail().equals(customerEmail)
+                && m.getReceiverEmail().equals(sellerEmail)) {
+            flags |= FROM_CUSTOMER;
+        } else if (customerEmail == null || !m.getSenderEmail().equals(sellerEmail)
+                || !m.getReceiverEmail().equals(customerEmail)) {
+            flags |= EXPLICIT_EMAILS;
+        }
+        out.writeByte(flags);
+        writeVarLong(out, m.getId());
+        writeVarLong(out, zigZag(m.getTimeSent()));
+        writeString(out, m.getMessageContent());
+        if ((flags & EXPLICIT_EMAILS) != 0) {
+            writeString(out, m.getSenderEmail());
+            writeString(out, m.getReceiverEmail());
+        }
+    }
+    
+    /**
+     * Reads a {@link Message} written by writeConversationMessage(DataOutputStream, Message, String, String)
+     */
+    private static Message readConversationMessage(DataInputStream in, String customerEmail, String sellerEmail)
+            throws IOException {
+        byte flags = in.readByte();
+        long id = readVarLong(in);
+        long timeSent = unZigZag(readVarLong(in));
+        String content = readString(in);
+        String sender;
+        String receiver;
+        if ((flags & EXPLICIT_EMAILS) != 0) {
+            sender = readString(in);
+            receiver = readString(in);
+        } else if ((flags & FROM_CUSTOMER) != 0) {
+            sender = customerEmail;
+            receiver = sellerEmail;
+        } else {
+            sender = sellerEmail;
+            receiver = customerEmail;
+        }
+        Message m = new Message(sender, receiver, (flags & CAN_SENDER_VIEW) != 0, (flags & CAN_RECEIVER_VIEW) != 0,
+                content, timeSent);
+        m.setId(id);
+        return m;
+    }
+    
+    /**
+     * Returns whether every key and value of a map is a {@link String}
+     */
+    private static boolean isStringMap(Map<?, ?> map) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Writes a varint count followed by each key and value
+     */
+    private static void writeStringMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+        writeVarLong(out, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, (String) entry.getKey());
+            writeString(out, (String) entry.getValue());
+        }
+    }
+    
+    /**
+     * Reads a map written by writeStringMap(DataOutputStream, Map)
+     */
+    private static HashMap<String, String> readStringMap(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+    
+    /**
+     * Writes a varint count followed by each String
+     */
+    private static void writeStrings(DataOutputStream out, Collection<?> strings) throws IOException {
+        writeVarLong(out, strings.size());
+        for (Object s : strings) {
+            writeString(out, (String) s);
+        }
+    }
+    
+    /**
+     * Reads a list written by writeStrings(DataOutputStream, Collection)
+     */
+    private static ArrayList<String> readStrings(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        ArrayList<String> strings = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+    
+    /**
+     * Writes a varint length followed by the UTF-8 bytes of the given String
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, encoded.length);
+        out.write(encoded);
+    }
+    
+    /**
+     * Reads a String written by writeString(DataOutputStream, String)
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] encoded = new byte[readLength(in)];
+        in.readFully(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Writes whether there is a String, then the String
+     */
+    private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+    
+    /**
+     * Reads a String written by writeNullableString(DataOutputStream, String)
+     */
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return (in.readBoolean() ? readString(in) : null);
+    }
+    
+    /**
+     * Writes an unsigned varint
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    /**
+     * Reads an unsigned varint
+     */
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint too long");
+    }
+    
+    /**
+     * Reads a varint count or length, checking that it is sensible
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > SelectorEngine.MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Bad length " + count);
+        }
+        return (int) count;
+    }
+    
+    /**
+     * Reads a varint length of some bytes, checking that that many are left to read. Every frame is read whole before
+     * it is decoded, so what is available is the rest of the frame
+     */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = readCount(in);
+        if (length > in.available()) {
+            throw new StreamCorruptedException("Length " + length + " runs past the end of the frame");
+        }
+        return length;
+    }
+    
+    /**
+     * Maps a signed number to an unsigned one so that small negative numbers stay small
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    /**
+     * Undoes zigZag(long)
+     */
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Reads a binary request's arguments, as the {@link Server}'s handlers expect to from an
+     * {@link ObjectInputStream}
+     */
+    static final class RequestReader extends ObjectInputStream {
+        private final DataInputStream in;
+        private final Operation operation;
+        private int argumentsRead;
+        
+        /**
+         * A {@link RequestReader} constructor
+         *
+         * @param in        the request's arguments
+         * @param operation the request's {@link Operation}
+         * @throws IOException never; declared by {@link ObjectInputStream}
+         */
+        RequestReader(InputStream in, Operation operation) throws IOException {
+            super();
+            this.in = new DataInputStream(in);
+            this.operation = operation;
+            this.argumentsRead = 0;
+        }
+        
+        @Override
+        protected Object readObjectOverride() throws IOException, ClassNotFoundException {
+            if (in.available() == 0) {
+                throw new EOFException("No more arguments");
+            }
+            return readArgument(in, kindOf(operation, argumentsRead++));
+        }
+        
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+        
+    }
+    
+    /**
+     * Writes a binary reply, as the {@link Server}'s handlers expect to with an {@link ObjectOutputStream}
+     */
+    static final class ReplyWriter extends ObjectOutputStream {
+        private final DataOutputStream out;
+        
+        /**
+         * A {@link ReplyWriter} constructor
+         *
+         * @param out where to write the reply
+         * @throws IOException never; declared by {@link ObjectOutputStream}
+         */
+        ReplyWriter(OutputStream out) throws IOException {
+            super();
+            this.out = new DataOutputStream(out);
+        }
+        
+        @Override
+        protected void writeObjectOverride(Object obj) throws IOException {
+            writeValue(out, obj);
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+        
+        /**
+         * Does nothing: values never refer back to earlier ones
+         */
+        @Override
+        public void reset() {
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+        
+    }
+    
+}
@@ -0,0 +1,366 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link WriteAheadLog}<br />
+ * An append-only log of every mutating {@link Operation} the {@link Server} has applied since the last snapshot.
+ * Records are written by a single committer thread which batches together every record appended while the previous
+ * batch was being forced to disk (group commit), so many handler threads share one fsync. Each record is one line
+ * starting with the CRC32C of the rest of the line; when replaying, a record which fails its check (or has no line end)
+ * is the tail of a write cut short by a crash, so it and anything after it is truncated from the log.
+ *
+ * @author Mikk Sanborn, Eric Qian, Caitlin Wilson, Jimmy Lin, Javad Jafarov
+ * @version 12/12/2022
+ */
+public final class WriteAheadLog implements Closeable {
+    /**
+     * Record types; the first field of every record
+     */
+    public static final String CREATE_USER = "CU";
+    public static final String DELETE_USER = "DU";
+    public static final String SET_USER_NAME = "NM";
+    public static final String SET_USER_PASS = "PW";
+    public static final String BLOCK_USER = "BL";
+    public static final String INVISIBLE_TO_USER = "IV";
+    public static final String ADD_STORE = "ST";
+    public static final String CREATE_CONVERSATION = "CC";
+    public static final String ADD_MESSAGE = "AM";
+    public static final String EDIT_MESSAGE = "EM";
+    
+    private final File file;
+    private final File checkpointFile;
+    /**
+     * Guards everything below it. A lock rather than a monitor, as sessions on virtual threads wait here for every
+     * commit and waiting on a monitor would pin their carrier threads
+     */
+    private final ReentrantLock lock;
+    /**
+     * Signalled when a record is appended or the log is closed
+     */
+    private final Condition appended;
+    /**
+     * Signalled when a batch is forced to disk or the committer fails
+     */
+    private final Condition committed;
+    private final Thread committer;
+    private ArrayList<String> pending;
+    private FileChannel channel;
+    private long appendedSequence;
+    private long durableSequence;
+    private IOException failure;
+    private boolean open;
+    
+    /**
+     * A {@link WriteAheadLog} constructor. Opens (or creates) the log at the given location for appending
+     *
+     * @param file the active log file; the file being checkpointed is kept beside it with an ".old" suffix
+     * @throws IOException if the log could not be opened
+     */
+    public WriteAheadLog(File file) throws IOException {
+        this.file = file;
+        this.checkpointFile = new File(file.getPath() + ".old");
+        this.lock = new ReentrantLock();
+        this.appended = lock.newCondition();
+        this.committed = lock.newCondition();
+        this.pending = new ArrayList<>();
+        this.channel = openChannel(file);
+        this.open = true;
+        
+        this.committer = new Thread(this::runCommitter, "WriteAheadLog committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+    
+    /**
+     * Reads every record (one per line) of the log at the given location, including a log left behind by an
+     * unfinished checkpoint, in the order they were appended. A torn tail is truncated from the file it is in
+     *
+     * @param file     the active log file
+     * @param consumer what to do with each record
+     * @throws IOException if the log could not be read
+     */
+    public static void replay(File file, Consumer<String> consumer) throws IOException {
+        File[] toReplay = {new File(file.getPath() + ".old"), file};
+        for (File f : toReplay) {
+            if (!f.exists()) {
+                continue;
+            }
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            int lineStart = 0;
+            while (lineStart < bytes.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                String record = (lineEnd == bytes.length ? null
+                        : unwrap(new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8)));
+                if (record == null) {
+                    System.err.printf("%s: truncating %d bytes of torn records%n", f, bytes.length - lineStart);
+                    FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE);
+                    channel.truncate(lineStart);
+                    channel.force(false);
+                    channel.close();
+                    break;
+                }
+                if (!record.equals("")) {
+                    consumer.accept(record);
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+    }
+    
+    /**
+     * Checks a line of the log against its checksum
+     *
+     * @param line the line, without its line end
+     * @return the record, or null if the line is damaged
+     */
+    private static String unwrap(String line) {
+        if (line.equals("")) {
+            return line;
+        }
+        if (line.length() < 9 || line.charAt(8) != ' ') {
+            // Written before records were checksummed
+            return line;
+        }
+        String record = line.substring(9);
+        try {
+            int expected = Integer.parseUnsignedInt(line.substring(0, 8), 16);
+            return (expected == checksum(record) ? record : null);
+        } catch (NumberFormatException nfe) {
+            return line;
+        }
+    }
+    
+    /**
+     * Returns the CRC32C of a record
+     *
+     * @param record the record
+     * @return the checksum
+     */
+    private static int checksum(String record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Opens a channel for appending to the given file
+     *
+     * @param f the file to open
+     * @return the opened {@link FileChannel}
+     * @throws IOException if the file could not be opened
+     */
+    private static FileChannel openChannel(File f) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+    
+    /**
+     * Appends a record to the log and waits until the batch containing it has been forced to disk
+     *
+     * @param type   the type of record (see the constants of this class)
+     * @param fields the already-cleaned fields of the record
+     * @return the number of bytes appended
+     * @throws IOException if the record could not be made durable
+     */
+    public int append(String type, String... fields) throws IOException {
+        StringBuilder record = new StringBuilder(type);
+        for (String field : fields) {
+            record.append(Server.DELIMITER).append(field);
+        }
+        String line = String.format("%08x %s\n", checksum(record.toString()), record);
+        
+        lock.lock();
+        try {
+            if (!open) {
+                throw new IOException("Write-ahead log is closed");
+            }
+            pending.add(line);
+            long sequence = ++appendedSequence;
+            appended.signal();
+            
+            while (durableSequence < sequence && failure == null) {
+                try {
+                    committed.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the write-ahead log");
+                }
+            }
+            if (durableSequence < sequence) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return line.getBytes(StandardCharsets.UTF_8).length;
+    }
+    
+    /**
+     * Moves every record appended so far aside so that a snapshot can be taken. Records appended after this call go to
+     * a fresh log; the moved records are kept until {@link #endCheckpoint()} in case the snapshot fails
+     *
+     * @throws IOException if the log could not be moved
+     */
+    public void beginCheckpoint() throws IOException {
+        lock.lock();
+        try {
+            awaitCommitted();
+            channel.close();
+            
+            if (checkpointFile.exists()) {
+                // A previous checkpoint never finished, so keep its records ahead of these ones
+                FileChannel old = openChannel(checkpointFile);
+                FileChannel current = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                current.transferTo(0, current.size(), old);
+                old.force(false);
+                old.close();
+                current.close();
+                if (!file.delete()) {
+                    throw new IOException("Could not remove " + file);
+                }
+            } else if (!file.renameTo(checkpointFile)) {
+                throw new IOException("Could not move " + file + " to " + checkpointFile);
+            }
+            
+            channel = openChannel(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Discards the records moved aside by {@link #beginCheckpoint()} now that a snapshot containing them exists
+     */
+    public void endCheckpoint() {
+        lock.lock();
+        try {
+            if (checkpointFile.exists() && !checkpointFile.delete()) {
+                System.err.println("Could not remove " + checkpointFile);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Waits until every record appended so far has been written. Must hold lock
+     *
+     * @throws IOException if the committer failed
+     */
+    private void awaitCommitted() throws IOException {
+        while (durableSequence < appendedSequence && failure == null) {
+            try {
+                committed.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the write-ahead log");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * The committer loop: takes everything appended since the last batch, writes it, forces it, then wakes the
+     * waiting appenders
+     */
+    private void runCommitter() {
+        while (true) {
+            ArrayList<String> batch;
+            long batchSequence;
+            FileChannel batchChannel;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && open) {
+                    try {
+                        appended.await();
+                    } catch (InterruptedException ie) {
+                        // Keep committing until closed
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                batchSequence = appendedSequence;
+                batchChannel = channel;
+            } finally {
+                lock.unlock();
+            }
+            
+            try {
+                StringBuilder sb = new StringBuilder();
+                for (String record : batch) {
+                    sb.append(record);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    batchChannel.write(buffer);
+                }
+                batchChannel.force(false);
+                
+                lock.lock();
+                try {
+                    durableSequence = batchSequence;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException ioe) {
+                lock.lock();
+                try {
+                    failure = ioe;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Commits anything still pending then closes this log
+     *
+     * @throws IOException if the log could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            awaitCommitted();
+            open = false;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+    
+}